@@ -0,0 +1,199 @@
+package sms.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sms.ConversionMetrics;
+import sms.InoWriter;
+import sms.Motor;
+import sms.Note;
+import sms.NoteAssigner;
+import sms.NoteTable;
+import sms.Parser;
+import sms.Percussion;
+import sms.Pair;
+import sms.ScoreFile;
+import sms.ScoreGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks each stage of the conversion on generated songs of different sizes. Each voice plays about four
+ * notes a second, so larger songs are longer rather than denser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StressBenchmark {
+
+    private static final long SEED = 17;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int notes;
+
+    @Param({"4", "16"})
+    public int voices;
+
+    @Param({"0", "64"})
+    public int tempoChanges;
+
+    @Param({"0.25"})
+    public double chordDensity;
+
+    @Param({"0.1"})
+    public double percussionShare;
+
+    private File midiFile;
+    private File scoreFile;
+    private File outputFolder;
+    private Parser parser;
+    private ArrayList<Note> notesInVoiceOrder;
+    private ArrayList<Note> notesInChronologicalOrder;
+    private NoteTable tableInVoiceOrder;
+    private NoteTable tableInChronologicalOrder;
+    private List<Percussion> percussion;
+    private List<Motor> motors;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // Stop the messages printed by each stage from being timed
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        double lengthMinutes = Math.max(1.0, notes / (voices * 4.0 * 60.0));
+        midiFile = File.createTempFile("stress", ".mid");
+        new ScoreGenerator.Builder()
+                .seed(SEED)
+                .tracks(voices)
+                .notesPerTrack(notes / voices)
+                .chordDensity(chordDensity)
+                .percussionShare(percussionShare)
+                .tempoChangesPerMinute(tempoChanges / lengthMinutes)
+                .lengthMinutes(lengthMinutes)
+                .build()
+                .write(midiFile);
+        outputFolder = Files.createTempDirectory("stressSketches").toFile();
+
+        parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        Pair<ArrayList<Note>, ArrayList<Percussion>> midiData = parser.parseMidi(midiFile);
+        scoreFile = File.createTempFile("stress", ".sms");
+        ScoreFile.write(scoreFile, midiData, parser.getTickResolution());
+
+        notesInVoiceOrder = new ArrayList<>(midiData.first());
+        notesInVoiceOrder.sort(Note.voiceOrder);
+        notesInChronologicalOrder = new ArrayList<>(midiData.first());
+        notesInChronologicalOrder.sort(Note.chronologicalOrder);
+        tableInVoiceOrder = NoteTable.of(notesInVoiceOrder);
+        tableInChronologicalOrder = NoteTable.of(notesInChronologicalOrder);
+        percussion = midiData.second();
+        motors = NoteAssigner.condensingAssign(notesInChronologicalOrder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        Files.deleteIfExists(midiFile.toPath());
+        Files.deleteIfExists(scoreFile.toPath());
+        try (Stream<Path> paths = Files.walk(outputFolder.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object parseMidi() throws Exception {
+        return parser.parseMidi(midiFile);
+    }
+
+    @Benchmark
+    public Object parseMidiTable() throws Exception {
+        return parser.parseMidiTable(midiFile, ConversionMetrics.DISABLED);
+    }
+
+    @Benchmark
+    public Object readScoreFile() throws Exception {
+        return ScoreFile.read(scoreFile);
+    }
+
+    @Benchmark
+    public void streamMidi(Blackhole blackhole) throws Exception {
+        parser.streamMidi(midiFile, blackhole::consume, blackhole::consume, ConversionMetrics.DISABLED);
+    }
+
+    @Benchmark
+    public Object assign() {
+        return NoteAssigner.assign(notesInVoiceOrder);
+    }
+
+    @Benchmark
+    public Object condensingAssign() {
+        return NoteAssigner.condensingAssign(notesInChronologicalOrder);
+    }
+
+    @Benchmark
+    public Object assignTable() {
+        return NoteAssigner.assign(tableInVoiceOrder);
+    }
+
+    @Benchmark
+    public Object assignTableSequential() {
+        return NoteAssigner.assign(tableInVoiceOrder, ConversionMetrics.DISABLED, false);
+    }
+
+    @Benchmark
+    public Object condensingAssignTable() {
+        return NoteAssigner.condensingAssign(tableInChronologicalOrder);
+    }
+
+    @Benchmark
+    public boolean conflictsWith() {
+        return motors.get(0).conflictsWith(motors.get(motors.size() - 1));
+    }
+
+    @Benchmark
+    public double getPercentConflict() {
+        return motors.get(0).getPercentConflict(motors.get(motors.size() - 1));
+    }
+
+    @Benchmark
+    public Object sortMotorsByOnTime() {
+        List<Motor> sorted = new ArrayList<>(motors);
+        sorted.sort(Motor.onTimeDescendingOrder);
+        return sorted;
+    }
+
+    @Benchmark
+    public int inoWriterRun() throws IOException {
+        InoWriter writer = new InoWriter(motors, percussion, "stress.ino", outputFolder);
+        writer.setFormat(InoWriter.Format.PACKED);
+        writer.run();
+        return writer.getDataSize();
+    }
+}
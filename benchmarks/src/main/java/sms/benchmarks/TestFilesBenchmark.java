@@ -0,0 +1,144 @@
+package sms.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sms.InoWriter;
+import sms.Motor;
+import sms.Note;
+import sms.NoteAssigner;
+import sms.Parser;
+import sms.Percussion;
+import sms.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks each stage of the conversion on every MIDI file in testfiles/. Each benchmark converts all of the
+ * files once, so the score is the time for the whole set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TestFilesBenchmark {
+
+    @Param({"MIDI_EVENTS", "STREAMING", "JFUGUE"})
+    public Parser.Engine engine;
+
+    private File[] midiFiles;
+    private File outputFolder;
+    private Parser parser;
+    private final List<ArrayList<Note>> notesInVoiceOrder = new ArrayList<>();
+    private final List<ArrayList<Note>> notesInChronologicalOrder = new ArrayList<>();
+    private final List<List<Percussion>> percussion = new ArrayList<>();
+    private final List<List<Motor>> motors = new ArrayList<>();
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // Stop the messages printed by each stage from being timed
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        midiFiles = new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid"));
+        if (midiFiles == null || midiFiles.length == 0) {
+            throw new IOException("No MIDI files found in testfiles/, run the benchmarks from the project folder");
+        }
+        Arrays.sort(midiFiles);
+        outputFolder = Files.createTempDirectory("testFileSketches").toFile();
+
+        parser = new Parser();
+        parser.setEngine(engine);
+        for (File file : midiFiles) {
+            Pair<ArrayList<Note>, ArrayList<Percussion>> midiData = parser.parseMidi(file);
+
+            ArrayList<Note> voiceOrder = new ArrayList<>(midiData.first());
+            voiceOrder.sort(Note.voiceOrder);
+            notesInVoiceOrder.add(voiceOrder);
+
+            ArrayList<Note> chronologicalOrder = new ArrayList<>(midiData.first());
+            chronologicalOrder.sort(Note.chronologicalOrder);
+            notesInChronologicalOrder.add(chronologicalOrder);
+
+            percussion.add(midiData.second());
+            motors.add(NoteAssigner.condensingAssign(chronologicalOrder));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        try (Stream<Path> paths = Files.walk(outputFolder.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseMidi(Blackhole blackhole) throws Exception {
+        for (File file : midiFiles) {
+            blackhole.consume(parser.parseMidi(file));
+        }
+    }
+
+    @Benchmark
+    public void assign(Blackhole blackhole) {
+        for (ArrayList<Note> notes : notesInVoiceOrder) {
+            blackhole.consume(NoteAssigner.assign(notes));
+        }
+    }
+
+    @Benchmark
+    public void condensingAssign(Blackhole blackhole) {
+        for (ArrayList<Note> notes : notesInChronologicalOrder) {
+            blackhole.consume(NoteAssigner.condensingAssign(notes));
+        }
+    }
+
+    @Benchmark
+    public void motorConflicts(Blackhole blackhole) {
+        for (List<Motor> songMotors : motors) {
+            for (int i = 1; i < songMotors.size(); i++) {
+                blackhole.consume(songMotors.get(0).conflictsWith(songMotors.get(i)));
+                blackhole.consume(songMotors.get(0).getPercentConflict(songMotors.get(i)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void inoWriterRun(Blackhole blackhole) throws IOException {
+        for (int i = 0; i < midiFiles.length; i++) {
+            String name = midiFiles[i].getName();
+            InoWriter writer = new InoWriter(motors.get(i), percussion.get(i),
+                    name.substring(0, name.lastIndexOf('.')) + ".ino", outputFolder);
+            writer.run();
+            blackhole.consume(writer.getDataSize());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+#include "step_group.hpp"
+#include "step_pulse.hpp"
+#include <Arduino.h>
+
+StepGroup::StepGroup() {
+  numMotors = 0;
+}
+
+void StepGroup::begin(uint8_t newNumMotors) {
+  numMotors = newNumMotors > STEP_GROUP_MAX_MOTORS ? STEP_GROUP_MAX_MOTORS : newNumMotors;
+}
+
+Stepper& StepGroup::operator[](uint8_t motor) {
+  return motors[motor];
+}
+
+void StepGroup::run(uint32_t currentTimeMicros) {
+  uint32_t mask = 0;
+  for (uint8_t m = 0; m < numMotors; m++) {
+    if (motors[m].isDue(currentTimeMicros)) {
+      addStepPin(mask, motors[m].getPin());
+      motors[m].advance(currentTimeMicros);
+    }
+  }
+  pulseStepPins(mask);
+}
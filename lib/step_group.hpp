@@ -0,0 +1,22 @@
+#ifndef _STEP_GROUP_HPP_
+#define _STEP_GROUP_HPP_
+
+#include <Arduino.h>
+#include "stepper.hpp"
+
+#define STEP_GROUP_MAX_MOTORS 16
+
+// Steps a group of motors from loop(). Every motor that is due is found in one scan, then all of their
+// pins are pulsed together with direct port writes instead of a pair of digitalWrite calls per motor.
+class StepGroup {
+private:
+  Stepper motors[STEP_GROUP_MAX_MOTORS];
+  uint8_t numMotors;
+public:
+  StepGroup();
+  void begin(uint8_t newNumMotors);
+  Stepper& operator[](uint8_t motor);
+  void run(uint32_t currentTimeMicros);
+};
+
+#endif
@@ -0,0 +1,96 @@
+#ifndef _STEP_PHASE_HPP_
+#define _STEP_PHASE_HPP_
+
+#include <Arduino.h>
+
+// Only the ESP8266 core places functions in IRAM, so other boards compile the attribute away
+#ifndef IRAM_ATTR
+#define IRAM_ATTR
+#endif
+
+// Fine periods have 8 fractional bits, so they are measured in 1/256ths of a microsecond
+#define STEP_PHASE_FRACTION_BITS 8
+#define STEP_PHASE_FRACTION_MASK 0xFF
+
+// The longest period in microseconds that can be stored as a fine period
+#define STEP_PHASE_MAX_PERIOD 0xFFFFFF
+
+// Keeps track of when a motor should step next. The fraction of a microsecond left over from each step is
+// carried into the next one, so the average time between steps matches the fine period exactly. Times are
+// compared by their difference, so stepping keeps working when micros() wraps around after about 71 minutes.
+class StepPhase {
+private:
+  uint32_t finePeriod;
+  uint32_t nextStepTime;
+  uint32_t nextStepFraction;
+  bool running;
+
+  void IRAM_ATTR addToNextStep(int64_t fineTime) {
+    uint64_t position = (((uint64_t)nextStepTime << STEP_PHASE_FRACTION_BITS) | nextStepFraction) + fineTime;
+    nextStepTime = (uint32_t)(position >> STEP_PHASE_FRACTION_BITS);
+    nextStepFraction = (uint32_t)position & STEP_PHASE_FRACTION_MASK;
+  }
+
+  void IRAM_ATTR restart(uint32_t newFinePeriod, uint32_t currentTimeMicros) {
+    nextStepTime = currentTimeMicros;
+    nextStepFraction = 0;
+    addToNextStep(newFinePeriod);
+  }
+
+public:
+  StepPhase() : finePeriod(0), nextStepTime(0), nextStepFraction(0), running(false) {}
+
+  // Converts a period in whole microseconds to a fine period
+  static uint32_t toFinePeriod(uint32_t period) {
+    if (period > STEP_PHASE_MAX_PERIOD) period = STEP_PHASE_MAX_PERIOD;
+    return period << STEP_PHASE_FRACTION_BITS;
+  }
+
+  // Sets the time between steps, in 1/256ths of a microsecond, or stops the motor if it is 0. A motor that is
+  // already running keeps its phase, so its next step comes one new period after its last step instead of one
+  // period after the change.
+  void setFinePeriod(uint32_t newFinePeriod, uint32_t currentTimeMicros) {
+    if (newFinePeriod == 0) {
+      running = false;
+    } else if (running) {
+      addToNextStep((int64_t)newFinePeriod - (int64_t)finePeriod);
+
+      // The last step can't be in the future, so a next step more than a period away means the phase is stale
+      int32_t timeUntilStep = (int32_t)(nextStepTime - currentTimeMicros);
+      if (timeUntilStep < 0) {
+        nextStepTime = currentTimeMicros;
+        nextStepFraction = 0;
+      } else if ((uint32_t)timeUntilStep > (newFinePeriod >> STEP_PHASE_FRACTION_BITS) + 1) {
+        restart(newFinePeriod, currentTimeMicros);
+      }
+    } else {
+      running = true;
+      restart(newFinePeriod, currentTimeMicros);
+    }
+    finePeriod = newFinePeriod;
+  }
+
+  bool isRunning() const {
+    return running;
+  }
+
+  bool IRAM_ATTR isDue(uint32_t currentTimeMicros) const {
+    return running && (int32_t)(currentTimeMicros - nextStepTime) >= 0;
+  }
+
+  uint32_t IRAM_ATTR getNextStepTime() const {
+    return nextStepTime;
+  }
+
+  // Moves the next step one period later. A motor that has fallen more than a period behind starts its phase
+  // again from the current time, instead of taking several steps at once to catch up. The step timer calls
+  // isDue, getNextStepTime and advance from its interrupt, so they are kept in IRAM.
+  void IRAM_ATTR advance(uint32_t currentTimeMicros) {
+    addToNextStep(finePeriod);
+    if ((int32_t)(currentTimeMicros - nextStepTime) > 0) {
+      restart(finePeriod, currentTimeMicros);
+    }
+  }
+};
+
+#endif
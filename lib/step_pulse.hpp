@@ -0,0 +1,63 @@
+#ifndef _STEP_PULSE_HPP_
+#define _STEP_PULSE_HPP_
+
+#include <Arduino.h>
+
+// Only the ESP8266 core places functions in IRAM, so other boards compile the attribute away
+#ifndef IRAM_ATTR
+#define IRAM_ATTR
+#endif
+
+// GPIO16 has its own output register on the ESP8266, so it uses the bit after GPIO15 in a pin mask
+#define STEP_PULSE_GPIO16 16
+
+// How long the step pins are held high. A4988 drivers need at least 1 microsecond.
+#define STEP_PULSE_MICROS 1
+
+// Gets the bit for a pin in a mask of step pins, or 0 for pins above GPIO16, which have to be pulsed on their own
+inline uint32_t stepPinMask(uint8_t pin) {
+  return pin <= STEP_PULSE_GPIO16 ? (uint32_t)1 << pin : 0;
+}
+
+// Sends a step pulse on every pin in the mask at the same time
+inline void IRAM_ATTR pulseStepPins(uint32_t mask) {
+  if (mask == 0) return;
+
+#if defined(ESP8266)
+  // The set and clear registers change only the pins whose bits are written as 1
+  uint32_t portMask = mask & 0xFFFF;
+  bool gpio16 = (mask >> STEP_PULSE_GPIO16) & 1;
+  if (portMask != 0) GPOS = portMask;
+  if (gpio16) GP16O |= 1;
+  delayMicroseconds(STEP_PULSE_MICROS);
+  if (portMask != 0) GPOC = portMask;
+  if (gpio16) GP16O &= ~1;
+#else
+  for (uint8_t pin = 0; pin <= STEP_PULSE_GPIO16; pin++) {
+    if ((mask >> pin) & 1) digitalWrite(pin, HIGH);
+  }
+  delayMicroseconds(STEP_PULSE_MICROS);
+  for (uint8_t pin = 0; pin <= STEP_PULSE_GPIO16; pin++) {
+    if ((mask >> pin) & 1) digitalWrite(pin, LOW);
+  }
+#endif
+}
+
+// Sends a step pulse on a pin that has no bit in a mask of step pins
+inline void IRAM_ATTR pulseStepPin(uint8_t pin) {
+  digitalWrite(pin, HIGH);
+  delayMicroseconds(STEP_PULSE_MICROS);
+  digitalWrite(pin, LOW);
+}
+
+// Adds a pin to a mask of step pins, or pulses it straight away if it has no bit in the mask
+inline void IRAM_ATTR addStepPin(uint32_t& mask, uint8_t pin) {
+  uint32_t pinMask = stepPinMask(pin);
+  if (pinMask != 0) {
+    mask |= pinMask;
+  } else {
+    pulseStepPin(pin);
+  }
+}
+
+#endif
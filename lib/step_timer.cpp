@@ -0,0 +1,166 @@
+#include "step_timer.hpp"
+#include "step_pulse.hpp"
+#include <Arduino.h>
+
+#define NOT_QUEUED 0xFF
+
+// The ESP8266 timer counts 5 ticks per microsecond with a 16x prescaler
+#define TIMER_TICKS_PER_MICRO 5
+
+static StepTimer* activeTimer = nullptr;
+
+static void IRAM_ATTR onStepTimer() {
+  activeTimer->handleInterrupt();
+}
+
+void TimedStepper::setPin(uint8_t newPin) {
+  timer->setPin(index, newPin);
+}
+
+void TimedStepper::setPeriod(uint32_t newPeriod) {
+  timer->setPeriod(index, newPeriod);
+}
+
+void TimedStepper::setFinePeriod(uint32_t newFinePeriod) {
+  timer->setFinePeriod(index, newFinePeriod);
+}
+
+StepTimer::StepTimer() {
+  numMotors = 0;
+  queueSize = 0;
+  for (uint8_t i = 0; i < STEP_TIMER_MAX_MOTORS; i++) {
+    steppers[i].timer = this;
+    steppers[i].index = i;
+    queuePositions[i] = NOT_QUEUED;
+  }
+}
+
+void StepTimer::begin(uint8_t newNumMotors) {
+  numMotors = newNumMotors > STEP_TIMER_MAX_MOTORS ? STEP_TIMER_MAX_MOTORS : newNumMotors;
+  activeTimer = this;
+  timer1_attachInterrupt(onStepTimer);
+  timer1_enable(TIM_DIV16, TIM_EDGE, TIM_SINGLE);
+}
+
+TimedStepper& StepTimer::operator[](uint8_t motor) {
+  return steppers[motor];
+}
+
+void StepTimer::setPin(uint8_t motor, uint8_t newPin) {
+  pins[motor] = newPin;
+  pinMode(newPin, OUTPUT);
+}
+
+void StepTimer::setPeriod(uint8_t motor, uint32_t newPeriod) {
+  setFinePeriod(motor, StepPhase::toFinePeriod(newPeriod));
+}
+
+void StepTimer::setFinePeriod(uint8_t motor, uint32_t newFinePeriod) {
+  if (motor >= numMotors) return;
+
+  noInterrupts();
+  remove(motor);
+  uint32_t currentTimeMicros = micros();
+  phases[motor].setFinePeriod(newFinePeriod, currentTimeMicros);
+  if (phases[motor].isRunning()) {
+    push(motor);
+
+    // Only the earliest step time decides when the timer fires
+    if (queue[0] == motor) {
+      armTimer(currentTimeMicros);
+    }
+  }
+  interrupts();
+}
+
+// The interrupt can run while the flash cache is off, so it and every function it calls are kept in IRAM
+void IRAM_ATTR StepTimer::handleInterrupt() {
+  uint32_t currentTimeMicros = micros();
+
+  // Gather every motor that is due, including those due before the timer could fire again, and step them together
+  uint32_t mask = 0;
+  while (queueSize > 0 && phases[queue[0]].isDue(currentTimeMicros + STEP_TIMER_MIN_DELAY)) {
+    uint8_t motor = queue[0];
+    addStepPin(mask, pins[motor]);
+    phases[motor].advance(currentTimeMicros);
+    siftDown(0);
+  }
+  pulseStepPins(mask);
+
+  armTimer(micros());
+}
+
+uint8_t StepTimer::getQueueSize() const {
+  return queueSize;
+}
+
+void IRAM_ATTR StepTimer::armTimer(uint32_t currentTimeMicros) {
+  if (queueSize == 0) return;
+
+  int32_t delay = (int32_t)(phases[queue[0]].getNextStepTime() - currentTimeMicros);
+  if (delay < STEP_TIMER_MIN_DELAY) {
+    delay = STEP_TIMER_MIN_DELAY;
+  } else if (delay > STEP_TIMER_MAX_DELAY) {
+    // The timer fires early for long periods, finds nothing due and is armed again
+    delay = STEP_TIMER_MAX_DELAY;
+  }
+  timer1_write((uint32_t)delay * TIMER_TICKS_PER_MICRO);
+}
+
+// Step times are compared by their difference so the queue keeps working when micros() wraps around
+bool IRAM_ATTR StepTimer::isEarlier(uint8_t a, uint8_t b) const {
+  return (int32_t)(phases[a].getNextStepTime() - phases[b].getNextStepTime()) < 0;
+}
+
+void IRAM_ATTR StepTimer::swap(uint8_t i, uint8_t j) {
+  uint8_t motor = queue[i];
+  queue[i] = queue[j];
+  queue[j] = motor;
+  queuePositions[queue[i]] = i;
+  queuePositions[queue[j]] = j;
+}
+
+void StepTimer::siftUp(uint8_t position) {
+  while (position > 0) {
+    uint8_t parent = (position - 1) / 2;
+    if (!isEarlier(queue[position], queue[parent])) break;
+    swap(position, parent);
+    position = parent;
+  }
+}
+
+void IRAM_ATTR StepTimer::siftDown(uint8_t position) {
+  while (true) {
+    uint8_t earliest = position;
+    uint8_t left = 2 * position + 1;
+    uint8_t right = left + 1;
+    if (left < queueSize && isEarlier(queue[left], queue[earliest])) earliest = left;
+    if (right < queueSize && isEarlier(queue[right], queue[earliest])) earliest = right;
+    if (earliest == position) break;
+    swap(position, earliest);
+    position = earliest;
+  }
+}
+
+void StepTimer::push(uint8_t motor) {
+  queue[queueSize] = motor;
+  queuePositions[motor] = queueSize;
+  queueSize++;
+  siftUp(queueSize - 1);
+}
+
+void StepTimer::remove(uint8_t motor) {
+  uint8_t position = queuePositions[motor];
+  if (position == NOT_QUEUED) return;
+
+  queueSize--;
+  queuePositions[motor] = NOT_QUEUED;
+  if (position == queueSize) return;
+
+  // Move the last motor into the empty position, then restore the heap order around it
+  uint8_t moved = queue[queueSize];
+  queue[position] = moved;
+  queuePositions[moved] = position;
+  siftUp(position);
+  siftDown(queuePositions[moved]);
+}
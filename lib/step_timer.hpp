@@ -0,0 +1,61 @@
+#ifndef _STEP_TIMER_HPP_
+#define _STEP_TIMER_HPP_
+
+#include <Arduino.h>
+#include "step_phase.hpp"
+
+#define STEP_TIMER_MAX_MOTORS 16
+
+// Deadlines closer than this are stepped in the current interrupt instead of arming the timer again
+#define STEP_TIMER_MIN_DELAY 4
+
+// The longest delay the ESP8266 timer can count with a 16x prescaler, in microseconds
+#define STEP_TIMER_MAX_DELAY 1600000
+
+class StepTimer;
+
+// One motor driven by a StepTimer, with the same interface as a Stepper so sketches can use either one
+class TimedStepper {
+private:
+  StepTimer* timer;
+  uint8_t index;
+  friend class StepTimer;
+public:
+  void setPin(uint8_t newPin);
+  void setPeriod(uint32_t newPeriod);
+  void setFinePeriod(uint32_t newFinePeriod);
+};
+
+// Steps motors from a hardware timer interrupt. The motors waiting to step are kept in a queue ordered by
+// their next step time, and the timer is armed to fire at the earliest one.
+class StepTimer {
+private:
+  uint8_t numMotors;
+  uint8_t pins[STEP_TIMER_MAX_MOTORS];
+  StepPhase phases[STEP_TIMER_MAX_MOTORS];
+  TimedStepper steppers[STEP_TIMER_MAX_MOTORS];
+
+  // A binary min-heap of motor indices ordered by next step time, and each motor's position in the heap
+  uint8_t queue[STEP_TIMER_MAX_MOTORS];
+  uint8_t queuePositions[STEP_TIMER_MAX_MOTORS];
+  uint8_t queueSize;
+
+  bool isEarlier(uint8_t a, uint8_t b) const;
+  void swap(uint8_t i, uint8_t j);
+  void siftUp(uint8_t position);
+  void siftDown(uint8_t position);
+  void push(uint8_t motor);
+  void remove(uint8_t motor);
+  void armTimer(uint32_t currentTimeMicros);
+public:
+  StepTimer();
+  void begin(uint8_t newNumMotors);
+  TimedStepper& operator[](uint8_t motor);
+  void setPin(uint8_t motor, uint8_t newPin);
+  void setPeriod(uint8_t motor, uint32_t newPeriod);
+  void setFinePeriod(uint8_t motor, uint32_t newFinePeriod);
+  void handleInterrupt();
+  uint8_t getQueueSize() const;
+};
+
+#endif
@@ -4,15 +4,12 @@
 Stepper::Stepper(uint8_t newPin) {
   pin = newPin;
   pinMode(pin, OUTPUT);
-  nextStepTime = 0xFFFFFFFF;
-  period = 0xFFFFFFFF;
 }
 
 Stepper & Stepper::operator=(const Stepper & rhs) {
   pin = rhs.pin;
   pinMode(pin, OUTPUT);
-  nextStepTime = rhs.nextStepTime;
-  period = rhs.period;
+  phase = rhs.phase;
 
   return *this;
 }
@@ -23,21 +20,29 @@ void Stepper::setPin(uint8_t newPin) {
 }
 
 void Stepper::setPeriod(uint32_t newPeriod) {
-  if (newPeriod == 0) {
-    period = 0xFFFFFFFF;
-    nextStepTime = 0xFFFFFFFF;      
-  }
-  else {
-    period = newPeriod;
-    nextStepTime = micros() + newPeriod;
-  }
-    
+  setFinePeriod(StepPhase::toFinePeriod(newPeriod));
+}
+
+void Stepper::setFinePeriod(uint32_t newFinePeriod) {
+  phase.setFinePeriod(newFinePeriod, micros());
 }
 
 void Stepper::run(uint32_t currentTimeMicros) {
-  if (currentTimeMicros >= nextStepTime) {
+  if (isDue(currentTimeMicros)) {
     digitalWrite(pin, HIGH);
     digitalWrite(pin, LOW);
-    nextStepTime += period;
+    advance(currentTimeMicros);
   }
 }
+
+bool Stepper::isDue(uint32_t currentTimeMicros) const {
+  return phase.isDue(currentTimeMicros);
+}
+
+void Stepper::advance(uint32_t currentTimeMicros) {
+  phase.advance(currentTimeMicros);
+}
+
+uint8_t Stepper::getPin() const {
+  return pin;
+}
@@ -2,19 +2,23 @@
 #define _STEPPER_HPP_
 
 #include <Arduino.h>
+#include "step_phase.hpp"
 
 class Stepper {
 private:
   uint8_t pin;
-  uint32_t period;
-  uint32_t nextStepTime;
+  StepPhase phase;
 public:
   Stepper(uint8_t newPin);
   Stepper() : Stepper(0xFF) {};
   Stepper& operator=(const Stepper& rhs);
   void setPin(uint8_t newPin);
   void setPeriod(uint32_t newPeriod);
+  void setFinePeriod(uint32_t newFinePeriod);
   void run(uint32_t currentTimeMicros);
+  bool isDue(uint32_t currentTimeMicros) const;
+  void advance(uint32_t currentTimeMicros);
+  uint8_t getPin() const;
 };
 
 #endif
\ No newline at end of file
@@ -0,0 +1,82 @@
+#ifndef _ARDUINO_STUB_H_
+#define _ARDUINO_STUB_H_
+
+// A stand-in for the Arduino core that lets the stepper runtime be compiled and tested on Linux.
+// Time only moves forward when the test advances it, or when stub functions that take time are called.
+
+#include <stdint.h>
+#include <string.h>
+
+// Built with STUB_GENERIC_BOARD, the stub stands in for a board without the ESP8266 core's defines
+#ifndef STUB_GENERIC_BOARD
+#define ESP8266
+#define IRAM_ATTR
+#endif
+#define PROGMEM
+
+#define OUTPUT 1
+#define HIGH 1
+#define LOW 0
+
+#define D0 16
+#define D1 5
+#define D2 4
+#define D3 0
+#define D4 2
+#define D5 14
+#define D6 12
+#define D7 13
+#define D8 15
+
+#define TIM_DIV16 1
+#define TIM_EDGE 0
+#define TIM_SINGLE 0
+
+#define memcpy_P memcpy
+#define pgm_read_dword(address) (*(const uint32_t*)(address))
+
+// The ESP8266 GPIO registers. Writing a mask to GPOS sets those pins high and writing it to GPOC sets them low.
+// GPIO16 is set and cleared with bit 0 of GP16O.
+class OutputRegister {
+private:
+  uint8_t kind;
+  uint32_t value;
+public:
+  explicit OutputRegister(uint8_t newKind);
+  OutputRegister& operator=(uint32_t mask);
+  OutputRegister& operator|=(uint32_t mask);
+  OutputRegister& operator&=(uint32_t mask);
+};
+
+// Collects everything printed to the serial port so tests can read it
+class HardwareSerial {
+public:
+  void begin(unsigned long baud);
+  void print(const char* text);
+  void print(unsigned long value);
+  void print(unsigned int value);
+  void print(int value);
+  void print(double value, int digits = 2);
+  void println(const char* text);
+  void println(double value, int digits = 2);
+};
+
+extern HardwareSerial Serial;
+
+extern OutputRegister GPOS;
+extern OutputRegister GPOC;
+extern OutputRegister GP16O;
+
+uint32_t micros();
+uint32_t millis();
+void pinMode(uint8_t pin, uint8_t mode);
+void digitalWrite(uint8_t pin, uint8_t value);
+void delayMicroseconds(uint32_t micros);
+void noInterrupts();
+void interrupts();
+
+void timer1_attachInterrupt(void (*handler)());
+void timer1_enable(uint8_t divider, uint8_t interruptType, uint8_t reload);
+void timer1_write(uint32_t ticks);
+
+#endif
@@ -0,0 +1,199 @@
+#include <stdio.h>
+#include "Arduino.h"
+#include "arduino_stub.hpp"
+
+#define NUM_PINS 40
+// The pins that can be written through the port registers, GPIO0 to GPIO16
+#define NUM_PORT_PINS 17
+#define TIMER_TICKS_PER_MICRO 5
+
+#define SET_REGISTER 0
+#define CLEAR_REGISTER 1
+#define GPIO16_REGISTER 2
+
+namespace sim {
+  uint32_t digitalWriteCost = 0;
+  uint32_t portWriteCost = 0;
+  uint32_t interruptLatency = 0;
+  uint32_t digitalWriteCalls = 0;
+  uint32_t portWrites = 0;
+  uint32_t timerWrites = 0;
+
+  // The simulated time never wraps, so the stub can tell how much time has passed since the last reset
+  static uint64_t startTime = 0;
+  static uint64_t currentTime = 0;
+
+  static void (*timerHandler)() = nullptr;
+  static bool timerArmed = false;
+  static uint64_t timerDeadline = 0;
+
+  static std::vector<uint64_t> steps[NUM_PINS];
+  static std::string serial;
+
+  void reset(uint32_t startTimeMicros) {
+    startTime = startTimeMicros;
+    currentTime = startTimeMicros;
+    timerArmed = false;
+    digitalWriteCalls = 0;
+    portWrites = 0;
+    timerWrites = 0;
+    for (auto& pinSteps : steps) {
+      pinSteps.clear();
+    }
+    serial.clear();
+  }
+
+  void advance(uint32_t micros) {
+    currentTime += micros;
+  }
+
+  void runTimer(uint32_t duration) {
+    uint64_t endTime = currentTime + duration;
+    while (timerArmed && timerDeadline <= endTime) {
+      currentTime = timerDeadline > currentTime ? timerDeadline : currentTime;
+      currentTime += interruptLatency;
+      timerArmed = false;
+      timerHandler();
+    }
+    if (currentTime < endTime) {
+      currentTime = endTime;
+    }
+  }
+
+  const std::vector<uint64_t>& stepTimes(uint8_t pin) {
+    return steps[pin];
+  }
+
+  const std::string& serialOutput() {
+    return serial;
+  }
+
+  uint32_t pinOperations() {
+    return digitalWriteCalls + portWrites;
+  }
+
+  static void recordSteps(uint32_t mask) {
+    for (uint8_t pin = 0; pin < NUM_PORT_PINS; pin++) {
+      if ((mask >> pin) & 1) {
+        steps[pin].push_back(currentTime - startTime);
+      }
+    }
+  }
+
+  static void writePort() {
+    portWrites++;
+    currentTime += portWriteCost;
+  }
+}
+
+HardwareSerial Serial;
+
+void HardwareSerial::begin(unsigned long) {
+}
+
+void HardwareSerial::print(const char* text) {
+  sim::serial += text;
+}
+
+void HardwareSerial::print(unsigned long value) {
+  sim::serial += std::to_string(value);
+}
+
+void HardwareSerial::print(unsigned int value) {
+  sim::serial += std::to_string(value);
+}
+
+void HardwareSerial::print(int value) {
+  sim::serial += std::to_string(value);
+}
+
+void HardwareSerial::print(double value, int digits) {
+  char text[32];
+  snprintf(text, sizeof(text), "%.*f", digits, value);
+  sim::serial += text;
+}
+
+void HardwareSerial::println(const char* text) {
+  print(text);
+  sim::serial += "\n";
+}
+
+void HardwareSerial::println(double value, int digits) {
+  print(value, digits);
+  sim::serial += "\n";
+}
+
+OutputRegister GPOS(SET_REGISTER);
+OutputRegister GPOC(CLEAR_REGISTER);
+OutputRegister GP16O(GPIO16_REGISTER);
+
+OutputRegister::OutputRegister(uint8_t newKind) {
+  kind = newKind;
+  value = 0;
+}
+
+OutputRegister& OutputRegister::operator=(uint32_t mask) {
+  if (kind == SET_REGISTER) {
+    sim::recordSteps(mask & 0xFFFF);
+  }
+  value = mask;
+  sim::writePort();
+  return *this;
+}
+
+OutputRegister& OutputRegister::operator|=(uint32_t mask) {
+  if (kind == GPIO16_REGISTER && (mask & 1) && !(value & 1)) {
+    sim::recordSteps((uint32_t)1 << 16);
+  }
+  value |= mask;
+  sim::writePort();
+  return *this;
+}
+
+OutputRegister& OutputRegister::operator&=(uint32_t mask) {
+  value &= mask;
+  sim::writePort();
+  return *this;
+}
+
+uint32_t micros() {
+  return (uint32_t)sim::currentTime;
+}
+
+uint32_t millis() {
+  return (uint32_t)(sim::currentTime / 1000);
+}
+
+void pinMode(uint8_t, uint8_t) {
+}
+
+void digitalWrite(uint8_t pin, uint8_t value) {
+  if (value == HIGH && pin < NUM_PINS) {
+    sim::steps[pin].push_back(sim::currentTime - sim::startTime);
+  }
+  sim::digitalWriteCalls++;
+  sim::currentTime += sim::digitalWriteCost;
+}
+
+void delayMicroseconds(uint32_t micros) {
+  sim::currentTime += micros;
+}
+
+void noInterrupts() {
+}
+
+void interrupts() {
+}
+
+void timer1_attachInterrupt(void (*handler)()) {
+  sim::timerHandler = handler;
+}
+
+void timer1_enable(uint8_t, uint8_t, uint8_t) {
+}
+
+void timer1_write(uint32_t ticks) {
+  sim::timerArmed = true;
+  sim::timerDeadline = sim::currentTime + ticks / TIMER_TICKS_PER_MICRO;
+  sim::timerWrites++;
+}
@@ -0,0 +1,36 @@
+#ifndef _ARDUINO_STUB_HPP_
+#define _ARDUINO_STUB_HPP_
+
+#include <stdint.h>
+#include <string>
+#include <vector>
+
+// Controls for the simulated microcontroller behind the Arduino.h stub
+namespace sim {
+  // The time each stub call takes, in microseconds
+  extern uint32_t digitalWriteCost;
+  extern uint32_t portWriteCost;
+  extern uint32_t interruptLatency;
+
+  // The number of times each stub function or register has been written since the last reset
+  extern uint32_t digitalWriteCalls;
+  extern uint32_t portWrites;
+  extern uint32_t timerWrites;
+
+  // The number of pin writes, through either digitalWrite or the port registers
+  uint32_t pinOperations();
+
+  void reset(uint32_t startTimeMicros);
+  void advance(uint32_t micros);
+
+  // Advances time by a number of microseconds, running the timer interrupt whenever it is due
+  void runTimer(uint32_t duration);
+
+  // Everything printed to the serial port since the last reset
+  const std::string& serialOutput();
+
+  // The times at which each pin was set high, in microseconds since the last reset
+  const std::vector<uint64_t>& stepTimes(uint8_t pin);
+}
+
+#endif
@@ -0,0 +1,49 @@
+// Plays a generated sketch on the simulated ESP8266, with loop() stalled now and then to check that the
+// record scheduler keeps the song in time. Build and run with "make sketch SKETCH=<path to .ino>".
+
+#include <stdio.h>
+#include <stdlib.h>
+#include "Arduino.h"
+#include "arduino_stub.hpp"
+
+#define MIN_LOOP_MICROS 5
+#define MAX_LOOP_MICROS 20
+
+// Every STALL_INTERVAL_MICROS, loop() stalls for STALL_MICROS, like it would while Wi-Fi or serial work runs
+#define STALL_INTERVAL_MICROS 400000
+#define STALL_MICROS 35000
+
+void setup();
+void loop();
+
+extern uint32_t recordsPlayed;
+extern uint32_t lateRecords;
+extern uint32_t maxLateMicros;
+
+int main(int argc, char** argv) {
+  uint32_t seconds = argc > 1 ? (uint32_t)atoi(argv[1]) : 60;
+  sim::digitalWriteCost = 1;
+  sim::reset(0);
+
+  setup();
+  uint32_t randomState = 1;
+  uint32_t nextStall = STALL_INTERVAL_MICROS;
+  while (micros() < seconds * 1000000) {
+    loop();
+
+    randomState = randomState * 1103515245 + 12345;
+    sim::advance(MIN_LOOP_MICROS + (randomState >> 16) % (MAX_LOOP_MICROS - MIN_LOOP_MICROS + 1));
+    if (micros() >= nextStall) {
+      sim::advance(STALL_MICROS);
+      nextStall += STALL_INTERVAL_MICROS;
+    }
+
+    // The timer runtime steps the motors from its interrupt, which has to be run by the simulation
+    sim::runTimer(0);
+  }
+
+  printf("%s", sim::serialOutput().c_str());
+  printf("%u records played, %u late by a tick or more, at most %.3f ms late\n",
+         recordsPlayed, lateRecords, maxLateMicros / 1000.0);
+  return recordsPlayed > 0 ? 0 : 1;
+}
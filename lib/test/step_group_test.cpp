@@ -0,0 +1,145 @@
+// Compares stepping each motor with digitalWrite against stepping a group of motors with port writes,
+// on a simulated ESP8266. Build and run with "make test" from this directory.
+
+#include <stdio.h>
+#include "Arduino.h"
+#include "arduino_stub.hpp"
+#include "../stepper.hpp"
+#include "../step_group.hpp"
+
+// Time the simulated loop() spends checking each motor, in microseconds
+#define LOOP_COST_PER_MOTOR 1
+#define DIGITAL_WRITE_COST 1
+
+static const uint8_t pins[] = {D0, D1, D2, D3, D4, D5, D6, D7, D8};
+static const uint8_t numMotors = sizeof(pins) / sizeof(pins[0]);
+
+// Three chords played in unison by three motors each, so motors are often due at the same time
+static const uint32_t periods[numMotors] = {2272, 2272, 2272, 1136, 1136, 1136, 3816, 3816, 3816};
+
+static int failures = 0;
+
+struct Result {
+  uint32_t ticksWithSteps;
+  uint32_t maxOperationsPerTick;
+  uint32_t operations;
+  uint64_t maxUnisonSpread;
+};
+
+static void check(bool condition, const char* description) {
+  if (!condition) {
+    printf("FAILED: %s\n", description);
+    failures++;
+  }
+}
+
+// Finds the largest difference between the step times of motors that play the same note
+static uint64_t maxUnisonSpread() {
+  uint64_t spread = 0;
+  for (uint8_t first = 0; first < numMotors; first += 3) {
+    const std::vector<uint64_t>& a = sim::stepTimes(pins[first]);
+    for (uint8_t other = first + 1; other < first + 3; other++) {
+      const std::vector<uint64_t>& b = sim::stepTimes(pins[other]);
+      size_t count = a.size() < b.size() ? a.size() : b.size();
+      for (size_t i = 0; i < count; i++) {
+        uint64_t difference = a[i] > b[i] ? a[i] - b[i] : b[i] - a[i];
+        if (difference > spread) spread = difference;
+      }
+    }
+  }
+  return spread;
+}
+
+template <typename Tick>
+static Result run(uint32_t duration, Tick tick) {
+  Result result = {0, 0, 0, 0};
+  uint32_t endTime = micros() + duration;
+  while ((int32_t)(endTime - micros()) > 0) {
+    uint32_t operationsBefore = sim::pinOperations();
+    tick();
+    uint32_t operations = sim::pinOperations() - operationsBefore;
+    if (operations > 0) {
+      result.ticksWithSteps++;
+      if (operations > result.maxOperationsPerTick) result.maxOperationsPerTick = operations;
+    }
+  }
+  result.operations = sim::pinOperations();
+  result.maxUnisonSpread = maxUnisonSpread();
+  return result;
+}
+
+static void print(const char* name, const Result& result) {
+  printf("%-8s %7u pin operations, %.2f per tick with steps, at most %u per tick, unison spread %llu us\n",
+         name, result.operations, (double)result.operations / result.ticksWithSteps, result.maxOperationsPerTick,
+         (unsigned long long)result.maxUnisonSpread);
+}
+
+static void testGroupUsesFewerPinOperations() {
+  sim::reset(0);
+  Stepper separate[numMotors];
+  for (uint8_t m = 0; m < numMotors; m++) {
+    separate[m].setPin(pins[m]);
+    separate[m].setPeriod(periods[m]);
+  }
+  Result separateResult = run(1000000, [&]() {
+    for (uint8_t m = 0; m < numMotors; m++) {
+      separate[m].run(micros());
+      sim::advance(LOOP_COST_PER_MOTOR);
+    }
+  });
+
+  sim::reset(0);
+  static StepGroup group;
+  group.begin(numMotors);
+  for (uint8_t m = 0; m < numMotors; m++) {
+    group[m].setPin(pins[m]);
+    group[m].setPeriod(periods[m]);
+  }
+  Result groupResult = run(1000000, [&]() {
+    group.run(micros());
+    sim::advance(LOOP_COST_PER_MOTOR * numMotors);
+  });
+
+  print("separate", separateResult);
+  print("group", groupResult);
+
+  // GPIO16 is written separately from the other pins, so a tick takes at most 4 port writes
+  check(groupResult.maxOperationsPerTick <= 4, "a group steps all due motors with at most 4 port writes");
+  check(groupResult.operations < separateResult.operations, "a group uses fewer pin operations");
+  check(groupResult.maxUnisonSpread == 0, "motors playing the same note step together");
+  check(separateResult.maxUnisonSpread > 0, "separate motors playing the same note step one after another");
+}
+
+static void testGroupTakesEveryStep() {
+  sim::reset(0);
+  static StepGroup group;
+  group.begin(numMotors);
+  for (uint8_t m = 0; m < numMotors; m++) {
+    group[m].setPin(pins[m]);
+    group[m].setPeriod(periods[m]);
+  }
+  run(1000000, [&]() {
+    group.run(micros());
+    sim::advance(LOOP_COST_PER_MOTOR * numMotors);
+  });
+
+  for (uint8_t m = 0; m < numMotors; m++) {
+    size_t expectedSteps = 1000000 / periods[m];
+    size_t steps = sim::stepTimes(pins[m]).size();
+    check(steps + 1 >= expectedSteps && steps <= expectedSteps, "every motor in a group steps at its period");
+  }
+}
+
+int main() {
+  sim::digitalWriteCost = DIGITAL_WRITE_COST;
+
+  testGroupUsesFewerPinOperations();
+  testGroupTakesEveryStep();
+
+  if (failures > 0) {
+    printf("%d checks failed\n", failures);
+    return 1;
+  }
+  printf("All checks passed\n");
+  return 0;
+}
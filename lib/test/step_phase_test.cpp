@@ -0,0 +1,143 @@
+// Measures the pitch accuracy of the stepper timing core across the MIDI note range on a simulated ESP8266.
+// Build and run with "make test" from this directory.
+
+#include <math.h>
+#include <stdio.h>
+#include "Arduino.h"
+#include "arduino_stub.hpp"
+#include "../stepper.hpp"
+
+#define FIRST_MIDI_NOTE 21
+#define LAST_MIDI_NOTE 108
+#define MEASURE_MICROS 2000000
+
+// Each simulated pass through loop() takes between these times, in microseconds
+#define MIN_LOOP_MICROS 5
+#define MAX_LOOP_MICROS 20
+
+static int failures = 0;
+static uint32_t randomState = 1;
+
+static void check(bool condition, const char* description) {
+  if (!condition) {
+    printf("FAILED: %s\n", description);
+    failures++;
+  }
+}
+
+static uint32_t loopTime() {
+  randomState = randomState * 1103515245 + 12345;
+  return MIN_LOOP_MICROS + (randomState >> 16) % (MAX_LOOP_MICROS - MIN_LOOP_MICROS + 1);
+}
+
+static double frequencyOf(int note) {
+  return 440.0 * pow(2.0, (note - 69) / 12.0);
+}
+
+// Runs one motor from loop() and returns the pitch it played, in Hertz
+static double play(Stepper& motor, uint32_t duration) {
+  uint32_t endTime = micros() + duration;
+  while ((int32_t)(endTime - micros()) > 0) {
+    motor.run(micros());
+    sim::advance(loopTime());
+  }
+
+  const std::vector<uint64_t>& steps = sim::stepTimes(D1);
+  if (steps.size() < 2) return 0.0;
+  return (steps.size() - 1) * 1000000.0 / (steps.back() - steps.front());
+}
+
+static double centsBetween(double actual, double expected) {
+  return 1200.0 * fabs(log2(actual / expected));
+}
+
+static void testPitchAcrossMidiRange() {
+  double maxWholeError = 0.0;
+  double maxFineError = 0.0;
+  printf("note  frequency  whole period error  fine period error\n");
+
+  for (int note = FIRST_MIDI_NOTE; note <= LAST_MIDI_NOTE; note++) {
+    double frequency = frequencyOf(note);
+
+    // The writer's periods for the standard format are whole microseconds from a whole number of Hertz
+    sim::reset(0);
+    Stepper whole(D1);
+    whole.setPeriod(1000000 / lround(frequency));
+    double wholeError = centsBetween(play(whole, MEASURE_MICROS), frequency);
+
+    sim::reset(0);
+    Stepper fine(D1);
+    fine.setFinePeriod((uint32_t)lround(1000000.0 * (1 << STEP_PHASE_FRACTION_BITS) / frequency));
+    double fineError = centsBetween(play(fine, MEASURE_MICROS), frequency);
+
+    if (note % 12 == 0 || note == LAST_MIDI_NOTE) {
+      printf("%4d %10.2f %13.3f cents %12.3f cents\n", note, frequency, wholeError, fineError);
+    }
+    maxWholeError = fmax(maxWholeError, wholeError);
+    maxFineError = fmax(maxFineError, fineError);
+  }
+  printf("max  %24.3f cents %12.3f cents\n", maxWholeError, maxFineError);
+
+  check(maxFineError < 0.1, "fine periods play every note within 0.1 cents");
+  check(maxFineError < maxWholeError, "fine periods are more accurate than whole periods");
+}
+
+static void testPitchChangeKeepsPhase() {
+  sim::reset(0);
+  Stepper motor(D1);
+  motor.setPeriod(1000);
+  sim::advance(1000);
+  motor.run(micros());
+  check(sim::stepTimes(D1).size() == 1, "the first step comes one period after the note starts");
+
+  // Changing the pitch 300 us after a step moves the next step to one new period after that step
+  sim::advance(300);
+  motor.setPeriod(500);
+  sim::advance(199);
+  motor.run(micros());
+  check(sim::stepTimes(D1).size() == 1, "no step before the new period has passed");
+  sim::advance(1);
+  motor.run(micros());
+  check(sim::stepTimes(D1).size() == 2 && sim::stepTimes(D1)[1] == 1500, "the next step keeps the phase");
+
+  // A change to a period that has already passed steps right away
+  sim::advance(400);
+  motor.setPeriod(100);
+  motor.run(micros());
+  check(sim::stepTimes(D1).size() == 3 && sim::stepTimes(D1)[2] == 1900, "an overdue step is taken right away");
+
+  // Stopping and starting again starts a new phase
+  motor.setPeriod(0);
+  sim::advance(1000);
+  motor.run(micros());
+  check(sim::stepTimes(D1).size() == 3, "a stopped motor doesn't step");
+  motor.setPeriod(250);
+  sim::advance(250);
+  motor.run(micros());
+  check(sim::stepTimes(D1).size() == 4 && sim::stepTimes(D1)[3] == 3150, "a restarted motor starts a new phase");
+}
+
+static void testMicrosWraparound() {
+  // Start a second before micros() wraps around to 0
+  sim::reset(0xFFFFFFFF - 1000000);
+  Stepper motor(D1);
+  uint32_t finePeriod = (uint32_t)lround(1000000.0 * (1 << STEP_PHASE_FRACTION_BITS) / frequencyOf(69));
+  motor.setFinePeriod(finePeriod);
+  double frequency = play(motor, 2000000);
+
+  check(centsBetween(frequency, frequencyOf(69)) < 0.1, "the pitch stays the same across the wraparound");
+  check(sim::stepTimes(D1).size() >= 879, "the motor keeps stepping after the wraparound");
+}
+
+int main() {
+  testPitchAcrossMidiRange();
+  testPitchChangeKeepsPhase();
+  testMicrosWraparound();
+
+  if (failures > 0) {
+    printf("%d checks failed\n", failures);
+    return 1;
+  }
+  printf("All checks passed\n");
+  return 0;
+}
@@ -0,0 +1,81 @@
+// Checks that the group and timer runtimes step every pin, including pins above GPIO16 that have no bit in
+// a pin mask. "make test" runs it on a simulated ESP8266 and again on a board without the ESP8266 defines.
+
+#include <stdio.h>
+#include "Arduino.h"
+#include "arduino_stub.hpp"
+#include "../stepper.hpp"
+#include "../step_group.hpp"
+#include "../step_timer.hpp"
+
+#define LOOP_COST_PER_MOTOR 1
+#define DURATION 1000000
+
+static const uint8_t pins[] = {D0, D1, D2, 17, 21, 33};
+static const uint8_t numMotors = sizeof(pins) / sizeof(pins[0]);
+static const uint32_t periods[numMotors] = {2272, 2272, 1136, 2272, 1136, 3816};
+
+static int failures = 0;
+
+static void check(bool condition, const char* description) {
+  if (!condition) {
+    printf("FAILED: %s\n", description);
+    failures++;
+  }
+}
+
+static void checkEveryPinSteps(const char* description) {
+  for (uint8_t m = 0; m < numMotors; m++) {
+    size_t expectedSteps = DURATION / periods[m];
+    size_t steps = sim::stepTimes(pins[m]).size();
+    check(steps + 1 >= expectedSteps && steps <= expectedSteps, description);
+  }
+}
+
+static void testGroupStepsEveryPin() {
+  sim::reset(0);
+  static StepGroup group;
+  group.begin(numMotors);
+  for (uint8_t m = 0; m < numMotors; m++) {
+    group[m].setPin(pins[m]);
+    group[m].setPeriod(periods[m]);
+  }
+
+  uint32_t endTime = micros() + DURATION;
+  while ((int32_t)(endTime - micros()) > 0) {
+    group.run(micros());
+    sim::advance(LOOP_COST_PER_MOTOR * numMotors);
+  }
+  checkEveryPinSteps("every motor in a group steps at its period, whatever its pin");
+}
+
+static void testTimerStepsEveryPin() {
+  sim::reset(0);
+  static StepTimer timer;
+  timer.begin(numMotors);
+  for (uint8_t m = 0; m < numMotors; m++) {
+    timer[m].setPin(pins[m]);
+    timer[m].setPeriod(periods[m]);
+  }
+
+  sim::runTimer(DURATION);
+  checkEveryPinSteps("every motor on a timer steps at its period, whatever its pin");
+}
+
+int main() {
+#if defined(ESP8266)
+  printf("Stepping pins on a simulated ESP8266\n");
+#else
+  printf("Stepping pins on a simulated board without the ESP8266 core\n");
+#endif
+
+  testGroupStepsEveryPin();
+  testTimerStepsEveryPin();
+
+  if (failures > 0) {
+    printf("%d checks failed\n", failures);
+    return 1;
+  }
+  printf("All checks passed\n");
+  return 0;
+}
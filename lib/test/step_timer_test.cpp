@@ -0,0 +1,171 @@
+// Checks the timing of the stepper runtimes against a simulated ESP8266.
+// Build and run with "make test" from this directory.
+
+#include <math.h>
+#include <stdio.h>
+#include "Arduino.h"
+#include "arduino_stub.hpp"
+#include "../stepper.hpp"
+#include "../step_pulse.hpp"
+#include "../step_timer.hpp"
+
+// Time the simulated loop() spends on each motor besides stepping it, in microseconds
+#define LOOP_COST_PER_MOTOR 2
+#define DIGITAL_WRITE_COST 1
+#define INTERRUPT_LATENCY 2
+
+static const uint8_t pins[] = {D0, D1, D2, D3, D4, D5, D6, D7, D8};
+static const uint8_t numMotors = sizeof(pins) / sizeof(pins[0]);
+
+static int failures = 0;
+
+struct Timing {
+  double maxJitter;
+  double maxCentsError;
+};
+
+static void check(bool condition, const char* description) {
+  if (!condition) {
+    printf("FAILED: %s\n", description);
+    failures++;
+  }
+}
+
+static uint32_t periodForMidiNote(int note) {
+  double frequency = 440.0 * pow(2.0, (note - 69) / 12.0);
+  return (uint32_t)(1000000 / lround(frequency));
+}
+
+// Measures how far the time between steps strays from each motor's period, and the pitch of each motor
+// compared to its period
+static Timing measure(const uint32_t* periods) {
+  Timing timing = {0.0, 0.0};
+  for (uint8_t m = 0; m < numMotors; m++) {
+    const std::vector<uint64_t>& steps = sim::stepTimes(pins[m]);
+    if (steps.size() < 2) {
+      timing.maxJitter = INFINITY;
+      continue;
+    }
+
+    for (size_t i = 1; i < steps.size(); i++) {
+      double jitter = fabs((double)(steps[i] - steps[i - 1]) - periods[m]);
+      timing.maxJitter = fmax(timing.maxJitter, jitter);
+    }
+    double averagePeriod = (double)(steps.back() - steps.front()) / (steps.size() - 1);
+    double cents = 1200.0 * fabs(log2(averagePeriod / periods[m]));
+    timing.maxCentsError = fmax(timing.maxCentsError, cents);
+  }
+  return timing;
+}
+
+static Timing runPolling(const uint32_t* periods, uint32_t duration, uint32_t startTime) {
+  sim::reset(startTime);
+  Stepper motors[numMotors];
+  for (uint8_t m = 0; m < numMotors; m++) {
+    motors[m].setPin(pins[m]);
+    motors[m].setPeriod(periods[m]);
+  }
+
+  uint32_t endTime = micros() + duration;
+  while ((int32_t)(endTime - micros()) > 0) {
+    for (uint8_t m = 0; m < numMotors; m++) {
+      motors[m].run(micros());
+      sim::advance(LOOP_COST_PER_MOTOR);
+    }
+  }
+  return measure(periods);
+}
+
+static Timing runTimer(const uint32_t* periods, uint32_t duration, uint32_t startTime) {
+  sim::reset(startTime);
+  static StepTimer motors;
+  motors.begin(numMotors);
+  for (uint8_t m = 0; m < numMotors; m++) {
+    motors[m].setPin(pins[m]);
+    motors[m].setPeriod(periods[m]);
+  }
+
+  sim::runTimer(duration);
+  return measure(periods);
+}
+
+static void testTimerIsMoreAccurateThanPolling() {
+  // A chord spread over the top of the range, where loop jitter is easiest to hear
+  uint32_t periods[numMotors];
+  for (uint8_t m = 0; m < numMotors; m++) {
+    periods[m] = periodForMidiNote(76 + 3 * m);
+  }
+
+  Timing polling = runPolling(periods, 2000000, 0);
+  uint32_t pollingWrites = sim::pinOperations();
+  Timing timer = runTimer(periods, 2000000, 0);
+  uint32_t timerWrites = sim::pinOperations();
+
+  printf("%-8s max jitter %6.1f us, max pitch error %6.2f cents, %u pin operations\n",
+         "polling", polling.maxJitter, polling.maxCentsError, pollingWrites);
+  printf("%-8s max jitter %6.1f us, max pitch error %6.2f cents, %u pin operations\n",
+         "timer", timer.maxJitter, timer.maxCentsError, timerWrites);
+
+  // A step can only be delayed by the interrupt latency and the pulse for the motors due before it
+  double jitterBound = INTERRUPT_LATENCY + STEP_TIMER_MIN_DELAY + STEP_PULSE_MICROS + 2 * DIGITAL_WRITE_COST;
+  check(timer.maxJitter <= jitterBound, "timer steps are delayed by at most one interrupt");
+  check(timer.maxCentsError < 1.0, "timer pitch is within 1 cent");
+  check(timer.maxJitter < polling.maxJitter, "timer has less jitter than polling");
+}
+
+static void testTimerAcrossMicrosWraparound() {
+  uint32_t periods[numMotors];
+  for (uint8_t m = 0; m < numMotors; m++) {
+    periods[m] = periodForMidiNote(48 + 5 * m);
+  }
+
+  // Start half a second before micros() wraps around to 0
+  Timing timer = runTimer(periods, 1000000, 0xFFFFFFFF - 500000);
+  check(timer.maxCentsError < 1.0, "timer pitch is within 1 cent across the wraparound");
+  for (uint8_t m = 0; m < numMotors; m++) {
+    size_t expectedSteps = 1000000 / periods[m];
+    size_t steps = sim::stepTimes(pins[m]).size();
+    check(steps + 1 >= expectedSteps && steps <= expectedSteps + 1, "every step is taken across the wraparound");
+  }
+}
+
+static void testTimerPeriodChanges() {
+  sim::reset(0);
+  static StepTimer motors;
+  motors.begin(3);
+  for (uint8_t m = 0; m < 3; m++) {
+    motors[m].setPin(pins[m]);
+    motors[m].setPeriod(1000);
+  }
+  sim::runTimer(100000);
+  check(motors.getQueueSize() == 3, "three motors are queued");
+
+  // Stop one motor, change another and leave the third alone
+  motors[0].setPeriod(0);
+  motors[1].setPeriod(2500);
+  size_t stoppedSteps = sim::stepTimes(pins[0]).size();
+  size_t changedSteps = sim::stepTimes(pins[1]).size();
+  size_t unchangedSteps = sim::stepTimes(pins[2]).size();
+  sim::runTimer(100000);
+
+  check(motors.getQueueSize() == 2, "a stopped motor leaves the queue");
+  check(sim::stepTimes(pins[0]).size() == stoppedSteps, "a stopped motor doesn't step");
+  check(sim::stepTimes(pins[1]).size() - changedSteps == 40, "a changed motor steps at its new period");
+  check(sim::stepTimes(pins[2]).size() - unchangedSteps == 100, "other motors keep their period");
+}
+
+int main() {
+  sim::digitalWriteCost = DIGITAL_WRITE_COST;
+  sim::interruptLatency = INTERRUPT_LATENCY;
+
+  testTimerIsMoreAccurateThanPolling();
+  testTimerAcrossMicrosWraparound();
+  testTimerPeriodChanges();
+
+  if (failures > 0) {
+    printf("%d checks failed\n", failures);
+    return 1;
+  }
+  printf("All checks passed\n");
+  return 0;
+}
@@ -0,0 +1,304 @@
+package sms;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts every MIDI file in a directory tree into an Arduino sketch. The files are parsed, assigned to motors
+ * and written at the same time on a work-stealing thread pool. Each sketch is written to the same relative path
+ * in the output folder as its MIDI file, and the results are listed in order of the input paths, so the output
+ * doesn't depend on the order the files finish in.
+ */
+public class BatchConverter {
+
+    /**
+     * The result of converting one MIDI file
+     * @param input The MIDI file
+     * @param sketch The sketch file that was written, or null if the conversion failed
+     * @param motors The number of motors the sketch uses
+     * @param nanos The time taken to convert the file, in nanoseconds
+     * @param error The reason the conversion failed, or null if it succeeded
+     * @param metrics The stages of the conversion that finished
+     */
+    public record FileResult(Path input, Path sketch, int motors, long nanos, String error, ConversionMetrics metrics) {
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    /**
+     * The result of converting one MIDI file, with the details that are only reported for a single file
+     * @param result The result that is reported for every file
+     * @param notes The number of notes in the song
+     * @param percussion The number of percussion commands in the song
+     * @param dataSize The number of bytes of song data in the sketch
+     */
+    record Conversion(FileResult result, int notes, int percussion, int dataSize) {}
+
+    /**
+     * The results of converting a directory
+     * @param results The result for each MIDI file, in order of the files' paths
+     * @param elapsedNanos The time taken to convert every file, in nanoseconds
+     * @param cacheHits The number of stages read from the conversion cache, or 0 if there is no cache
+     * @param cacheMisses The number of stages that weren't in the conversion cache
+     */
+    public record Summary(List<FileResult> results, long elapsedNanos, int cacheHits, int cacheMisses) {
+        public int succeeded() {
+            return (int) results.stream().filter(FileResult::succeeded).count();
+        }
+
+        public int failed() {
+            return results.size() - succeeded();
+        }
+
+        public double filesPerSecond() {
+            return elapsedNanos > 0 ? results.size() * 1e9 / elapsedNanos : 0.0;
+        }
+    }
+
+    private Parser.Engine engine = Parser.Engine.JFUGUE;
+    private TickResolution tickResolution = TickResolution.HUNDREDTH_SECOND;
+    private NoteAssigner.Strategy strategy = NoteAssigner.Strategy.PRESERVE_VOICES;
+    private int motorBudget = 0;
+    private InoWriter.Format format = InoWriter.Format.STANDARD;
+    private InoWriter.Runtime runtime = InoWriter.Runtime.POLLING;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ConversionCache cache = null;
+
+    /**
+     * Converts every .mid and .midi file in a directory and its subdirectories
+     * @param inputFolder The directory to search for MIDI files
+     * @param outputFolder The directory to write the sketches to
+     * @return The result for each file and the total time taken
+     * @throws IOException If the input directory can't be searched
+     */
+    public Summary convert(File inputFolder, File outputFolder) throws IOException {
+        Path inputRoot = inputFolder.toPath();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(inputRoot)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(BatchConverter::isMidiFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        // Every file is read with the same settings, so one parser is shared by every thread
+        Parser parser = newParser();
+
+        // Two MIDI files in the same folder that only differ by extension would write to the same sketch
+        Map<Path, Path> firstInputBySketch = new HashMap<>();
+        List<Callable<FileResult>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            Path sketchFolder = outputFolder.toPath().resolve(inputRoot.relativize(file)).getParent();
+            Path firstInput = firstInputBySketch.putIfAbsent(sketchFolder.resolve(sketchFileName(file)), file);
+            if (firstInput != null) {
+                tasks.add(() -> new FileResult(file, null, 0, 0, "Writes the same sketch as " + firstInput,
+                        ConversionMetrics.DISABLED));
+            } else {
+                tasks.add(() -> convertFile(parser, file, sketchFolder.toFile()).result());
+            }
+        }
+
+        int hitsBefore = cache != null ? cache.getHits() : 0;
+        int missesBefore = cache != null ? cache.getMisses() : 0;
+        long start = System.nanoTime();
+        List<FileResult> results = new ArrayList<>(files.size());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<FileResult> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch conversion was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch conversion failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        if (cache == null) {
+            return new Summary(results, elapsedNanos, 0, 0);
+        }
+        return new Summary(results, elapsedNanos, cache.getHits() - hitsBefore, cache.getMisses() - missesBefore);
+    }
+
+    /**
+     * @return A parser that reads files with this converter's settings
+     */
+    Parser newParser() {
+        Parser parser = new Parser();
+        parser.setEngine(engine);
+        parser.setTickResolution(tickResolution);
+        parser.setPreserveVoices(strategy == NoteAssigner.Strategy.PRESERVE_VOICES);
+        return parser;
+    }
+
+    /**
+     * Converts one MIDI file into a sketch with this converter's settings. A failed conversion is reported in
+     * the result instead of being thrown.
+     * @param parser A parser from newParser
+     * @param file The MIDI file
+     * @param sketchFolder The folder to create the sketch's folder in
+     * @return The result of the conversion, and the sizes of the song if it succeeded
+     */
+    Conversion convertFile(Parser parser, Path file, File sketchFolder) {
+        long start = System.nanoTime();
+        ConversionMetrics metrics = new ConversionMetrics();
+        try {
+            // Unchanged files with the same settings skip parsing and assigning
+            String notesKey = cache != null ? ConversionCache.notesKey(file.toFile(), parser) : null;
+            Pair<ArrayList<Note>, ArrayList<Percussion>> midiData = notesKey != null ? cache.getMidiData(notesKey) : null;
+            if (midiData == null) {
+                midiData = parser.parseMidi(file.toFile(), metrics);
+                if (notesKey != null) cache.putMidiData(notesKey, midiData, tickResolution);
+            }
+            List<Motor> motors = assignNotes(midiData.first(), notesKey, metrics, null);
+
+            InoWriter writer = writeSketch(motors, midiData.second(), tickResolution, sketchFileName(file), sketchFolder,
+                    metrics);
+            FileResult result = new FileResult(file, Path.of(writer.getOutputPath()), motors.size(),
+                    System.nanoTime() - start, null, metrics);
+            return new Conversion(result, midiData.first().size(), midiData.second().size(), writer.getDataSize());
+        } catch (InvalidMidiDataException e) {
+            return failed(file, start, "Invalid MIDI data: " + e.getMessage(), metrics);
+        } catch (IOException e) {
+            return failed(file, start, "Could not be read or written: " + e.getMessage(), metrics);
+        } catch (RuntimeException e) {
+            return failed(file, start, e.toString(), metrics);
+        }
+    }
+
+    private static Conversion failed(Path file, long start, String error, ConversionMetrics metrics) {
+        return new Conversion(new FileResult(file, null, 0, System.nanoTime() - start, error, metrics), 0, 0, 0);
+    }
+
+    /**
+     * Assigns notes to motors with this converter's strategy, reusing the cached motors if the notes were
+     * assigned with the same settings before
+     * @param notes The notes to assign, which are sorted into the order the strategy needs
+     * @param notesKey The key the notes are cached under, or null if they aren't cached
+     * @param metrics The metrics to record the stages in
+     * @param optimalAssignment Receives the assignment when the OPTIMAL strategy runs, or null if it isn't needed
+     * @return The motors the notes were assigned to
+     */
+    List<Motor> assignNotes(ArrayList<Note> notes, String notesKey, ConversionMetrics metrics,
+                            Consumer<NoteAssigner.Assignment> optimalAssignment) {
+        String motorsKey = cache != null && notesKey != null
+                ? ConversionCache.motorsKey(notesKey, strategy, motorBudget) : null;
+        List<Motor> motors = motorsKey != null ? cache.getMotors(motorsKey) : null;
+        if (motors != null) return motors;
+
+        switch (strategy) {
+            case PRESERVE_VOICES -> {
+                notes.sort(Note.voiceOrder);
+                motors = NoteAssigner.assign(notes, metrics);
+            }
+            case OPTIMAL -> {
+                var assignment = NoteAssigner.optimalAssign(notes, motorBudget, metrics);
+                if (optimalAssignment != null) optimalAssignment.accept(assignment);
+                motors = assignment.motors();
+            }
+            default -> {
+                notes.sort(Note.chronologicalOrder);
+                motors = NoteAssigner.condensingAssign(notes, metrics);
+            }
+        }
+        if (motorsKey != null) cache.putMotors(motorsKey, motors);
+        return motors;
+    }
+
+    /**
+     * Writes a sketch with this converter's format and runtime
+     * @param tickResolution The tick resolution the times of the notes are in
+     * @param sketchName The name of the sketch file
+     * @param sketchFolder The folder to create the sketch's folder in
+     * @param metrics The metrics to record the WRITE stage in
+     * @return The writer, which holds the sketch's path and size
+     * @throws IOException If the sketch can't be written
+     */
+    InoWriter writeSketch(List<Motor> motors, List<Percussion> percussion, TickResolution tickResolution,
+                          String sketchName, File sketchFolder, ConversionMetrics metrics) throws IOException {
+        InoWriter writer = new InoWriter(motors, percussion, sketchName, sketchFolder);
+        writer.setFormat(format);
+        writer.setTickResolution(tickResolution);
+        writer.setRuntime(runtime);
+        writer.setMetrics(metrics);
+        writer.run();
+        return writer;
+    }
+
+    private static boolean isMidiFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".mid") || name.endsWith(".midi");
+    }
+
+    private static String sketchFileName(Path file) {
+        return sketchFileName(file.getFileName().toString());
+    }
+
+    /**
+     * @param fileName The name of a MIDI file
+     * @return The name of the file's sketch, with its extension replaced by .ino, or .ino added if it has none
+     */
+    static String sketchFileName(String fileName) {
+        int extension = fileName.lastIndexOf('.');
+        return (extension > 0 ? fileName.substring(0, extension) : fileName) + ".ino";
+    }
+
+    public void setEngine(Parser.Engine value) {
+        engine = value;
+    }
+
+    public void setTickResolution(TickResolution value) {
+        tickResolution = value;
+    }
+
+    public void setStrategy(NoteAssigner.Strategy value) {
+        strategy = value;
+    }
+
+    /**
+     * Sets the largest number of motors used by the OPTIMAL strategy, or 0 to use as many as needed
+     */
+    public void setMotorBudget(int value) {
+        motorBudget = value;
+    }
+
+    public void setFormat(InoWriter.Format value) {
+        format = value;
+    }
+
+    public void setRuntime(InoWriter.Runtime value) {
+        runtime = value;
+    }
+
+    /**
+     * Sets the cache that parsed notes and motor assignments are kept in, or null to always convert every stage
+     */
+    public void setCache(ConversionCache value) {
+        cache = value;
+    }
+
+    /**
+     * Sets the number of files converted at the same time
+     */
+    public void setParallelism(int value) {
+        parallelism = value;
+    }
+}
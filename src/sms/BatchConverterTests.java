@@ -0,0 +1,94 @@
+package sms;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchConverterTests {
+
+    @Test
+    public void testConvertFolder() throws IOException {
+        // Put the test files in a folder tree, along with a file that isn't valid MIDI data
+        Path input = Files.createTempDirectory("batchInput");
+        Files.createDirectories(input.resolve("tempo"));
+        File[] testFiles = new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid"));
+        assert testFiles != null;
+        for (File file : testFiles) {
+            Path folder = file.getName().startsWith("tempo") ? input.resolve("tempo") : input;
+            Files.copy(file.toPath(), folder.resolve(file.getName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.writeString(input.resolve("broken.mid"), "not a midi file");
+        Files.writeString(input.resolve("notes.txt"), "not a midi file either");
+
+        BatchConverter converter = new BatchConverter();
+        converter.setEngine(Parser.Engine.MIDI_EVENTS);
+        converter.setFormat(InoWriter.Format.PACKED);
+
+        Path sequentialOutput = Files.createTempDirectory("batchSequential");
+        converter.setParallelism(1);
+        var sequential = converter.convert(input.toFile(), sequentialOutput.toFile());
+
+        Path parallelOutput = Files.createTempDirectory("batchParallel");
+        converter.setParallelism(4);
+        var parallel = converter.convert(input.toFile(), parallelOutput.toFile());
+
+        // Every MIDI file has a result, in order of the input paths, and only the broken file fails
+        assertEquals(testFiles.length + 1, parallel.results().size());
+        assertEquals(testFiles.length, parallel.succeeded());
+        assertEquals(1, parallel.failed());
+        assertEquals(input.resolve("broken.mid"), parallel.results().get(0).input());
+        assertNull(parallel.results().get(0).sketch());
+        assertTrue(parallel.results().get(0).error().startsWith("Invalid MIDI data"));
+        for (int i = 1; i < parallel.results().size(); i++) {
+            assertTrue(parallel.results().get(i - 1).input().compareTo(parallel.results().get(i).input()) < 0);
+        }
+
+        // Sketches keep the folder structure of the input files
+        assertTrue(Files.exists(parallelOutput.resolve("tempo/tempochange_1part/tempochange_1part.ino")));
+        assertTrue(Files.exists(parallelOutput.resolve("simplePercussion/simplePercussion.ino")));
+
+        // Converting on several threads writes the same sketches as converting on one
+        List<Path> sequentialFiles = listFiles(sequentialOutput);
+        List<Path> parallelFiles = listFiles(parallelOutput);
+        assertEquals(sequentialFiles, parallelFiles);
+        for (Path file : sequentialFiles) {
+            assertArrayEquals(file.toString(), Files.readAllBytes(sequentialOutput.resolve(file)),
+                    Files.readAllBytes(parallelOutput.resolve(file)));
+        }
+        for (int i = 0; i < sequential.results().size(); i++) {
+            assertEquals(sequential.results().get(i).motors(), parallel.results().get(i).motors());
+        }
+
+        // Clean up
+        deleteTree(input);
+        deleteTree(sequentialOutput);
+        deleteTree(parallelOutput);
+    }
+
+    private static List<Path> listFiles(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).map(root::relativize).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package sms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts MIDI files without the interactive command prompt, using options given on the command line.
+ * The results are printed to standard output as one JSON object, and the exit status tells whether every
+ * file was converted. Messages printed while converting go to standard error so the JSON can be read by
+ * other programs.
+ */
+public class CommandLine {
+
+    // Exit statuses
+    public static final int SUCCESS = 0;
+    public static final int CONVERSION_FAILED = 1;
+    public static final int USAGE_ERROR = 2;
+
+    private static final String USAGE = """
+            Usage: sms --input <file or folder> [options]
+              -i, --input <path>         The MIDI file, or a folder of MIDI files to convert
+              -o, --output <folder>      The folder to write sketches to (default: arduino)
+              -p, --preserve-voices <b>  true to play each voice on its own motors, false to condense them
+              -s, --strategy <name>      voices/condensing/optimal (default: voices)
+              -m, --motors <n>           The largest number of motors for the optimal strategy, or 0 for no limit
+              -e, --engine <name>        jfugue/midi/stream (default: jfugue)
+              -f, --format <name>        standard/packed/indexed (default: standard)
+              -r, --resolution <tick>    10ms/1ms/250us (default: 10ms)
+              -t, --runtime <name>       polling/timer (default: polling)
+              -j, --threads <n>          The number of files converted at once in a folder
+              -c, --cache <folder>       Reuse the parsed notes and motors of files converted before
+              -h, --help                 Print this message
+            """;
+
+    private File input;
+    private File output = new File("arduino");
+    private Parser.Engine engine = Parser.Engine.JFUGUE;
+    private NoteAssigner.Strategy strategy = NoteAssigner.Strategy.PRESERVE_VOICES;
+    private int motorBudget = 0;
+    private InoWriter.Format format = InoWriter.Format.STANDARD;
+    private TickResolution tickResolution = TickResolution.HUNDREDTH_SECOND;
+    private InoWriter.Runtime runtime = InoWriter.Runtime.POLLING;
+    private int threads = 0;
+    private File cacheFolder = null;
+
+    private CommandLine() {}
+
+    /**
+     * Runs a conversion with the options given on the command line
+     * @param args The command line arguments
+     * @param out The stream the JSON results are printed to
+     * @return The exit status: SUCCESS, CONVERSION_FAILED or USAGE_ERROR
+     */
+    public static int run(String[] args, PrintStream out) {
+        CommandLine commandLine = new CommandLine();
+        try {
+            if (!commandLine.parseArgs(args)) {
+                out.print(USAGE);
+                return SUCCESS;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return USAGE_ERROR;
+        }
+
+        // Keep standard output for the JSON results
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        try {
+            ConversionCache cache = null;
+            if (commandLine.cacheFolder != null) {
+                try {
+                    cache = new ConversionCache(commandLine.cacheFolder, ConversionCache.DEFAULT_MAX_BYTES);
+                } catch (IOException e) {
+                    System.err.println("Cache folder " + commandLine.cacheFolder + " could not be opened: " + e.getMessage());
+                }
+            }
+            return commandLine.input.isDirectory() ? commandLine.convertFolder(out, cache)
+                    : commandLine.convertFile(out, cache);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Reads the options from the command line arguments
+     * @return False if help was asked for, or true if there is a file to convert
+     * @throws IllegalArgumentException If an option or its value isn't recognized
+     */
+    private boolean parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-h") || option.equals("--help")) {
+                return false;
+            }
+            if (!option.startsWith("-")) {
+                throw new IllegalArgumentException("Unexpected argument: " + option
+                        + "\nThe input file or folder is given with -i");
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "-i", "--input" -> input = new File(value);
+                case "-o", "--output" -> output = new File(value);
+                case "-p", "--preserve-voices" -> strategy = switch (value.toLowerCase(Locale.ROOT)) {
+                    case "true" -> NoteAssigner.Strategy.PRESERVE_VOICES;
+                    case "false" -> NoteAssigner.Strategy.CONDENSING;
+                    default -> throw unrecognized(option, value, "true/false");
+                };
+                case "-s", "--strategy" -> strategy = switch (value.toLowerCase(Locale.ROOT)) {
+                    case "voices" -> NoteAssigner.Strategy.PRESERVE_VOICES;
+                    case "condensing" -> NoteAssigner.Strategy.CONDENSING;
+                    case "optimal" -> NoteAssigner.Strategy.OPTIMAL;
+                    default -> throw unrecognized(option, value, "voices/condensing/optimal");
+                };
+                case "-m", "--motors" -> motorBudget = parseCount(option, value);
+                case "-e", "--engine" -> engine = switch (value.toLowerCase(Locale.ROOT)) {
+                    case "jfugue" -> Parser.Engine.JFUGUE;
+                    case "midi" -> Parser.Engine.MIDI_EVENTS;
+                    case "stream" -> Parser.Engine.STREAMING;
+                    default -> throw unrecognized(option, value, "jfugue/midi/stream");
+                };
+                case "-f", "--format" -> format = switch (value.toLowerCase(Locale.ROOT)) {
+                    case "standard" -> InoWriter.Format.STANDARD;
+                    case "packed" -> InoWriter.Format.PACKED;
+                    case "indexed" -> InoWriter.Format.INDEXED;
+                    default -> throw unrecognized(option, value, "standard/packed/indexed");
+                };
+                case "-r", "--resolution" -> {
+                    tickResolution = TickResolution.fromLabel(value.toLowerCase(Locale.ROOT));
+                    if (tickResolution == null) throw unrecognized(option, value, "10ms/1ms/250us");
+                }
+                case "-t", "--runtime" -> runtime = switch (value.toLowerCase(Locale.ROOT)) {
+                    case "polling" -> InoWriter.Runtime.POLLING;
+                    case "timer" -> InoWriter.Runtime.TIMER;
+                    default -> throw unrecognized(option, value, "polling/timer");
+                };
+                case "-j", "--threads" -> threads = parseCount(option, value);
+                case "-c", "--cache" -> cacheFolder = new File(value);
+                default -> throw new IllegalArgumentException("Unrecognized option: " + option);
+            }
+        }
+
+        if (input == null) {
+            throw new IllegalArgumentException("An input file or folder is required");
+        }
+        return true;
+    }
+
+    private static IllegalArgumentException unrecognized(String option, String value, String required) {
+        return new IllegalArgumentException("Unrecognized value for " + option + ": " + value + "\nRequired: " + required);
+    }
+
+    private static int parseCount(String option, String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 0) return count;
+        } catch (NumberFormatException ignored) {
+        }
+        throw unrecognized(option, value, "a whole number of 0 or more");
+    }
+
+    /**
+     * Converts a single MIDI file, recording each stage of the conversion
+     */
+    private int convertFile(PrintStream out, ConversionCache cache) {
+        BatchConverter converter = newConverter(cache);
+        var conversion = converter.convertFile(converter.newParser(), input.toPath(), output);
+        var result = conversion.result();
+
+        Json json = new Json().add("input", input.getPath());
+        if (!result.succeeded()) {
+            json.add("success", false).add("error", result.error());
+            out.println(json.add("totalMillis", millis(result.nanos())).add("stages", stages(result.metrics())));
+            return CONVERSION_FAILED;
+        }
+
+        ConversionMetrics metrics = result.metrics();
+        json.add("sketch", result.sketch().toString())
+                .add("success", true)
+                .add("notes", conversion.notes())
+                .add("percussion", conversion.percussion())
+                .add("motors", result.motors())
+                .add("dataBytes", conversion.dataSize())
+                .add("parseMillis", stageMillis(metrics, ConversionMetrics.Stage.PARSE))
+                .add("assignMillis", stageMillis(metrics, ConversionMetrics.Stage.ASSIGN))
+                .add("writeMillis", stageMillis(metrics, ConversionMetrics.Stage.WRITE))
+                .add("totalMillis", millis(result.nanos()))
+                .add("stages", stages(metrics));
+        if (cache != null) {
+            json.add("cacheHits", cache.getHits()).add("cacheMisses", cache.getMisses());
+        }
+        out.println(json);
+        return SUCCESS;
+    }
+
+    /**
+     * Converts every MIDI file in a folder with a BatchConverter
+     */
+    private int convertFolder(PrintStream out, ConversionCache cache) {
+        BatchConverter converter = newConverter(cache);
+        if (threads > 0) {
+            converter.setParallelism(threads);
+        }
+
+        BatchConverter.Summary summary;
+        try {
+            summary = converter.convert(input, output);
+        } catch (IOException e) {
+            out.println(new Json().add("input", input.getPath()).add("success", false)
+                    .add("error", "Could not be read: " + e.getMessage()));
+            return CONVERSION_FAILED;
+        }
+
+        List<Json> files = new ArrayList<>(summary.results().size());
+        for (var result : summary.results()) {
+            Json file = new Json().add("input", result.input().toString());
+            if (result.succeeded()) {
+                file.add("sketch", result.sketch().toString()).add("success", true).add("motors", result.motors());
+            } else {
+                file.add("success", false).add("error", result.error());
+            }
+            files.add(file.add("totalMillis", millis(result.nanos())).add("stages", stages(result.metrics())));
+        }
+
+        Json json = new Json().add("input", input.getPath())
+                .add("success", summary.failed() == 0)
+                .add("succeeded", summary.succeeded())
+                .add("failed", summary.failed())
+                .add("totalMillis", millis(summary.elapsedNanos()))
+                .add("filesPerSecond", summary.filesPerSecond());
+        if (cache != null) {
+            json.add("cacheHits", summary.cacheHits()).add("cacheMisses", summary.cacheMisses());
+        }
+        out.println(json.add("files", files));
+        return summary.failed() == 0 ? SUCCESS : CONVERSION_FAILED;
+    }
+
+    /**
+     * @return A converter with the options given on the command line
+     */
+    private BatchConverter newConverter(ConversionCache cache) {
+        BatchConverter converter = new BatchConverter();
+        converter.setEngine(engine);
+        converter.setTickResolution(tickResolution);
+        converter.setStrategy(strategy);
+        converter.setMotorBudget(motorBudget);
+        converter.setFormat(format);
+        converter.setRuntime(runtime);
+        converter.setCache(cache);
+        return converter;
+    }
+
+    /**
+     * Lists the measurements of each stage in the order the stages finished
+     */
+    private static List<Json> stages(ConversionMetrics metrics) {
+        List<Json> stages = new ArrayList<>();
+        for (var stage : metrics.getStages()) {
+            stages.add(new Json().add("stage", stage.stage().name())
+                    .add("millis", millis(stage.wallNanos()))
+                    .add("allocatedBytes", stage.allocatedBytes())
+                    .add("notes", stage.notes())
+                    .add("motors", stage.motors())
+                    .add("records", stage.records())
+                    .add("mergeIterations", stage.mergeIterations())
+                    .add("mergeRounds", stage.mergeRounds()));
+        }
+        return stages;
+    }
+
+    private static double stageMillis(ConversionMetrics metrics, ConversionMetrics.Stage stage) {
+        var total = metrics.total(stage);
+        return total != null ? millis(total.wallNanos()) : 0.0;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    /**
+     * Builds a JSON object one field at a time, keeping the fields in the order they were added
+     */
+    private static final class Json {
+        private final StringBuilder builder = new StringBuilder("{");
+
+        Json add(String name, Object value) {
+            if (builder.length() > 1) builder.append(',');
+            appendString(name);
+            builder.append(':');
+            if (value instanceof String s) {
+                appendString(s);
+            } else if (value instanceof List<?> list) {
+                builder.append('[');
+                for (int i = 0; i < list.size(); i++) {
+                    if (i > 0) builder.append(',');
+                    builder.append(list.get(i));
+                }
+                builder.append(']');
+            } else {
+                builder.append(value);
+            }
+            return this;
+        }
+
+        private void appendString(String s) {
+            builder.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> builder.append("\\\"");
+                    case '\\' -> builder.append("\\\\");
+                    case '\n' -> builder.append("\\n");
+                    case '\r' -> builder.append("\\r");
+                    case '\t' -> builder.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            builder.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            builder.append(c);
+                        }
+                    }
+                }
+            }
+            builder.append('"');
+        }
+
+        @Override
+        public String toString() {
+            return builder + "}";
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package sms;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandLineTests {
+
+    @Test
+    public void testConvertFile() throws IOException {
+        Path output = Files.createTempDirectory("commandLine");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int status = CommandLine.run(new String[] {"--input", "testfiles/tempochange_1part.mid",
+                "--output", output.toString(), "--engine", "midi", "--strategy", "condensing", "-f", "packed"},
+                new PrintStream(out));
+
+        // Only the JSON results are printed to the output stream
+        assertEquals(CommandLine.SUCCESS, status);
+        String json = out.toString().trim();
+        assertEquals(1, json.lines().count());
+        assertTrue(json, json.startsWith("{\"input\":\"testfiles/tempochange_1part.mid\",\"sketch\":\""));
+        assertTrue(json, json.contains("\"success\":true,\"notes\":12,\"percussion\":0,\"motors\":1,"));
+        assertTrue(json, json.contains("\"parseMillis\":"));
+        assertTrue(json, json.endsWith("}"));
+        assertTrue(Files.exists(output.resolve("tempochange_1part/tempochange_1part.ino")));
+
+        deleteTree(output);
+    }
+
+    @Test
+    public void testConvertFolder() throws IOException {
+        Path output = Files.createTempDirectory("commandLine");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int status = CommandLine.run(new String[] {"-i", "testfiles", "-o", output.toString(), "-e", "midi", "-j", "2"},
+                new PrintStream(out));
+
+        assertEquals(CommandLine.SUCCESS, status);
+        String json = out.toString().trim();
+        assertTrue(json, json.startsWith("{\"input\":\"testfiles\",\"success\":true,\"succeeded\":"));
+        assertTrue(json, json.contains("\"failed\":0,"));
+        assertTrue(json, json.contains("\"files\":[{\"input\":\""));
+
+        deleteTree(output);
+    }
+
+    @Test
+    public void testInputWithoutExtension() throws IOException {
+        Path output = Files.createTempDirectory("commandLine");
+        Path inputFolder = Files.createDirectory(output.resolve("input"));
+        Path input = Files.copy(Path.of("testfiles/tempochange_1part.mid"), inputFolder.resolve("song"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int status = CommandLine.run(new String[] {"-i", input.toString(), "-o", output.toString(), "-e", "midi"},
+                new PrintStream(out));
+
+        assertEquals(out.toString(), CommandLine.SUCCESS, status);
+        assertTrue(Files.exists(output.resolve("song/song.ino")));
+
+        deleteTree(output);
+    }
+
+    @Test
+    public void testExitStatus() throws IOException {
+        Path output = Files.createTempDirectory("commandLine");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Unknown options and values are usage errors, and nothing is converted
+        assertEquals(CommandLine.USAGE_ERROR, CommandLine.run(new String[] {"--bogus", "1"}, new PrintStream(out)));
+        assertEquals(CommandLine.USAGE_ERROR, CommandLine.run(new String[] {"-i", "testfiles", "-e", "bogus"},
+                new PrintStream(out)));
+        assertEquals(CommandLine.USAGE_ERROR, CommandLine.run(new String[] {"-e", "midi"}, new PrintStream(out)));
+        assertEquals(CommandLine.USAGE_ERROR, CommandLine.run(new String[] {"testfiles/tempochange_1part.mid"},
+                new PrintStream(out)));
+        assertEquals("", out.toString());
+
+        // A file that can't be read is reported as a failed conversion
+        int status = CommandLine.run(new String[] {"-i", "testfiles/missing.mid", "-o", output.toString(), "-e", "midi"},
+                new PrintStream(out));
+        assertEquals(CommandLine.CONVERSION_FAILED, status);
+        assertTrue(out.toString(), out.toString().startsWith("{\"input\":\"testfiles/missing.mid\",\"success\":false,\"error\":\""));
+
+        deleteTree(output);
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            List<Path> files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path : files) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -12,7 +12,7 @@ import java.util.List;
 public class CommandPrompt {
 
     // The commands accepted by the program
-    private enum CommandTypes{HELP, EXIT, READ, SET, WRITE, PARAMETERS, UNKNOWN}
+    private enum CommandTypes{HELP, EXIT, READ, SET, WRITE, BATCH, PARAMETERS, METRICS, SAVE, LOAD, UNKNOWN}
 
     // Used for reading user input from the terminal
     private final BufferedReader reader;
@@ -20,12 +20,31 @@ public class CommandPrompt {
     // Used for reading a MIDI file
     private final Parser parser;
     private Pair<ArrayList<Note>, ArrayList<Percussion>> midiData;
+    // The tick resolution the current MIDI data was read with
+    private TickResolution midiDataResolution;
 
     private File inputFile;
 
+    // The stages of converting the current file, recorded from when it was read
+    private ConversionMetrics metrics = new ConversionMetrics();
+
+    // Used for assigning notes to motors
+    private NoteAssigner.Strategy strategy = NoteAssigner.Strategy.PRESERVE_VOICES;
+    private int motorBudget = 0;
+
+    // Keeps the parsed notes and motor assignments of files read before, or null if caching is turned off
+    private ConversionCache cache;
+    // The key the current file's notes are cached under
+    private String notesKey;
+
+    // Used for writing the Arduino sketch
+    private InoWriter.Format outputFormat = InoWriter.Format.STANDARD;
+    private InoWriter.Runtime runtime = InoWriter.Runtime.POLLING;
+
     public CommandPrompt() {
         reader = new BufferedReader(new InputStreamReader(System.in));
         parser = new Parser();
+        cache = openCache();
         System.out.println("Stepper Motor Symphony by Dylan Green");
         System.out.println("Version 2023.01.13");
     }
@@ -65,7 +84,11 @@ public class CommandPrompt {
             case "read" -> type = CommandTypes.READ;
             case "set" -> type = CommandTypes.SET;
             case "write" -> type = CommandTypes.WRITE;
+            case "batch" -> type = CommandTypes.BATCH;
             case "parameters" -> type = CommandTypes.PARAMETERS;
+            case "metrics" -> type = CommandTypes.METRICS;
+            case "save" -> type = CommandTypes.SAVE;
+            case "load" -> type = CommandTypes.LOAD;
 
             default -> type = CommandTypes.UNKNOWN;
         }
@@ -86,7 +109,11 @@ public class CommandPrompt {
             case READ -> read(command);
             case SET -> set(command);
             case WRITE -> write();
+            case BATCH -> batch(command);
             case PARAMETERS -> parameters();
+            case METRICS -> metrics();
+            case SAVE -> save(command);
+            case LOAD -> load(command);
             case UNKNOWN -> unknown();
         }
     }
@@ -122,7 +149,20 @@ public class CommandPrompt {
 
         // Try to parse the file entered by the user
         try {
-            midiData = parser.parseMidi(inputFile);
+            metrics = new ConversionMetrics();
+            notesKey = cache != null ? ConversionCache.notesKey(inputFile, parser) : null;
+            midiData = cache != null ? cache.getMidiData(notesKey) : null;
+            if (midiData != null) {
+                midiDataResolution = parser.getTickResolution();
+                System.out.println("Successfully read file " + inputFile + " from the cache");
+                return;
+            }
+
+            midiData = parser.parseMidi(inputFile, metrics);
+            midiDataResolution = parser.getTickResolution();
+            if (cache != null) {
+                cache.putMidiData(notesKey, midiData, midiDataResolution);
+            }
             System.out.println("Successfully read file " + inputFile);
         } catch (InvalidMidiDataException e) {
             System.err.println("File " + inputFile + " contains invalid MIDI data.");
@@ -131,9 +171,60 @@ public class CommandPrompt {
         }
     }
 
+    /**
+     * Saves the notes of the current file to a score file, so that they can be loaded again without parsing
+     * the MIDI file
+     * @param command The command entered by the user. The save command will be formatted as "save <filename>"
+     */
+    private void save(Command command) {
+        if (command.args.length != 1) {
+            System.err.println("Usage: save <filename>");
+            return;
+        }
+        if (inputFile == null) {
+            System.err.println("An input file has not been read yet.");
+            return;
+        }
+
+        try {
+            ScoreFile.write(new File(command.args[0]), midiData, midiDataResolution);
+            System.out.println("Saved " + midiData.first().size() + " notes to " + command.args[0]);
+        } catch (IOException e) {
+            System.err.println("File " + command.args[0] + " could not be written to.");
+        }
+    }
+
+    /**
+     * Loads the notes saved in a score file in place of reading a MIDI file
+     * @param command The command entered by the user. The load command will be formatted as "load <filename>"
+     */
+    private void load(Command command) {
+        if (command.args.length != 1) {
+            System.err.println("Usage: load <filename>");
+            return;
+        }
+
+        File file = new File(command.args[0]);
+        try {
+            ScoreFile.Contents contents = ScoreFile.read(file);
+            inputFile = file;
+            midiData = contents.midiData();
+            midiDataResolution = contents.tickResolution();
+            notesKey = null;
+            metrics = new ConversionMetrics();
+            System.out.println("Successfully loaded " + midiData.first().size() + " notes from " + file);
+            if (midiDataResolution != parser.getTickResolution()) {
+                System.out.println("The notes were saved at a resolution of " + midiDataResolution);
+            }
+        } catch (IOException e) {
+            System.err.println("File " + file + " could not be loaded: " + e.getMessage());
+        }
+    }
+
     /**
      * Sets a variable to the value provided by the user. The variable names
-     * accepted by the program are "preserveTracks",
+     * accepted by the program are "preserveTracks", "engine", "strategy", "motors",
+     * "format", "resolution", "runtime" and "cache"
      * @param command The command entered by the user. The set command will be
      *                formatted as "set <variable> <value>"
      */
@@ -151,13 +242,93 @@ public class CommandPrompt {
             case "preservetracks", "p" -> {
                 if (value.equals("true")) {
                     parser.setPreserveVoices(true);
+                    strategy = NoteAssigner.Strategy.PRESERVE_VOICES;
                 } else if (value.equals("false")) {
                     parser.setPreserveVoices(false);
+                    strategy = NoteAssigner.Strategy.CONDENSING;
                 } else {
                     System.err.println("Unrecognized value");
                     System.err.println("Required: true/false");
                 }
             }
+            case "engine", "e" -> {
+                if (value.equals("jfugue")) {
+                    parser.setEngine(Parser.Engine.JFUGUE);
+                } else if (value.equals("midi")) {
+                    parser.setEngine(Parser.Engine.MIDI_EVENTS);
+                } else if (value.equals("stream")) {
+                    parser.setEngine(Parser.Engine.STREAMING);
+                } else {
+                    System.err.println("Unrecognized value");
+                    System.err.println("Required: jfugue/midi/stream");
+                }
+            }
+            case "strategy", "s" -> {
+                switch (value) {
+                    case "voices" -> strategy = NoteAssigner.Strategy.PRESERVE_VOICES;
+                    case "condensing" -> strategy = NoteAssigner.Strategy.CONDENSING;
+                    case "optimal" -> strategy = NoteAssigner.Strategy.OPTIMAL;
+                    default -> {
+                        System.err.println("Unrecognized value");
+                        System.err.println("Required: voices/condensing/optimal");
+                        return;
+                    }
+                }
+                parser.setPreserveVoices(strategy == NoteAssigner.Strategy.PRESERVE_VOICES);
+            }
+            case "motors", "m" -> {
+                try {
+                    motorBudget = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    System.err.println("Unrecognized value");
+                    System.err.println("Required: a number of motors, or 0 for no limit");
+                }
+            }
+            case "format", "f" -> {
+                if (value.equals("standard")) {
+                    outputFormat = InoWriter.Format.STANDARD;
+                } else if (value.equals("packed")) {
+                    outputFormat = InoWriter.Format.PACKED;
+                } else if (value.equals("indexed")) {
+                    outputFormat = InoWriter.Format.INDEXED;
+                } else {
+                    System.err.println("Unrecognized value");
+                    System.err.println("Required: standard/packed/indexed");
+                }
+            }
+            case "resolution", "r" -> {
+                TickResolution resolution = TickResolution.fromLabel(value);
+                if (resolution == null) {
+                    System.err.println("Unrecognized value");
+                    System.err.println("Required: 10ms/1ms/250us");
+                    return;
+                }
+                parser.setTickResolution(resolution);
+                if (inputFile != null && resolution != midiDataResolution) {
+                    System.out.println("Read the file again to use the new resolution");
+                }
+            }
+            case "runtime", "t" -> {
+                if (value.equals("polling")) {
+                    runtime = InoWriter.Runtime.POLLING;
+                } else if (value.equals("timer")) {
+                    runtime = InoWriter.Runtime.TIMER;
+                } else {
+                    System.err.println("Unrecognized value");
+                    System.err.println("Required: polling/timer");
+                }
+            }
+            case "cache", "c" -> {
+                if (value.equals("on")) {
+                    if (cache == null) cache = openCache();
+                } else if (value.equals("off")) {
+                    cache = null;
+                    notesKey = null;
+                } else {
+                    System.err.println("Unrecognized value");
+                    System.err.println("Required: on/off");
+                }
+            }
             default -> System.err.println("Unrecognized variable name: " + varName);
         }
     }
@@ -171,14 +342,15 @@ public class CommandPrompt {
             return;
         }
 
-        String outputFileName = inputFile.getName();
-        outputFileName = outputFileName.substring(0, outputFileName.lastIndexOf('.')) + ".ino";
+        // Score files loaded with "load" don't need an extension, so the sketch name can't assume one
+        String outputFileName = BatchConverter.sketchFileName(inputFile.getName());
 
-        // Assign the notes to motors and write the output to a file
-        List<Motor> motors = assignNotes();
+        // Assign the notes to motors and write the output to a file, the same way the command line does
+        BatchConverter converter = newConverter();
+        List<Motor> motors = converter.assignNotes(midiData.first(), notesKey, metrics, this::reportOptimalAssignment);
         try {
-            InoWriter writer = new InoWriter(motors, midiData.second(), outputFileName);
-            writer.run();
+            converter.writeSketch(motors, midiData.second(), midiDataResolution, outputFileName, new File("arduino"),
+                    metrics);
         } catch (IOException e) {
             System.err.println("The Arduino sketch file could not be written to.");
             return;
@@ -187,25 +359,104 @@ public class CommandPrompt {
         System.out.println("Program requires " + motors.size() + " motors");
     }
 
+    /**
+     * Converts every MIDI file in a folder and its subfolders into Arduino sketches, using the current parameters
+     * @param command The command entered by the user. The batch command will be formatted as
+     *                "batch <input folder> <output folder>"
+     */
+    private void batch(Command command) {
+        if (command.args.length != 2) {
+            System.err.println("Usage: batch <input folder> <output folder>");
+            return;
+        }
+
+        BatchConverter converter = newConverter();
+        BatchConverter.Summary summary;
+        try {
+            summary = converter.convert(new File(command.args[0]), new File(command.args[1]));
+        } catch (IOException e) {
+            System.err.println("Folder " + command.args[0] + " could not be read.");
+            return;
+        }
+
+        for (var result : summary.results()) {
+            if (result.succeeded()) {
+                System.out.println("OK     " + result.input() + " -> " + result.sketch() + " (" + result.motors()
+                        + " motors, " + result.nanos() / 1000000 + " ms)");
+            } else {
+                System.out.println("FAILED " + result.input() + ": " + result.error());
+            }
+        }
+        System.out.printf("Converted %d of %d files in %d ms (%.1f files/s), %d failed%n", summary.succeeded(),
+                summary.results().size(), summary.elapsedNanos() / 1000000, summary.filesPerSecond(), summary.failed());
+        if (cache != null) {
+            System.out.printf("Cache: %d hits, %d misses%n", summary.cacheHits(), summary.cacheMisses());
+        }
+    }
+
     /**
      * Prints parameters that can be changed by the user to the console
      */
     private void parameters() {
         System.out.println("Input File Name: " + inputFile);
         System.out.println("preserveVoices: " + parser.getPreserveVoices());
+        System.out.println("engine: " + parser.getEngine());
+        System.out.println("strategy: " + strategy);
+        System.out.println("motors: " + (motorBudget > 0 ? motorBudget : "no limit"));
+        System.out.println("format: " + outputFormat);
+        System.out.println("resolution: " + parser.getTickResolution());
+        System.out.println("runtime: " + runtime);
+        System.out.println("cache: " + (cache == null ? "off" : ConversionCache.DEFAULT_FOLDER + " (" + cache.getHits()
+                + " hits, " + cache.getMisses() + " misses)"));
+    }
+
+    /**
+     * Prints how long each stage of converting the current file took and how much memory it allocated
+     */
+    private void metrics() {
+        if (inputFile == null) {
+            System.err.println("An input file has not been read yet.");
+            return;
+        }
+        System.out.print(metrics);
+    }
+
+    /**
+     * Opens the cache folder used by the command prompt
+     * @return The cache, or null if the folder couldn't be opened
+     */
+    private static ConversionCache openCache() {
+        try {
+            return new ConversionCache(new File(ConversionCache.DEFAULT_FOLDER), ConversionCache.DEFAULT_MAX_BYTES);
+        } catch (IOException e) {
+            System.err.println("The cache folder could not be opened, so files will not be cached.");
+            return null;
+        }
+    }
+
+    /**
+     * @return A converter with the current parameters
+     */
+    private BatchConverter newConverter() {
+        BatchConverter converter = new BatchConverter();
+        converter.setEngine(parser.getEngine());
+        converter.setTickResolution(parser.getTickResolution());
+        converter.setStrategy(strategy);
+        converter.setMotorBudget(motorBudget);
+        converter.setFormat(outputFormat);
+        converter.setRuntime(runtime);
+        converter.setCache(cache);
+        return converter;
     }
 
     /**
-     * This method entails assigning notes to motors
-     * @return List of Motor(s)
+     * Tells the user how many motors the song needs, and which notes didn't fit in the motor budget
      */
-    private List<Motor> assignNotes() {
-        if (parser.getPreserveVoices()) {
-            midiData.first().sort(Note.voiceOrder);
-            return NoteAssigner.assign(midiData.first());
-        } else {
-            midiData.first().sort(Note.chronologicalOrder);
-            return NoteAssigner.condensingAssign(midiData.first());
+    private void reportOptimalAssignment(NoteAssigner.Assignment assignment) {
+        System.out.println("Song needs at least " + assignment.minimumMotors() + " motors");
+        if (!assignment.droppedNotes().isEmpty() || assignment.shortenedNotes() > 0) {
+            System.out.println("Dropped " + assignment.droppedNotes().size() + " notes and shortened "
+                    + assignment.shortenedNotes() + " notes to fit " + motorBudget + " motors");
         }
     }
 
@@ -0,0 +1,251 @@
+package sms;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the times when two motors would need to play notes at the same time. Instead of comparing
+ * every note of one motor against every note of the other, the start and end times of both motors'
+ * notes are swept through in chronological order while counting how many notes each motor is playing.
+ * This takes linear time when the notes are already in chronological order, which they are for motors
+ * filled by the note assigner.
+ */
+public final class ConflictAnalyzer {
+
+    private ConflictAnalyzer() {}
+
+    /**
+     * The result of comparing the usage times of two motors
+     * @param overlapDuration The total time that notes from both motors are playing at once, in hundredths
+     *                        of a second. Notes that overlap several notes on the other motor are counted once
+     *                        for each of those notes.
+     * @param overlapCount The number of pairs of notes from the two motors that conflict
+     * @param firstConflictTime The earliest time at which a pair of notes conflicts, or -1 if there are no conflicts
+     */
+    public record Report(int overlapDuration, int overlapCount, int firstConflictTime) {
+        public boolean hasConflict() {
+            return overlapCount > 0;
+        }
+    }
+
+    /**
+     * Compares the usage times of two motors
+     * @param times1 The usage times of the first motor
+     * @param times2 The usage times of the second motor
+     * @return The overlap duration, overlap count and first conflict between the two motors
+     */
+    public static Report analyze(List<Motor.IntPair> times1, List<Motor.IntPair> times2) {
+        return sweep(pack(times1), times1.size(), pack(times2), times2.size(), false);
+    }
+
+    /**
+     * Compares the usage times of two motors, stored as start and end times one after another in an array
+     * @param times1 The usage times of the first motor
+     * @param count1 The number of usage times of the first motor
+     * @param times2 The usage times of the second motor
+     * @param count2 The number of usage times of the second motor
+     * @return The overlap duration, overlap count and first conflict between the two motors
+     */
+    static Report analyze(int[] times1, int count1, int[] times2, int count2) {
+        return sweep(times1, count1, times2, count2, false);
+    }
+
+    /**
+     * Checks whether any note from one motor plays at the same time as a note from another motor.
+     * This stops as soon as the first conflict is found.
+     * @param times1 The usage times of the first motor
+     * @param times2 The usage times of the second motor
+     * @return True if the motors conflict, false otherwise
+     */
+    public static boolean conflicts(List<Motor.IntPair> times1, List<Motor.IntPair> times2) {
+        return sweep(pack(times1), times1.size(), pack(times2), times2.size(), true).hasConflict();
+    }
+
+    /**
+     * Checks whether two motors conflict like conflicts(List, List), with the usage times stored as start and
+     * end times one after another in an array
+     * @return True if the motors conflict, false otherwise
+     */
+    static boolean conflicts(int[] times1, int count1, int[] times2, int count2) {
+        return sweep(times1, count1, times2, count2, true).hasConflict();
+    }
+
+    private static int[] pack(List<Motor.IntPair> times) {
+        int[] packed = new int[times.size() * 2];
+        for (int i = 0; i < times.size(); i++) {
+            packed[2 * i] = times.get(i).startTime();
+            packed[2 * i + 1] = times.get(i).endTime();
+        }
+        return packed;
+    }
+
+    private static Report sweep(int[] times1, int count1, int[] times2, int count2, boolean stopAtFirst) {
+        Intervals a = new Intervals(times1, count1);
+        Intervals b = new Intervals(times2, count2);
+
+        long overlapDuration = 0;
+        int overlapCount = 0;
+        int firstConflictTime = Integer.MAX_VALUE;
+
+        // Notes shorter than a hundredth of a second have an end time at or before their start time, so the
+        // sweep can't count them. There are hardly ever any of them, so they are compared directly instead.
+        for (int i = 0; a.hasEmpty && i < count1; i++) {
+            int start1 = times1[2 * i];
+            int end1 = times1[2 * i + 1];
+            if (end1 > start1) continue;
+            for (int j = 0; j < count2; j++) {
+                int start2 = times2[2 * j];
+                int end2 = times2[2 * j + 1];
+                if (Motor.IntPair.conflicts(start1, end1, start2, end2)) {
+                    overlapCount++;
+                    firstConflictTime = Math.min(firstConflictTime, Math.max(start1, start2));
+                }
+                if (start1 < end2 && end1 > start2) {
+                    overlapDuration += Math.min(end1, end2) - Math.max(start1, start2);
+                }
+            }
+        }
+        for (int j = 0; b.hasEmpty && j < count2; j++) {
+            int start2 = times2[2 * j];
+            int end2 = times2[2 * j + 1];
+            if (end2 > start2) continue;
+            for (int i = 0; i < count1; i++) {
+                int start1 = times1[2 * i];
+                int end1 = times1[2 * i + 1];
+                if (Motor.IntPair.conflicts(start2, end2, start1, end1)) {
+                    overlapCount++;
+                    firstConflictTime = Math.min(firstConflictTime, Math.max(start1, start2));
+                }
+                if (start1 < end2 && end1 > start2) {
+                    overlapDuration += Math.min(end1, end2) - Math.max(start1, start2);
+                }
+            }
+        }
+        if (stopAtFirst && overlapCount > 0) {
+            return new Report((int) overlapDuration, overlapCount, firstConflictTime);
+        }
+
+        // Sweep through every start and end time in order. Notes end before notes start at the same time,
+        // because a note ending at the same time another starts doesn't conflict with it.
+        int startA = 0, endA = 0, startB = 0, endB = 0;
+        int activeA = 0, activeB = 0;
+        int previousTime = 0;
+        while (startA < a.size || startB < b.size) {
+            int time = Math.min(a.nextStart(startA), b.nextStart(startB));
+            time = Math.min(time, Math.min(a.nextEnd(endA), b.nextEnd(endB)));
+
+            // Both motors are playing activeA * activeB pairs of notes at once since the previous time
+            overlapDuration += (long) activeA * activeB * (time - previousTime);
+            previousTime = time;
+
+            while (a.nextEnd(endA) == time) {
+                endA++;
+                activeA--;
+            }
+            while (b.nextEnd(endB) == time) {
+                endB++;
+                activeB--;
+            }
+
+            int startedA = 0;
+            int startedB = 0;
+            while (a.nextStart(startA) == time) {
+                startA++;
+                startedA++;
+            }
+            while (b.nextStart(startB) == time) {
+                startB++;
+                startedB++;
+            }
+
+            // Each note starting now conflicts with every note already playing on the other motor,
+            // as well as every note starting now on the other motor
+            int newConflicts = startedA * activeB + startedB * activeA + startedA * startedB;
+            if (newConflicts > 0) {
+                overlapCount += newConflicts;
+                firstConflictTime = Math.min(firstConflictTime, time);
+                if (stopAtFirst) break;
+            }
+            activeA += startedA;
+            activeB += startedB;
+        }
+
+        // Add the overlap until the last notes end
+        while (!stopAtFirst && (endA < a.size || endB < b.size)) {
+            int time = Math.min(a.nextEnd(endA), b.nextEnd(endB));
+            overlapDuration += (long) activeA * activeB * (time - previousTime);
+            previousTime = time;
+
+            while (a.nextEnd(endA) == time) {
+                endA++;
+                activeA--;
+            }
+            while (b.nextEnd(endB) == time) {
+                endB++;
+                activeB--;
+            }
+        }
+
+        if (overlapCount == 0) firstConflictTime = -1;
+        return new Report((int) overlapDuration, overlapCount, firstConflictTime);
+    }
+
+    /**
+     * The usage times of one motor, as sorted start and end times. Motors hold their notes in chronological
+     * order, so the start and end times can almost always be read straight from the motor's array. They are
+     * only copied into separate arrays and sorted when they are out of order or some notes have no length.
+     */
+    private static final class Intervals {
+        private final int[] starts;
+        private final int[] ends;
+        private final int startOffset;
+        private final int endOffset;
+        private final int stride;
+        private final int size;
+        private final boolean hasEmpty;
+
+        Intervals(int[] times, int count) {
+            boolean empty = false;
+            boolean sorted = true;
+            for (int i = 0; i < count; i++) {
+                if (times[2 * i + 1] <= times[2 * i]) empty = true;
+                if (i > 0 && (times[2 * i - 2] > times[2 * i] || times[2 * i - 1] > times[2 * i + 1])) sorted = false;
+            }
+            hasEmpty = empty;
+
+            if (sorted && !empty) {
+                starts = times;
+                ends = times;
+                startOffset = 0;
+                endOffset = 1;
+                stride = 2;
+                size = count;
+                return;
+            }
+
+            starts = new int[count];
+            ends = new int[count];
+            startOffset = 0;
+            endOffset = 0;
+            stride = 1;
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (times[2 * i + 1] <= times[2 * i]) continue;
+                starts[size] = times[2 * i];
+                ends[size] = times[2 * i + 1];
+                size++;
+            }
+            this.size = size;
+            Arrays.sort(starts, 0, size);
+            Arrays.sort(ends, 0, size);
+        }
+
+        int nextStart(int index) {
+            return index < size ? starts[startOffset + index * stride] : Integer.MAX_VALUE;
+        }
+
+        int nextEnd(int index) {
+            return index < size ? ends[endOffset + index * stride] : Integer.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package sms;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConflictAnalyzerTests {
+
+    @Test
+    public void testNoConflict() {
+        // Notes that end exactly when the other motor's notes start don't conflict
+        var times1 = List.of(new Motor.IntPair(0, 50), new Motor.IntPair(100, 150));
+        var times2 = List.of(new Motor.IntPair(50, 100), new Motor.IntPair(150, 200));
+
+        var report = ConflictAnalyzer.analyze(times1, times2);
+        assertEquals(0, report.overlapDuration());
+        assertEquals(0, report.overlapCount());
+        assertEquals(-1, report.firstConflictTime());
+        assertFalse(ConflictAnalyzer.conflicts(times1, times2));
+    }
+
+    @Test
+    public void testConflicts() {
+        var times1 = List.of(new Motor.IntPair(0, 50), new Motor.IntPair(100, 150));
+        var times2 = List.of(new Motor.IntPair(40, 60), new Motor.IntPair(100, 120), new Motor.IntPair(130, 200));
+
+        var report = ConflictAnalyzer.analyze(times1, times2);
+        assertEquals(10 + 20 + 20, report.overlapDuration());
+        assertEquals(3, report.overlapCount());
+        assertEquals(40, report.firstConflictTime());
+        assertTrue(ConflictAnalyzer.conflicts(times1, times2));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(7);
+
+        for (int trial = 0; trial < 2000; trial++) {
+            List<Motor.IntPair> times1 = randomUsageTimes(random);
+            List<Motor.IntPair> times2 = randomUsageTimes(random);
+
+            var report = ConflictAnalyzer.analyze(times1, times2);
+            assertEquals(bruteForceOverlapDuration(times1, times2), report.overlapDuration());
+            assertEquals(bruteForceOverlapCount(times1, times2), report.overlapCount());
+            assertEquals(bruteForceFirstConflict(times1, times2), report.firstConflictTime());
+            assertEquals(bruteForceOverlapCount(times1, times2) > 0, ConflictAnalyzer.conflicts(times1, times2));
+        }
+    }
+
+    @Test
+    public void testMotorPercentConflictMatchesBruteForce() {
+        Random random = new Random(11);
+
+        for (int trial = 0; trial < 500; trial++) {
+            Motor m1 = randomMotor(random);
+            Motor m2 = randomMotor(random);
+
+            int m1OnTime = 0;
+            int m2OnTime = 0;
+            for (var p : m1.getUsageTimes()) m1OnTime += p.endTime() - p.startTime();
+            for (var p : m2.getUsageTimes()) m2OnTime += p.endTime() - p.startTime();
+            double expected = (double) bruteForceOverlapDuration(m1.getUsageTimes(), m2.getUsageTimes())
+                    / Math.max(m1OnTime, m2OnTime);
+
+            assertEquals(expected, m1.getPercentConflict(m2), 0.0);
+            assertEquals(bruteForceOverlapCount(m1.getUsageTimes(), m2.getUsageTimes()) > 0, m1.conflictsWith(m2));
+        }
+    }
+
+    @Test
+    public void testCombinedMotorsMatchBruteForce() {
+        Random random = new Random(13);
+
+        for (int trial = 0; trial < 300; trial++) {
+            // Force combining leaves overlapping usage times, and shortening or removing notes changes them
+            Motor m1 = randomMotor(random);
+            m1.forceCombine(randomMotor(random));
+            Motor m2 = randomMotor(random);
+            if (m2.getNotes().size() > 1 && random.nextBoolean()) m2.removeLastNote();
+            Motor last = random.nextBoolean() ? m1 : m2;
+            var lastTimes = last.getUsageTimes().get(last.getUsageTimes().size() - 1);
+            last.shortenLastNote(lastTimes.startTime() + 1);
+
+            int m1OnTime = 0;
+            int m2OnTime = 0;
+            for (var p : m1.getUsageTimes()) m1OnTime += p.endTime() - p.startTime();
+            for (var p : m2.getUsageTimes()) m2OnTime += p.endTime() - p.startTime();
+            double expected = (double) bruteForceOverlapDuration(m1.getUsageTimes(), m2.getUsageTimes())
+                    / Math.max(m1OnTime, m2OnTime);
+
+            assertEquals(expected, m1.getPercentConflict(m2), 0.0);
+            assertEquals(Integer.compare(m2OnTime, m1OnTime), Motor.onTimeDescendingOrder.compare(m1, m2));
+            var report = m1.analyzeConflicts(m2);
+            assertEquals(bruteForceOverlapCount(m1.getUsageTimes(), m2.getUsageTimes()), report.overlapCount());
+            assertEquals(bruteForceFirstConflict(m1.getUsageTimes(), m2.getUsageTimes()), report.firstConflictTime());
+        }
+    }
+
+    /**
+     * Creates usage times like the ones held by motors, in chronological order. Some of them overlap
+     * like the usage times left by Motor.forceCombine, and some are shorter than a hundredth of a second.
+     */
+    private static List<Motor.IntPair> randomUsageTimes(Random random) {
+        List<Motor.IntPair> times = new ArrayList<>();
+        int time = random.nextInt(20);
+        int count = random.nextInt(30);
+        for (int i = 0; i < count; i++) {
+            int duration = random.nextInt(10) == 0 ? random.nextInt(3) - 1 : 1 + random.nextInt(40);
+            times.add(new Motor.IntPair(time, time + duration));
+            time += random.nextInt(5) == 0 ? random.nextInt(10) : random.nextInt(50);
+        }
+        return times;
+    }
+
+    private static Motor randomMotor(Random random) {
+        Motor motor = new Motor();
+        int time = 0;
+        int count = 1 + random.nextInt(30);
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(60);
+            int duration = 1 + random.nextInt(50);
+            motor.addNote(new Note(time, 440.0, duration, 0));
+            time += duration;
+        }
+        return motor;
+    }
+
+    private static int bruteForceOverlapDuration(List<Motor.IntPair> times1, List<Motor.IntPair> times2) {
+        int conflictDuration = 0;
+        for (var p1 : times1) {
+            for (var p2 : times2) {
+                if (p1.startTime() < p2.endTime() && p1.endTime() > p2.startTime()) {
+                    conflictDuration += Math.min(p1.endTime(), p2.endTime()) - Math.max(p1.startTime(), p2.startTime());
+                }
+            }
+        }
+        return conflictDuration;
+    }
+
+    private static int bruteForceOverlapCount(List<Motor.IntPair> times1, List<Motor.IntPair> times2) {
+        int count = 0;
+        for (var p1 : times1) {
+            for (var p2 : times2) {
+                if (p1.conflictsWith(p2)) count++;
+            }
+        }
+        return count;
+    }
+
+    private static int bruteForceFirstConflict(List<Motor.IntPair> times1, List<Motor.IntPair> times2) {
+        int first = Integer.MAX_VALUE;
+        for (var p1 : times1) {
+            for (var p2 : times2) {
+                if (p1.conflictsWith(p2)) {
+                    first = Math.min(first, Math.max(p1.startTime(), p2.startTime()));
+                }
+            }
+        }
+        return first == Integer.MAX_VALUE ? -1 : first;
+    }
+}
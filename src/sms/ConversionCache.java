@@ -0,0 +1,342 @@
+package sms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the results of parsing MIDI files and assigning their notes to motors in a folder on disk, so that
+ * converting a file that hasn't changed can skip those stages. Parsed notes are stored under a hash of the
+ * MIDI file's bytes and the parser settings, and motor assignments under that hash plus the assignment
+ * settings, so changing any setting or any byte of the file gives a different entry.
+ * <p>
+ * Parsed notes are kept in the ScoreFile format and motor assignments in a simple binary format. When the
+ * entries take up more than the size limit, the ones that were used least recently are deleted. The time an
+ * entry was last used is kept as its modification time, so the order carries over between runs. A cache can
+ * be shared by several threads.
+ */
+public class ConversionCache {
+
+    /**
+     * The folder the command prompt and command line keep their cache in, unless another one is chosen
+     */
+    public static final String DEFAULT_FOLDER = ".sms-cache";
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    // Changing how entries are written must change the version, so that old entries are never read
+    private static final int VERSION = 2;
+    private static final String NOTES_SUFFIX = ".notes";
+    private static final String MOTORS_SUFFIX = ".motors";
+
+    private final Path folder;
+    private final long maxBytes;
+
+    // The size of each entry, from least to most recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Opens a cache folder, creating it if it doesn't exist yet
+     * @param folder The folder to keep the entries in
+     * @param maxBytes The largest total size of the entries, in bytes
+     * @throws IOException If the folder can't be created or read
+     */
+    public ConversionCache(File folder, long maxBytes) throws IOException {
+        this.folder = folder.toPath();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.folder);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.folder)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(NOTES_SUFFIX) || name.endsWith(MOTORS_SUFFIX)) files.add(file);
+            }
+        }
+
+        // Load the entries from least to most recently used
+        Map<Path, FileTime> lastUsed = new LinkedHashMap<>();
+        for (Path file : files) {
+            lastUsed.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort((f1, f2) -> lastUsed.get(f1).compareTo(lastUsed.get(f2)));
+        for (Path file : files) {
+            long size = Files.size(file);
+            entries.put(file.getFileName().toString(), size);
+            totalBytes += size;
+        }
+    }
+
+    /**
+     * Calculates the key that the parsed notes of a MIDI file are stored under
+     * @param file The MIDI file
+     * @param parser The parser the file is read with
+     * @return A key that changes whenever the file or the parser settings change
+     * @throws IOException If the file can't be read
+     */
+    public static String notesKey(File file, Parser parser) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        String settings = "v" + VERSION + " " + parser.getEngine() + " " + parser.getTickResolution() + " "
+                + parser.getPreserveVoices();
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Calculates the key that the motor assignment of some parsed notes is stored under
+     * @param notesKey The key of the parsed notes
+     * @param strategy The strategy used to assign the notes to motors
+     * @param motorBudget The largest number of motors the OPTIMAL strategy can use
+     * @return A key that changes whenever the notes or the assignment settings change
+     */
+    public static String motorsKey(String notesKey, NoteAssigner.Strategy strategy, int motorBudget) {
+        String settings = notesKey + " " + strategy + (strategy == NoteAssigner.Strategy.OPTIMAL ? " " + motorBudget : "");
+        return HexFormat.of().formatHex(sha256().digest(settings.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Finds the parsed notes and percussion commands stored under a key
+     * @return The notes and percussion commands, or null if they aren't in the cache
+     */
+    public Pair<ArrayList<Note>, ArrayList<Percussion>> getMidiData(String key) {
+        String name = key + NOTES_SUFFIX;
+        if (!use(name)) return null;
+
+        // Parsed notes are kept in the score file format, which checks its own version
+        try {
+            return hit(ScoreFile.read(folder.resolve(name).toFile()).midiData());
+        } catch (IOException | RuntimeException e) {
+            return miss(name);
+        }
+    }
+
+    /**
+     * Stores parsed notes and percussion commands under a key. If the entry can't be written, the conversion
+     * carries on without it.
+     * @param tickResolution The tick resolution the times of the notes are in
+     */
+    public void putMidiData(String key, Pair<? extends List<Note>, ? extends List<Percussion>> midiData,
+                            TickResolution tickResolution) {
+        ByteBuffer data = ScoreFile.encode(midiData, tickResolution);
+        put(key + NOTES_SUFFIX, out -> out.write(data.array(), data.position(), data.remaining()));
+    }
+
+    /**
+     * Finds the motor assignment stored under a key. The motors hold the same notes with the same indexes as
+     * the motors that were stored.
+     * @return The motors, or null if they aren't in the cache
+     */
+    public List<Motor> getMotors(String key) {
+        try (DataInputStream in = open(key + MOTORS_SUFFIX)) {
+            if (in == null) return null;
+            int numMotors = in.readInt();
+            List<Motor> motors = new ArrayList<>(numMotors);
+            for (int m = 0; m < numMotors; m++) {
+                Motor motor = new Motor(in.readInt());
+                for (Note note : readNotes(in)) {
+                    motor.addNote(note);
+                }
+                motors.add(motor);
+            }
+            return hit(motors);
+        } catch (IOException | RuntimeException e) {
+            return miss(key + MOTORS_SUFFIX);
+        }
+    }
+
+    /**
+     * Stores a motor assignment under a key. If the entry can't be written, the conversion carries on without it.
+     */
+    public void putMotors(String key, List<Motor> motors) {
+        put(key + MOTORS_SUFFIX, out -> {
+            out.writeInt(VERSION);
+            out.writeInt(motors.size());
+            for (Motor motor : motors) {
+                out.writeInt(motor.getIndex());
+                writeNotes(out, motor.getNotes());
+            }
+        });
+    }
+
+    /**
+     * @return The number of times an entry was found in the cache
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of times an entry wasn't in the cache
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The total size of the entries in the cache, in bytes
+     */
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    private static ArrayList<Note> readNotes(DataInputStream in) throws IOException {
+        int numNotes = in.readInt();
+        ArrayList<Note> notes = new ArrayList<>(numNotes);
+        for (int i = 0; i < numNotes; i++) {
+            notes.add(new Note(in.readInt(), in.readDouble(), in.readInt(), in.readUnsignedShort()));
+        }
+        return notes;
+    }
+
+    private static void writeNotes(DataOutputStream out, List<Note> notes) throws IOException {
+        out.writeInt(notes.size());
+        for (Note note : notes) {
+            out.writeInt(note.startTime());
+            out.writeDouble(note.pitch());
+            out.writeInt(note.duration());
+            out.writeShort(note.voiceIndex());
+        }
+    }
+
+    /**
+     * Marks an entry as the most recently used, counting a miss if it isn't in the cache
+     * @return True if the entry is in the cache
+     */
+    private boolean use(String name) {
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+
+        try {
+            Files.setLastModifiedTime(folder.resolve(name), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // The entry may still be readable, and it will just be evicted a little sooner
+        }
+        return true;
+    }
+
+    /**
+     * Opens an entry for reading and marks it as the most recently used
+     * @return A stream positioned after the version, or null if the entry isn't in the cache
+     */
+    private DataInputStream open(String name) throws IOException {
+        if (!use(name)) return null;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(folder.resolve(name))));
+        if (in.readInt() != VERSION) {
+            in.close();
+            throw new IOException("Cache entry " + name + " has an old version");
+        }
+        return in;
+    }
+
+    private <T> T hit(T value) {
+        hits.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Counts an entry that couldn't be read as a miss, and removes it so that it is written again
+     */
+    private <T> T miss(String name) {
+        misses.incrementAndGet();
+        synchronized (this) {
+            remove(name);
+        }
+        return null;
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void put(String name, EntryWriter writer) {
+        // Write to a temporary file first, so that other threads never read a half-written entry
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(folder, name, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                writer.write(out);
+            }
+            long size = Files.size(temp);
+
+            synchronized (this) {
+                Files.move(temp, folder.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Long oldSize = entries.put(name, size);
+                totalBytes += size - (oldSize != null ? oldSize : 0);
+                evict();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write cache entry " + name + ": " + e.getMessage());
+        } finally {
+            try {
+                if (temp != null) Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the entries fit in the size limit
+     */
+    private void evict() {
+        Iterator<String> leastRecentlyUsed = new ArrayList<>(entries.keySet()).iterator();
+        while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            remove(leastRecentlyUsed.next());
+        }
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size == null) return;
+        totalBytes -= size;
+        try {
+            Files.deleteIfExists(folder.resolve(name));
+        } catch (IOException e) {
+            System.err.println("Could not delete cache entry " + name + ": " + e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
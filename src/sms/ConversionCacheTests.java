@@ -0,0 +1,129 @@
+package sms;
+
+import org.junit.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConversionCacheTests {
+
+    @Test
+    public void testStoredDataIsUnchanged() throws InvalidMidiDataException, IOException {
+        ConversionCache cache = new ConversionCache(Files.createTempDirectory("cache").toFile(), 1 << 20);
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        File file = new File("testfiles/percussionAndNotes.mid");
+        var midiData = parser.parseMidi(file);
+        midiData.first().sort(Note.voiceOrder);
+        List<Motor> motors = NoteAssigner.assign(midiData.first());
+
+        String notesKey = ConversionCache.notesKey(file, parser);
+        String motorsKey = ConversionCache.motorsKey(notesKey, NoteAssigner.Strategy.PRESERVE_VOICES, 0);
+        assertNull(cache.getMidiData(notesKey));
+        assertNull(cache.getMotors(motorsKey));
+        cache.putMidiData(notesKey, midiData, TickResolution.HUNDREDTH_SECOND);
+        cache.putMotors(motorsKey, motors);
+
+        var cachedData = cache.getMidiData(notesKey);
+        assertNotNull(cachedData);
+        assertEquals(midiData.first(), cachedData.first());
+        assertEquals(midiData.second(), cachedData.second());
+
+        List<Motor> cachedMotors = cache.getMotors(motorsKey);
+        assertNotNull(cachedMotors);
+        assertEquals(motors.size(), cachedMotors.size());
+        for (int i = 0; i < motors.size(); i++) {
+            assertEquals(motors.get(i).getIndex(), cachedMotors.get(i).getIndex());
+            assertEquals(motors.get(i).getNotes(), cachedMotors.get(i).getNotes());
+        }
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testKeysChangeWithSettings() throws IOException {
+        File file = new File("testfiles/tempochange_1part.mid");
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        String notesKey = ConversionCache.notesKey(file, parser);
+        assertEquals(notesKey, ConversionCache.notesKey(file, parser));
+
+        parser.setTickResolution(TickResolution.MILLISECOND);
+        assertNotEquals(notesKey, ConversionCache.notesKey(file, parser));
+        parser.setTickResolution(TickResolution.HUNDREDTH_SECOND);
+        parser.setPreserveVoices(false);
+        assertNotEquals(notesKey, ConversionCache.notesKey(file, parser));
+        parser.setPreserveVoices(true);
+        assertNotEquals(notesKey, ConversionCache.notesKey(new File("testfiles/tempochange_2parts.mid"), parser));
+
+        String motorsKey = ConversionCache.motorsKey(notesKey, NoteAssigner.Strategy.OPTIMAL, 4);
+        assertNotEquals(motorsKey, ConversionCache.motorsKey(notesKey, NoteAssigner.Strategy.OPTIMAL, 5));
+        assertNotEquals(motorsKey, ConversionCache.motorsKey(notesKey, NoteAssigner.Strategy.CONDENSING, 4));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IOException {
+        File folder = Files.createTempDirectory("cache").toFile();
+        ArrayList<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            notes.add(new Note(i * 10, 440.0, 5, 0));
+        }
+        var midiData = new Pair<>(notes, new ArrayList<Percussion>());
+
+        // Each entry is a little over 4000 bytes, so only two fit
+        ConversionCache cache = new ConversionCache(folder, 10000);
+        cache.putMidiData("a", midiData, TickResolution.HUNDREDTH_SECOND);
+        cache.putMidiData("b", midiData, TickResolution.HUNDREDTH_SECOND);
+        assertNotNull(cache.getMidiData("a"));
+        cache.putMidiData("c", midiData, TickResolution.HUNDREDTH_SECOND);
+
+        assertNotNull(cache.getMidiData("a"));
+        assertNull(cache.getMidiData("b"));
+        assertNotNull(cache.getMidiData("c"));
+        assertTrue(cache.getSize() <= 10000);
+
+        // The entries and the order they were used in carry over to a new cache on the same folder
+        ConversionCache reopened = new ConversionCache(folder, 10000);
+        assertEquals(cache.getSize(), reopened.getSize());
+        assertNotNull(reopened.getMidiData("a"));
+    }
+
+    @Test
+    public void testBatchConversionReusesCache() throws IOException {
+        ConversionCache cache = new ConversionCache(Files.createTempDirectory("cache").toFile(), 1 << 20);
+        BatchConverter converter = new BatchConverter();
+        converter.setEngine(Parser.Engine.MIDI_EVENTS);
+        converter.setCache(cache);
+        int numFiles = new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid")).length;
+
+        Path firstOutput = Files.createTempDirectory("cacheFirst");
+        var first = converter.convert(new File("testfiles"), firstOutput.toFile());
+        assertEquals(0, first.failed());
+        // Some of the test files are copies of each other, so they can share entries
+        assertEquals(2 * numFiles, first.cacheHits() + first.cacheMisses());
+        assertTrue(first.cacheMisses() > 0);
+
+        // Every stage is found in the cache the second time, and the sketches are the same
+        Path secondOutput = Files.createTempDirectory("cacheSecond");
+        var second = converter.convert(new File("testfiles"), secondOutput.toFile());
+        assertEquals(0, second.failed());
+        assertEquals(2 * numFiles, second.cacheHits());
+        assertEquals(0, second.cacheMisses());
+        for (int i = 0; i < numFiles; i++) {
+            assertArrayEquals(Files.readAllBytes(first.results().get(i).sketch()),
+                    Files.readAllBytes(second.results().get(i).sketch()));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package sms;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records how long each stage of converting a MIDI file takes, how much memory it allocates and how much data
+ * it handles. Each stage is also committed as a JFR event, so a flight recording shows the stages of every
+ * conversion alongside the JVM's own events.
+ * <p>
+ * A stage is timed from when it is started until the returned timer is closed:
+ * <pre>
+ * try (var stage = metrics.start(ConversionMetrics.Stage.ASSIGN)) {
+ *     motors = NoteAssigner.assign(notes, metrics);
+ *     stage.notes(notes.size()).motors(motors.size());
+ * }
+ * </pre>
+ * Stages can be started inside other stages, in which case the time and memory of the inner stage are counted
+ * in both. Metrics can be recorded from several threads, but allocated memory is only counted for the thread
+ * that started the stage.
+ */
+public class ConversionMetrics {
+
+    /**
+     * The stages of a conversion. TEMPO_MAP is part of PARSE, and JOIN_TRACKS is part of ASSIGN.
+     */
+    public enum Stage { PARSE, TEMPO_MAP, ASSIGN, JOIN_TRACKS, WRITE }
+
+    /**
+     * The measurements of one stage
+     * @param stage The stage that was measured
+     * @param wallNanos The time the stage took, in nanoseconds
+     * @param allocatedBytes The number of bytes allocated by the stage's thread and any threads it handed work to,
+     *                       or -1 if the JVM can't tell
+     * @param notes The number of notes the stage handled
+     * @param motors The number of motors the stage produced or wrote
+     * @param records The number of records written to the sketch, or the number of tempo changes in the tempo map
+     * @param mergeIterations The number of pairs of motors compared to decide whether to combine them
+     * @param mergeRounds The number of times two motors were combined
+     */
+    public record StageMetrics(Stage stage, long wallNanos, long allocatedBytes, int notes, int motors, int records,
+                               int mergeIterations, int mergeRounds) {}
+
+    /**
+     * Metrics that are never recorded, for conversions that don't need them
+     */
+    public static final ConversionMetrics DISABLED = new ConversionMetrics(false);
+    private static final Timer DISABLED_TIMER = DISABLED.new Timer(null);
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final boolean enabled;
+    private final List<StageMetrics> stages = Collections.synchronizedList(new ArrayList<>());
+
+    public ConversionMetrics() {
+        this(true);
+    }
+
+    private ConversionMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a stage
+     * @param stage The stage being started
+     * @return A timer that records the stage when it is closed
+     */
+    public Timer start(Stage stage) {
+        return enabled ? new Timer(stage) : DISABLED_TIMER;
+    }
+
+    /**
+     * @return Every stage recorded so far, in the order they finished
+     */
+    public List<StageMetrics> getStages() {
+        synchronized (stages) {
+            return List.copyOf(stages);
+        }
+    }
+
+    /**
+     * Finds the measurements of a stage, adding them together if the stage was recorded more than once
+     * @return The total measurements of the stage, or null if it wasn't recorded
+     */
+    public StageMetrics total(Stage stage) {
+        StageMetrics total = null;
+        for (StageMetrics s : getStages()) {
+            if (s.stage() != stage) continue;
+            total = total == null ? s : new StageMetrics(stage, total.wallNanos() + s.wallNanos(),
+                    total.allocatedBytes() < 0 || s.allocatedBytes() < 0 ? -1 : total.allocatedBytes() + s.allocatedBytes(),
+                    total.notes() + s.notes(), total.motors() + s.motors(), total.records() + s.records(),
+                    total.mergeIterations() + s.mergeIterations(), total.mergeRounds() + s.mergeRounds());
+        }
+        return total;
+    }
+
+    /**
+     * @return A table of every stage recorded so far
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder(String.format("%-12s %10s %14s %9s %7s %8s %13s %7s%n",
+                "Stage", "Time (ms)", "Allocated (KB)", "Notes", "Motors", "Records", "Merge checks", "Merges"));
+        for (StageMetrics s : getStages()) {
+            report.append(String.format("%-12s %10.3f %14s %9d %7d %8d %13d %7d%n", s.stage(), s.wallNanos() / 1e6,
+                    s.allocatedBytes() < 0 ? "n/a" : Long.toString(s.allocatedBytes() / 1024),
+                    s.notes(), s.motors(), s.records(), s.mergeIterations(), s.mergeRounds()));
+        }
+        return report.toString();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        // Only HotSpot-based JVMs can count the memory allocated by a thread
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads;
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of bytes the current thread has allocated so far, or -1 if the JVM can't tell
+     */
+    static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    /**
+     * Times one stage. The counts can be set at any point before the timer is closed.
+     */
+    public final class Timer implements AutoCloseable {
+        private final Stage stage;
+        private final long startNanos;
+        private final long startAllocatedBytes;
+        private final ConversionStageEvent event;
+        private int notes = 0;
+        private int motors = 0;
+        private int records = 0;
+        private int mergeIterations = 0;
+        private int mergeRounds = 0;
+        private long otherThreadAllocatedBytes = 0;
+
+        private Timer(Stage stage) {
+            this.stage = stage;
+            if (stage == null) {
+                startNanos = 0;
+                startAllocatedBytes = 0;
+                event = null;
+                return;
+            }
+
+            event = new ConversionStageEvent();
+            event.begin();
+            startAllocatedBytes = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        public Timer notes(int value) {
+            notes = value;
+            return this;
+        }
+
+        public Timer motors(int value) {
+            motors = value;
+            return this;
+        }
+
+        public Timer records(int value) {
+            records = value;
+            return this;
+        }
+
+        public Timer mergeIterations(int value) {
+            mergeIterations = value;
+            return this;
+        }
+
+        public Timer mergeRounds(int value) {
+            mergeRounds = value;
+            return this;
+        }
+
+        /**
+         * Adds memory the stage allocated on other threads, which the timer can't see on its own
+         * @param bytes The number of bytes allocated, or -1 if the JVM can't tell
+         */
+        public Timer addAllocatedBytes(long bytes) {
+            otherThreadAllocatedBytes = otherThreadAllocatedBytes < 0 || bytes < 0 ? -1
+                    : otherThreadAllocatedBytes + bytes;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (stage == null) return;
+
+            long wallNanos = System.nanoTime() - startNanos;
+            long endAllocatedBytes = allocatedBytes();
+            long allocated = startAllocatedBytes < 0 || endAllocatedBytes < 0 || otherThreadAllocatedBytes < 0 ? -1
+                    : endAllocatedBytes - startAllocatedBytes + otherThreadAllocatedBytes;
+            stages.add(new StageMetrics(stage, wallNanos, allocated, notes, motors, records, mergeIterations, mergeRounds));
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name();
+                event.allocatedBytes = allocated;
+                event.notes = notes;
+                event.motors = motors;
+                event.records = records;
+                event.mergeIterations = mergeIterations;
+                event.mergeRounds = mergeRounds;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package sms;
+
+import org.junit.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConversionMetricsTests {
+
+    @Test
+    public void testConversionStages() throws InvalidMidiDataException, IOException {
+        ConversionMetrics metrics = new ConversionMetrics();
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        var midiData = parser.parseMidi(new File("testfiles/tempochange_2parts.mid"), metrics);
+        midiData.first().sort(Note.voiceOrder);
+        List<Motor> motors = NoteAssigner.assign(midiData.first(), metrics);
+
+        File output = Files.createTempDirectory("metrics").toFile();
+        InoWriter writer = new InoWriter(motors, midiData.second(), "metrics.ino", output);
+        writer.setMetrics(metrics);
+        writer.run();
+
+        // Inner stages finish before the stages they are part of
+        List<ConversionMetrics.Stage> order = metrics.getStages().stream().map(ConversionMetrics.StageMetrics::stage).toList();
+        assertEquals(List.of(ConversionMetrics.Stage.TEMPO_MAP, ConversionMetrics.Stage.PARSE,
+                ConversionMetrics.Stage.JOIN_TRACKS, ConversionMetrics.Stage.ASSIGN, ConversionMetrics.Stage.WRITE), order);
+
+        for (var stage : metrics.getStages()) {
+            assertTrue(stage.wallNanos() >= 0);
+            assertTrue(stage.allocatedBytes() >= -1);
+        }
+        assertEquals(midiData.first().size(), metrics.total(ConversionMetrics.Stage.PARSE).notes());
+        assertEquals(motors.size(), metrics.total(ConversionMetrics.Stage.ASSIGN).motors());
+        assertEquals(motors.size(), metrics.total(ConversionMetrics.Stage.JOIN_TRACKS).motors());
+        assertEquals(writer.getRecordCount(), metrics.total(ConversionMetrics.Stage.WRITE).records());
+        assertTrue(writer.getRecordCount() > 0);
+        assertTrue(metrics.toString().contains("JOIN_TRACKS"));
+    }
+
+    @Test
+    public void testDisabledMetrics() throws InvalidMidiDataException, IOException {
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        var midiData = parser.parseMidi(new File("testfiles/tempochange_2parts.mid"), ConversionMetrics.DISABLED);
+        NoteAssigner.condensingAssign(midiData.first(), ConversionMetrics.DISABLED);
+
+        assertTrue(ConversionMetrics.DISABLED.getStages().isEmpty());
+        assertNull(ConversionMetrics.DISABLED.total(ConversionMetrics.Stage.PARSE));
+    }
+
+    @Test
+    public void testAllocationOnOtherThreads() throws InterruptedException {
+        ConversionMetrics metrics = new ConversionMetrics();
+        try (var stage = metrics.start(ConversionMetrics.Stage.ASSIGN)) {
+            long[] workerBytes = new long[1];
+            Thread worker = new Thread(() -> {
+                long start = ConversionMetrics.allocatedBytes();
+                byte[][] buffers = new byte[16][];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = new byte[1 << 16];
+                }
+                long end = ConversionMetrics.allocatedBytes();
+                workerBytes[0] = start < 0 || end < 0 ? -1 : end - start;
+            });
+            worker.start();
+            worker.join();
+            stage.addAllocatedBytes(workerBytes[0]);
+        }
+
+        // The worker's buffers are counted in the stage, even though the stage's own thread didn't allocate them
+        long allocated = metrics.total(ConversionMetrics.Stage.ASSIGN).allocatedBytes();
+        assertTrue(allocated == -1 || allocated >= 16 << 16);
+    }
+
+    @Test
+    public void testRepeatedStagesAreTotalled() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        try (var stage = metrics.start(ConversionMetrics.Stage.WRITE)) {
+            stage.records(3);
+        }
+        try (var stage = metrics.start(ConversionMetrics.Stage.WRITE)) {
+            stage.records(4).motors(2).mergeRounds(5);
+        }
+
+        var total = metrics.total(ConversionMetrics.Stage.WRITE);
+        assertNotNull(total);
+        assertEquals(7, total.records());
+        assertEquals(2, total.motors());
+        assertEquals(5, total.mergeRounds());
+        assertEquals(2, metrics.getStages().size());
+    }
+}
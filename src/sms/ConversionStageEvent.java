@@ -0,0 +1,41 @@
+package sms;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for one stage of converting a MIDI file, committed by ConversionMetrics
+ */
+@Name("sms.ConversionStage")
+@Label("Conversion Stage")
+@Category("Stepper Motor Symphony")
+@Description("One stage of converting a MIDI file into an Arduino sketch")
+class ConversionStageEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    @Label("Notes")
+    int notes;
+
+    @Label("Motors")
+    int motors;
+
+    @Label("Records")
+    int records;
+
+    @Label("Merge Iterations")
+    @Description("The number of pairs of motors compared to decide whether to combine them")
+    int mergeIterations;
+
+    @Label("Merge Rounds")
+    @Description("The number of times two motors were combined")
+    int mergeRounds;
+}
@@ -2,20 +2,66 @@ package sms;
 
 import sms.Motor;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.List;
 
 public class InoWriter {
     
     private final List<Motor> motors;
     private final List<Percussion> percussion;
-    private FileWriter writer = null;
+    private BufferedWriter writer = null;
 
     private String outputPath = "";
+    private final String sketchDir;
+
+    /**
+     * The ways the song data can be stored in the sketch. STANDARD stores every command and record as a pair
+     * of 32-bit ints. PACKED stores commands as a 1-byte motor index and a 16-bit period, and records as a
+     * 16-bit time since the previous record and a 1-byte command count, which fits longer songs in flash.
+     * INDEXED stores records like PACKED, but each command stores a 1-byte index into a table of every
+     * distinct period in the song instead of the period itself. The table holds fine periods in 1/256ths of
+     * a microsecond, calculated from the exact pitch of each note.
+     */
+    public enum Format { STANDARD, PACKED, INDEXED }
+
+    /**
+     * The ways the sketch can time the motors' steps. POLLING checks every motor on each pass through loop(),
+     * while TIMER steps the motors from a hardware timer interrupt so that the time spent in loop() can't
+     * delay a step. TIMER uses the ESP8266's timer1. Both runtimes pulse every motor that is due at the same
+     * time with one write to the GPIO registers.
+     */
+    public enum Runtime { POLLING, TIMER }
+
+    private Format format = Format.STANDARD;
+    private Runtime runtime = Runtime.POLLING;
+    private TickResolution tickResolution = TickResolution.HUNDREDTH_SECOND;
+    private ConversionMetrics metrics = ConversionMetrics.DISABLED;
+
+    // The number of bytes of flash used by the song data, in the chosen format and in the standard format
+    private int dataSize = 0;
+    private int recordCount = 0;
+    private int standardDataSize = 0;
+    private final int[] dataSizeByResolution = new int[TickResolution.values().length];
+
+    // Sizes of the song data structs in the generated sketch, in bytes
+    private static final int STANDARD_ENTRY_SIZE = 8;
+    private static final int PACKED_ENTRY_SIZE = 3;
+    private static final int INDEXED_COMMAND_SIZE = 2;
+    private static final int PERIOD_TABLE_ENTRY_SIZE = 4;
+
+    // Limits of the packed struct fields
+    private static final int MAX_PACKED_PERIOD = 0xFFFF;
+    private static final int MAX_PACKED_TIME_DELTA = 0xFFFF;
+    private static final int MAX_PACKED_COMMANDS = 0xFF;
+    private static final int MAX_PERIOD_TABLE_SIZE = 0x100;
+    private static final int PERCUSSION_MOTOR = 0xFF;
 
     private static final String TAB = "    ";
 
@@ -25,6 +71,7 @@ public class InoWriter {
 
                     #define COMMAND_SIZE 8
                     #define RECORD_SIZE 8
+                    #define TICK_MICROS %d
                     
                     void checkForNextNote();
                     void processCommands();
@@ -46,16 +93,28 @@ public class InoWriter {
 
     private static final String checkForNextNote = """
                     void checkForNextNote() {
-                        uint32_t newMillis = millis();
-                        if (newMillis - oldMillis >= 10) {
-                            oldMillis = newMillis;
-                            counter++;
-                            if (counter == currentRecord.time && recordIndex < numRecords) {
-                                processCommands();
-                                recordIndex++;
+                        uint32_t currentMicros = micros();
+                        if ((int32_t)(currentMicros - nextReportMicros) >= 0) {
+                            reportLateness();
+                            nextReportMicros += LATE_REPORT_MICROS;
+                        }
+                    
+                        // Nothing else happens until the next record's deadline
+                        if (recordIndex >= numRecords || (int32_t)(currentMicros - nextRecordMicros) < 0) return;
+                    
+                        // Play every record whose deadline has passed, so a late call doesn't skip any
+                        while (recordIndex < numRecords && (int32_t)(currentMicros - nextRecordMicros) >= 0) {
+                            recordLateness(currentMicros - nextRecordMicros);
+                            processCommands();
+                            recordIndex++;
+                            if (recordIndex < numRecords) {
                                 memcpy_P(&currentRecord, &records[recordIndex], RECORD_SIZE);
+                                nextRecordMicros = songStartMicros + currentRecord.time * TICK_MICROS;
                             }
                         }
+                        if (recordIndex >= numRecords) {
+                            reportLateness();
+                        }
                     }
                     """;
     private static final String processCommands = """
@@ -72,20 +131,172 @@ public class InoWriter {
                     }
                     """;
 
+    private static final String packedFileHeader = """
+                    //Program written by Stepper Motor Symphony
+                    #include "stepper.hpp"
+
+                    #define COMMAND_SIZE 3
+                    #define RECORD_SIZE 3
+                    #define TICK_MICROS %d
+                    #define PERCUSSION_MOTOR 0xFF
+                    
+                    void checkForNextNote();
+                    void processCommands();
+                    
+                    """;
+
+    private static final String packedStructs = """
+                    struct __attribute__((packed)) command {
+                        uint8_t motorIndex;
+                        uint16_t period;
+                    };
+                    
+                    struct __attribute__((packed)) record {
+                        uint16_t timeDelta;
+                        uint8_t numCommands;
+                    };
+                    
+                    """;
+
+    private static final String packedCheckForNextNote = """
+                    void checkForNextNote() {
+                        uint32_t currentMicros = micros();
+                        if ((int32_t)(currentMicros - nextReportMicros) >= 0) {
+                            reportLateness();
+                            nextReportMicros += LATE_REPORT_MICROS;
+                        }
+                    
+                        // Nothing else happens until the next record's deadline
+                        if (recordIndex >= numRecords || (int32_t)(currentMicros - nextRecordMicros) < 0) return;
+                    
+                        // Play every record whose deadline has passed, so a late call doesn't skip any
+                        while (recordIndex < numRecords && (int32_t)(currentMicros - nextRecordMicros) >= 0) {
+                            recordLateness(currentMicros - nextRecordMicros);
+                            processCommands();
+                            recordIndex++;
+                            if (recordIndex < numRecords) {
+                                memcpy_P(&currentRecord, &records[recordIndex], RECORD_SIZE);
+                                nextRecordTime += currentRecord.timeDelta;
+                                nextRecordMicros = songStartMicros + nextRecordTime * TICK_MICROS;
+                            }
+                        }
+                        if (recordIndex >= numRecords) {
+                            reportLateness();
+                        }
+                    }
+                    """;
+    private static final String packedProcessCommands = """
+                    void processCommands() {
+                        uint8_t numCommands = currentRecord.numCommands;
+                    
+                        for (int n = 0; n < numCommands; n++) {
+                            memcpy_P(&currentCommand, &commands[commandIndex], COMMAND_SIZE);
+                            if (currentCommand.motorIndex != PERCUSSION_MOTOR) {
+                                motors[currentCommand.motorIndex].setPeriod(currentCommand.period);
+                            }
+                            commandIndex++;
+                        }
+                    }
+                    """;
+
+    private static final String indexedFileHeader = """
+                    //Program written by Stepper Motor Symphony
+                    #include "stepper.hpp"
+
+                    #define COMMAND_SIZE 2
+                    #define RECORD_SIZE 3
+                    #define TICK_MICROS %d
+                    #define PERCUSSION_MOTOR 0xFF
+                    
+                    void checkForNextNote();
+                    void processCommands();
+                    
+                    """;
+
+    private static final String indexedStructs = """
+                    struct __attribute__((packed)) command {
+                        uint8_t motorIndex;
+                        uint8_t periodIndex;
+                    };
+                    
+                    struct __attribute__((packed)) record {
+                        uint16_t timeDelta;
+                        uint8_t numCommands;
+                    };
+                    
+                    """;
+
+    private static final String indexedProcessCommands = """
+                    void processCommands() {
+                        uint8_t numCommands = currentRecord.numCommands;
+                    
+                        for (int n = 0; n < numCommands; n++) {
+                            memcpy_P(&currentCommand, &commands[commandIndex], COMMAND_SIZE);
+                            if (currentCommand.motorIndex != PERCUSSION_MOTOR) {
+                                uint32_t finePeriod = pgm_read_dword(&periods[currentCommand.periodIndex]);
+                                motors[currentCommand.motorIndex].setFinePeriod(finePeriod);
+                            }
+                            commandIndex++;
+                        }
+                    }
+                    """;
+
+    private static final String schedulerDeclarations = """
+                    #define SERIAL_BAUD 115200
+                    #define LATE_REPORT_MICROS 5000000
+                    
+                    void recordLateness(uint32_t lateMicros);
+                    void reportLateness();
+                    
+                    """;
+
+    private static final String latenessStatistics = """
+                    void recordLateness(uint32_t lateMicros) {
+                        recordsPlayed++;
+                        totalLateMicros += lateMicros;
+                        if (lateMicros > maxLateMicros) maxLateMicros = lateMicros;
+                        if (lateMicros >= TICK_MICROS) lateRecords++;
+                    }
+                    
+                    void reportLateness() {
+                        Serial.print("Records played: ");
+                        Serial.print(recordsPlayed);
+                        Serial.print(", late by a tick or more: ");
+                        Serial.print(lateRecords);
+                        Serial.print(", max late ms: ");
+                        Serial.print(maxLateMicros / 1000.0, 3);
+                        Serial.print(", mean late ms: ");
+                        Serial.println(recordsPlayed > 0 ? totalLateMicros / 1000.0 / recordsPlayed : 0.0, 3);
+                    }
+                    
+                    """;
+
     private static final String outputFolder = "arduino/";
     
     public InoWriter(List<Motor> motorList, List<Percussion> percussionList, String outputFileName) throws IOException {
+        this(motorList, percussionList, outputFileName, new File(outputFolder));
+    }
+
+    /**
+     * Creates a writer that puts the sketch directory inside the given folder instead of the arduino/ folder
+     * @param outputFolder The folder to create the sketch directory in. It is created if it doesn't exist.
+     */
+    public InoWriter(List<Motor> motorList, List<Percussion> percussionList, String outputFileName, File outputFolder)
+            throws IOException {
         motors = motorList;
         percussion = percussionList;
 
         // Get the file name without the type extension
         String[] fileNameArray = outputFileName.split("\\.");
         fileNameArray[fileNameArray.length - 1] = "";
-        String sketchDir = outputFolder + String.join("", fileNameArray);
+        sketchDir = outputFolder.getPath() + "/" + String.join("", fileNameArray);
 
         // Create the output directory
-        if(!Files.exists(new File("arduino/").toPath()) && !new File("arduino/").mkdir()) {
-            throw new IOException("Could not create output directory");
+        // Several writers can create the same folder at once in batch mode, which createDirectories allows
+        try {
+            Files.createDirectories(outputFolder.toPath());
+        } catch (IOException e) {
+            throw new IOException("Could not create output directory", e);
         }
 
         // Arduino sketches require the .ino file to be in a parent directory with the same name
@@ -102,171 +313,506 @@ public class InoWriter {
         File stepperHppDest = new File(sketchDir + "/stepper.hpp");
         Files.copy(stepperCppSrc.toPath(), stepperCppDest.toPath(), StandardCopyOption.REPLACE_EXISTING);
         Files.copy(stepperHppSrc.toPath(), stepperHppDest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        copyLibraryFile("step_phase.hpp");
 
         // Create the file that will hold the output program
         outputPath = sketchDir + "/" + outputFileName;
-        writer = new FileWriter(outputPath);
+        writer = Files.newBufferedWriter(Path.of(outputPath), StandardCharsets.US_ASCII);
     }
     
     public void run() throws IOException {
-        writer.write(fileHeader);
-        writer.write(structs);
+        try (var stage = metrics.start(ConversionMetrics.Stage.WRITE)) {
+            writeSketch();
+            int numNotes = percussion.size();
+            for (var motor : motors) {
+                numNotes += motor.getNotes().size();
+            }
+            stage.notes(numNotes).motors(motors.size()).records(recordCount);
+        }
+    }
 
+    private void writeSketch() throws IOException {
         //Write the music command data
-        StringBuilder[] commands = notesToCommands();
+        //Every command is written in one pass, and the records are counted while the commands are written
+        CommandList commands = notesToCommands();
         addPercussionCommands(commands);
-        boolean readFirstCommand = false;
+        commands.sort();
+
+        // Each command only has 1 byte for its period index, so fall back to periods if there are too many
+        Format outputFormat = format;
+        if (outputFormat == Format.INDEXED && commands.periodTable.size() > MAX_PERIOD_TABLE_SIZE) {
+            System.out.println("Song has too many different pitches for the indexed format, using packed instead");
+            outputFormat = Format.PACKED;
+        }
+        boolean packed = outputFormat != Format.STANDARD;
+        boolean indexed = outputFormat == Format.INDEXED;
+
+        String header = switch (outputFormat) {
+            case STANDARD -> fileHeader;
+            case PACKED -> packedFileHeader;
+            case INDEXED -> indexedFileHeader;
+        };
+        writer.write(header.formatted(tickResolution.getMicrosPerTick()));
+        writer.write(schedulerDeclarations);
+        copyLibraryFile("step_pulse.hpp");
+        if (runtime == Runtime.TIMER) {
+            copyLibraryFile("step_timer.cpp");
+            copyLibraryFile("step_timer.hpp");
+            writer.write("#include \"step_timer.hpp\"\n\n");
+        } else {
+            copyLibraryFile("step_group.cpp");
+            copyLibraryFile("step_group.hpp");
+            writer.write("#include \"step_group.hpp\"\n\n");
+        }
+        writer.write(switch (outputFormat) {
+            case STANDARD -> structs;
+            case PACKED -> packedStructs;
+            case INDEXED -> indexedStructs;
+        });
+
+        if (indexed) {
+            writePeriodTable(commands.periodTable);
+        }
+
+        int[] recordTimes = new int[16];
+        int[] recordSizes = new int[16];
+        int numRecords = 0;
         writer.write("const command commands[] PROGMEM = {");
-        for (StringBuilder command : commands) {
-            if (command != null) {
-                if (readFirstCommand) {
-                    writer.write(", ");
-                }
-                writer.write(command.toString());
+        for (int n = 0; n < commands.size; n++) {
+            int time = commands.timeAt(n);
+            if (n > 0) {
+                writer.write(", ");
+            }
+            switch (outputFormat) {
+                case STANDARD -> commands.write(n, writer);
+                case PACKED -> commands.writePacked(n, writer);
+                case INDEXED -> commands.writeIndexed(n, writer);
+            }
 
-                readFirstCommand = true;
+            if (numRecords > 0 && recordTimes[numRecords - 1] == time) {
+                recordSizes[numRecords - 1]++;
+            } else {
+                if (numRecords == recordTimes.length) {
+                    recordTimes = Arrays.copyOf(recordTimes, numRecords * 2);
+                    recordSizes = Arrays.copyOf(recordSizes, numRecords * 2);
+                }
+                recordTimes[numRecords] = time;
+                recordSizes[numRecords] = 1;
+                numRecords++;
             }
         }
         writer.write("};\n");
 
         //Write the record data
-        readFirstCommand = false;
-        int numRecords = 0;
-        writer.write("const record records[] PROGMEM = {");
-        for (int n = 0; n < commands.length; n++) {
-            if (commands[n] != null) {
-                if (readFirstCommand) {
+        standardDataSize = (commands.size + numRecords) * STANDARD_ENTRY_SIZE;
+        if (packed) {
+            numRecords = writePackedRecords(recordTimes, recordSizes, numRecords);
+            if (indexed) {
+                dataSize = commands.size * INDEXED_COMMAND_SIZE + numRecords * PACKED_ENTRY_SIZE
+                        + commands.periodTable.size() * PERIOD_TABLE_ENTRY_SIZE;
+            } else {
+                dataSize = (commands.size + numRecords) * PACKED_ENTRY_SIZE;
+            }
+        } else {
+            writer.write("const record records[] PROGMEM = {");
+            for (int n = 0; n < numRecords; n++) {
+                if (n > 0) {
                     writer.write(", ");
                 }
 
-                int numCommands = commands[n].toString().split("},").length;
-
-                if (n == 0) {
-                    // The microcontroller starts playing notes after 1 hundredth of a second
-                    writer.write("{1, " + numCommands + "}");
-                } else {
-                    writer.write("{" + n + ", " + numCommands + "}");
-                }
-                numRecords++;
-                readFirstCommand = true;
+                // The microcontroller starts playing notes after 1 tick
+                int time = recordTimes[n] == 0 ? 1 : recordTimes[n];
+                writer.write("{" + time + ", " + recordSizes[n] + "}");
             }
+            writer.write("};\n\n");
+            dataSize = standardDataSize;
         }
-        writer.write("};\n\n");
+        recordCount = numRecords;
 
         //Global variables
-        String variables = "Stepper motors[" + motors.size() + "];\n" +
+        String indexType = packed ? "uint32_t" : "uint16_t";
+        String motorDeclaration = runtime == Runtime.TIMER ? "StepTimer motors;\n" : "StepGroup motors;\n";
+        String variables = motorDeclaration +
                 "command currentCommand;\n" +
                 "record currentRecord;\n" +
-                "uint32_t oldMillis = 0;\n" +
-                "uint16_t commandIndex = 0;\n" +
-                "uint16_t recordIndex = 0;\n" +
-                "uint16_t numRecords = " + numRecords + ";\n" +
-                "uint32_t counter = 0;\n\n";
+                indexType + " commandIndex = 0;\n" +
+                indexType + " recordIndex = 0;\n" +
+                indexType + " numRecords = " + numRecords + ";\n" +
+                (packed ? "uint32_t nextRecordTime = 0;\n" : "") +
+                "uint32_t songStartMicros = 0;\n" +
+                "uint32_t nextRecordMicros = 0;\n" +
+                "uint32_t nextReportMicros = 0;\n" +
+                "\n" +
+                "// Statistics on how late records are played, reported over serial\n" +
+                "uint32_t recordsPlayed = 0;\n" +
+                "uint32_t lateRecords = 0;\n" +
+                "uint32_t maxLateMicros = 0;\n" +
+                "uint32_t totalLateMicros = 0;\n\n";
         writer.write(variables);
 
         //Setup function
         writer.write("void setup() {\n");
+        writer.write(TAB + "Serial.begin(SERIAL_BAUD);\n");
+        writer.write(TAB + "motors.begin(" + motors.size() + ");\n");
         for (int controlPin = 0; controlPin < motors.size(); controlPin++) {
             writer.write(TAB + "motors[" + controlPin + "].setPin(D" + controlPin + ");\n");
         }
         writer.write("\n");
         writer.write(TAB + "memcpy_P(&currentRecord, &records[0], RECORD_SIZE);\n");
+        if (packed) {
+            writer.write(TAB + "nextRecordTime = currentRecord.timeDelta;\n");
+        }
+        writer.write(TAB + "songStartMicros = micros();\n");
+        writer.write(TAB + "nextRecordMicros = songStartMicros + " + (packed ? "nextRecordTime" : "currentRecord.time")
+                + " * TICK_MICROS;\n");
+        writer.write(TAB + "nextReportMicros = songStartMicros + LATE_REPORT_MICROS;\n");
         writer.write("}\n\n");
 
         //Loop function
         writer.write("void loop() {\n");
         writer.write(TAB + "checkForNextNote();\n");
-        for (int n = 0; n < motors.size(); n++) {
-            writer.write(TAB + "motors[" + n + "].run(micros());\n");
+        // The timer interrupt steps the motors, so loop() only has to check for new notes
+        if (runtime == Runtime.POLLING) {
+            writer.write(TAB + "motors.run(micros());\n");
         }
         writer.write("}\n\n");
 
-        writer.write(checkForNextNote);
-        writer.write(processCommands);
+        writer.write(packed ? packedCheckForNextNote : checkForNextNote);
+        writer.write(latenessStatistics);
+        writer.write(switch (outputFormat) {
+            case STANDARD -> processCommands;
+            case PACKED -> packedProcessCommands;
+            case INDEXED -> indexedProcessCommands;
+        });
 
         writer.flush();
         writer.close();
         System.out.println("Successfully wrote to " + outputPath);
+        if (packed) {
+            System.out.println("Song data uses " + dataSize + " bytes, saving " + (standardDataSize - dataSize)
+                    + " bytes compared to the standard format");
+        } else {
+            System.out.println("Song data uses " + dataSize + " bytes");
+        }
+
+        StringBuilder costs = new StringBuilder("Song data at each tick resolution:");
+        for (TickResolution resolution : TickResolution.values()) {
+            int size = estimateDataSize(commands, outputFormat, resolution);
+            dataSizeByResolution[resolution.ordinal()] = size;
+            costs.append(resolution.ordinal() == 0 ? " " : ", ")
+                    .append(resolution).append(": ").append(size).append(" bytes");
+        }
+        System.out.println(costs);
     }
 
-    private StringBuilder[] notesToCommands() {
+    /**
+     * Calculates how many bytes the song data would use if its command times were rounded to another tick
+     * resolution. A coarser resolution can put more commands into the same record, while the packed formats
+     * need more empty records to cover long gaps at a finer resolution. Parsing the song again at a finer
+     * resolution can separate commands that share a tick now, so the sizes for finer resolutions are a minimum.
+     * @param commands The sorted commands of the song
+     * @param outputFormat The format the song data is written in
+     * @param resolution The tick resolution to calculate the size for
+     * @return The number of bytes of flash used by the commands, records and period table
+     */
+    private int estimateDataSize(CommandList commands, Format outputFormat, TickResolution resolution) {
+        int numRecords = 0;
+        int previousTime = 0;
+
+        int n = 0;
+        while (n < commands.size) {
+            int time = tickResolution.convertTo(commands.timeAt(n), resolution);
+            int recordSize = 0;
+            while (n < commands.size && tickResolution.convertTo(commands.timeAt(n), resolution) == time) {
+                recordSize++;
+                n++;
+            }
 
-        int songEndTime = getEndTime();
-        StringBuilder[] commandArray = new StringBuilder[songEndTime + 1];
+            if (outputFormat == Format.STANDARD) {
+                numRecords++;
+            } else {
+                // Count the empty records for long gaps and the records needed for more than 255 commands
+                time = time == 0 ? 1 : time;
+                int timeDelta = time - previousTime;
+                previousTime = time;
+                numRecords += timeDelta > 0 ? (timeDelta - 1) / MAX_PACKED_TIME_DELTA : 0;
+                numRecords += (recordSize + MAX_PACKED_COMMANDS - 1) / MAX_PACKED_COMMANDS;
+            }
+        }
 
-        for (var motor : motors) {
-            for (var note : motor.getNotes()) {
+        return switch (outputFormat) {
+            case STANDARD -> (commands.size + numRecords) * STANDARD_ENTRY_SIZE;
+            case PACKED -> (commands.size + numRecords) * PACKED_ENTRY_SIZE;
+            case INDEXED -> commands.size * INDEXED_COMMAND_SIZE + numRecords * PACKED_ENTRY_SIZE
+                    + commands.periodTable.size() * PERIOD_TABLE_ENTRY_SIZE;
+        };
+    }
 
-                // Set up note parameters
-                int startTime = note.startTime();
-                int endTime = startTime + note.duration();
-                int pitch = (int) Math.round(note.pitch());
-                String stepInterval;
-                if (pitch == 0) {
-                    stepInterval = "STOP";
-                } else {
-                    stepInterval = String.valueOf(1000000 / pitch);
-                }
+    /**
+     * Copies a file from the C++ library into the sketch directory
+     */
+    private void copyLibraryFile(String fileName) throws IOException {
+        Files.copy(Path.of("lib", fileName), Path.of(sketchDir, fileName), StandardCopyOption.REPLACE_EXISTING);
+    }
 
-                String startCommand = "{MOTOR" + motor.getIndex() + ", " + stepInterval + "}";
-                String endCommand = "{" + motor.getIndex() + ", 0}";
+    /**
+     * Writes the table of every distinct step period in the song, which indexed commands refer to. The periods
+     * are fine periods in 1/256ths of a microsecond, so high notes aren't rounded to a whole microsecond.
+     */
+    private void writePeriodTable(PeriodTable periodTable) throws IOException {
+        writer.write("const uint32_t periods[] PROGMEM = {");
+        for (int i = 0; i < periodTable.size(); i++) {
+            if (i > 0) {
+                writer.write(", ");
+            }
+            writer.write(Long.toString(periodTable.finePeriodAt(i)));
+        }
+        writer.write("};\n");
+    }
 
-                //Add the note start command
-                if (commandArray[startTime] == null) {
-                    commandArray[startTime] = new StringBuilder(startCommand);
-                } else {
-                    commandArray[startTime].append(", ").append(startCommand);
-                }
+    /**
+     * Writes the records in the packed format, where each record stores the time since the previous record.
+     * Gaps too long for a 16-bit time are filled with empty records, and times with more than 255 commands
+     * are split into several records that happen at the same time.
+     * @param recordTimes The time of each record, in ticks
+     * @param recordSizes The number of commands in each record
+     * @param numTimes The number of records in the arrays
+     * @return The number of packed records that were written
+     */
+    private int writePackedRecords(int[] recordTimes, int[] recordSizes, int numTimes) throws IOException {
+        int numRecords = 0;
+        int previousTime = 0;
 
-                //Add the note end command
-                if (commandArray[endTime] == null) {
-                    commandArray[endTime] = new StringBuilder(endCommand);
-                } else {
-                    commandArray[endTime].append(", ").append(endCommand);
-                }
+        writer.write("const record records[] PROGMEM = {");
+        for (int n = 0; n < numTimes; n++) {
+            // The microcontroller starts playing notes after 1 tick
+            int time = recordTimes[n] == 0 ? 1 : recordTimes[n];
+            int timeDelta = time - previousTime;
+            int remainingCommands = recordSizes[n];
+            previousTime = time;
+
+            while (timeDelta > MAX_PACKED_TIME_DELTA) {
+                writer.write(numRecords > 0 ? ", " : "");
+                writer.write("{" + MAX_PACKED_TIME_DELTA + ", 0}");
+                timeDelta -= MAX_PACKED_TIME_DELTA;
+                numRecords++;
+            }
+            while (remainingCommands > 0) {
+                int numCommands = Math.min(remainingCommands, MAX_PACKED_COMMANDS);
+                writer.write(numRecords > 0 ? ", " : "");
+                writer.write("{" + timeDelta + ", " + numCommands + "}");
+                remainingCommands -= numCommands;
+                timeDelta = 0;
+                numRecords++;
             }
         }
+        writer.write("};\n\n");
 
-        return commandArray;
+        return numRecords;
     }
 
-    void addPercussionCommands(StringBuilder[] commandArray) {
-        for (Percussion p : percussion) {
-            String command = "{PERCUSSION0, " + p.type() + "}";
+    public void setFormat(Format value) {
+        format = value;
+    }
 
-            //Add the command
-            if (commandArray[p.startTime()] == null) {
-                commandArray[p.startTime()] = new StringBuilder(command);
-            } else {
-                commandArray[p.startTime()].append(", ").append(command);
-            }
-        }
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setRuntime(Runtime value) {
+        runtime = value;
+    }
+
+    public Runtime getRuntime() {
+        return runtime;
     }
 
     /**
-     * Gets the time at which the song passed into this InoWriter object ends
-     * @return An int representing the time, in hundredths of a second, at which the song ends
+     * Sets the length of one tick, which the times of the notes and percussion commands are in
      */
-    int getEndTime() {
-        int songEndTime = 0;
+    public void setTickResolution(TickResolution value) {
+        tickResolution = value;
+    }
 
-        for (Motor motor : motors) {
-            var notes = motor.getNotes();
-            var lastNote = notes.get(notes.size() - 1);
-            int noteEndTime = lastNote.startTime() + lastNote.duration();
+    public TickResolution getTickResolution() {
+        return tickResolution;
+    }
 
-            if (noteEndTime > songEndTime) {
-                songEndTime = noteEndTime;
+    /**
+     * Sets the metrics the WRITE stage is recorded in when the sketch is written
+     */
+    public void setMetrics(ConversionMetrics value) {
+        metrics = value;
+    }
+
+    /**
+     * @return The number of bytes of flash used by the commands and records of the last sketch written
+     */
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * @return The number of records in the last sketch written, including the empty records the packed formats
+     * use to cover long gaps
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return The number of bytes of flash the commands and records of the last sketch written would use
+     * in the standard format
+     */
+    public int getStandardDataSize() {
+        return standardDataSize;
+    }
+
+    /**
+     * @return The number of bytes of flash the song data of the last sketch written would use if its times
+     * were rounded to a tick resolution
+     */
+    public int getDataSize(TickResolution resolution) {
+        return dataSizeByResolution[resolution.ordinal()];
+    }
+
+    /**
+     * @return The path of the .ino file the sketch is written to
+     */
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    private CommandList notesToCommands() {
+        CommandList commandList = new CommandList();
+
+        for (var motor : motors) {
+            NoteTable notes = motor.getNoteTable();
+            for (int i = 0; i < notes.size(); i++) {
+
+                // Set up note parameters
+                int startTime = notes.startTime(i);
+                int endTime = notes.endTime(i);
+                int periodIndex = commandList.periodTable.indexOf(notes.pitch(i));
+
+                //Add the note start and end commands
+                commandList.add(startTime, CommandList.NOTE_START, motor.getIndex(), periodIndex);
+                commandList.add(endTime, CommandList.NOTE_END, motor.getIndex(), 0);
             }
         }
 
+        return commandList;
+    }
+
+    void addPercussionCommands(CommandList commandList) {
         for (Percussion p : percussion) {
-            if (p.startTime() > songEndTime) {
-                songEndTime = p.startTime();
+            commandList.add(p.startTime(), CommandList.PERCUSSION, 0, p.type().ordinal());
+        }
+    }
+
+    /**
+     * A list of the commands in the song, stored in primitive arrays. Each command is sorted by the time it
+     * happens at, and commands at the same time stay in the order they were added.
+     */
+    static final class CommandList {
+        static final int NOTE_START = 0;
+        static final int NOTE_END = 1;
+        static final int PERCUSSION = 2;
+
+        private static final Percussion.Type[] PERCUSSION_TYPES = Percussion.Type.values();
+
+        // The time of each command in the upper 32 bits, and the index the command was added at in the lower 32 bits
+        private long[] keys = new long[64];
+        private int[] kinds = new int[64];
+        private int[] motorIndices = new int[64];
+        private int[] values = new int[64];
+        private int size = 0;
+
+        // The periods of the notes, which note start commands store the table index of
+        final PeriodTable periodTable = new PeriodTable();
+
+        void add(int time, int kind, int motorIndex, int value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+                motorIndices = Arrays.copyOf(motorIndices, size * 2);
+                values = Arrays.copyOf(values, size * 2);
             }
+            keys[size] = ((long) time << 32) | size;
+            kinds[size] = kind;
+            motorIndices[size] = motorIndex;
+            values[size] = value;
+            size++;
         }
 
-        return songEndTime;
-    }
+        /**
+         * Writes the command at a position in the sorted list as a packed command, with a 1-byte motor index
+         * and a 16-bit period. Percussion commands use a motor index that the sketch skips.
+         */
+        void writePacked(int n, BufferedWriter writer) throws IOException {
+            int index = (int) keys[n];
+            int motorIndex = kinds[index] == PERCUSSION ? PERCUSSION_MOTOR : motorIndices[index];
+            int period = switch (kinds[index]) {
+                case NOTE_START -> Math.min(periodTable.periodAt(values[index]), MAX_PACKED_PERIOD);
+                case PERCUSSION -> values[index];
+                default -> 0;
+            };
+
+            writer.write("{");
+            writer.write(Integer.toString(motorIndex));
+            writer.write(", ");
+            writer.write(Integer.toString(period));
+            writer.write("}");
+        }
 
+        /**
+         * Writes the command at a position in the sorted list as an indexed command, with a 1-byte motor index
+         * and a 1-byte index into the period table
+         */
+        void writeIndexed(int n, BufferedWriter writer) throws IOException {
+            int index = (int) keys[n];
+            int motorIndex = kinds[index] == PERCUSSION ? PERCUSSION_MOTOR : motorIndices[index];
+            int periodIndex = kinds[index] == NOTE_END ? PeriodTable.STOP_INDEX : values[index];
+
+            writer.write("{");
+            writer.write(Integer.toString(motorIndex));
+            writer.write(", ");
+            writer.write(Integer.toString(periodIndex));
+            writer.write("}");
+        }
+
+        void sort() {
+            Arrays.sort(keys, 0, size);
+        }
+
+        int timeAt(int n) {
+            return (int) (keys[n] >> 32);
+        }
+
+        /**
+         * Writes the command at a position in the sorted list
+         */
+        void write(int n, BufferedWriter writer) throws IOException {
+            int index = (int) keys[n];
+            switch (kinds[index]) {
+                case NOTE_START -> {
+                    writer.write("{MOTOR");
+                    writer.write(Integer.toString(motorIndices[index]));
+                    writer.write(", ");
+                    writer.write(periodTable.periodStringAt(values[index]));
+                    writer.write("}");
+                }
+                case NOTE_END -> {
+                    writer.write("{");
+                    writer.write(Integer.toString(motorIndices[index]));
+                    writer.write(", 0}");
+                }
+                case PERCUSSION -> {
+                    writer.write("{PERCUSSION0, ");
+                    writer.write(PERCUSSION_TYPES[values[index]].name());
+                    writer.write("}");
+                }
+            }
+        }
+    }
 }
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class InoWriterTests {
@@ -44,6 +45,10 @@ public class InoWriterTests {
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/testfile.ino").toPath()));
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/stepper.hpp").toPath()));
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_group.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_group.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_pulse.hpp").toPath()));
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/").toPath()));
     }
 
@@ -69,6 +74,208 @@ public class InoWriterTests {
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/testfile.ino").toPath()));
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/stepper.hpp").toPath()));
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_group.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_group.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/testfile/step_pulse.hpp").toPath()));
         assertTrue(Files.deleteIfExists(new File("arduino/testfile/").toPath()));
     }
+
+    @Test
+    public void testCommandsAndRecords() throws IOException {
+        // Two motors playing A4 and A5, with a note on the first motor starting as another ends
+        Motor m0 = new Motor(0);
+        m0.addNote(new Note(0, 440.0, 50, 0));
+        m0.addNote(new Note(50, 440.0, 50, 0));
+        Motor m1 = new Motor(1);
+        m1.addNote(new Note(25, 880.0, 50, 0));
+        List<Percussion> percussion = List.of(new Percussion(50, Percussion.Type.ACOUSTIC_SNARE));
+
+        InoWriter writer = new InoWriter(List.of(m0, m1), percussion, "commands.ino");
+        writer.run();
+
+        List<String> lines = Files.readAllLines(new File("arduino/commands/commands.ino").toPath());
+        assertTrue(lines.contains("const command commands[] PROGMEM = {{MOTOR0, 2272}, {MOTOR1, 1136}, "
+                + "{0, 0}, {MOTOR0, 2272}, {PERCUSSION0, ACOUSTIC_SNARE}, {1, 0}, {0, 0}};"));
+        assertTrue(lines.contains("const record records[] PROGMEM = {{1, 1}, {25, 1}, {50, 3}, {75, 1}, {100, 1}};"));
+        assertTrue(lines.contains("uint16_t numRecords = 5;"));
+
+        // Motors that are due at the same time are stepped together by a StepGroup
+        assertTrue(lines.contains("StepGroup motors;"));
+        assertTrue(lines.contains("    motors.begin(2);"));
+        assertTrue(lines.contains("    motors.run(micros());"));
+
+        // Clean up
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/commands.ino").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/stepper.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/step_group.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/step_group.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/step_pulse.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/commands/").toPath()));
+    }
+
+    @Test
+    public void testPackedFormat() throws IOException {
+        // The second note starts more than 65535 hundredths of a second after the first one ends
+        Motor m0 = new Motor(0);
+        m0.addNote(new Note(0, 440.0, 50, 0));
+        m0.addNote(new Note(70000, 10.0, 50, 0));
+        List<Percussion> percussion = List.of(new Percussion(50, Percussion.Type.ACOUSTIC_SNARE));
+
+        InoWriter writer = new InoWriter(List.of(m0), percussion, "packed.ino");
+        writer.setFormat(InoWriter.Format.PACKED);
+        writer.run();
+
+        List<String> lines = Files.readAllLines(new File("arduino/packed/packed.ino").toPath());
+        assertTrue(lines.contains("const command commands[] PROGMEM = {{0, 2272}, {0, 0}, {255, 3}, {0, 65535}, {0, 0}};"));
+        assertTrue(lines.contains("const record records[] PROGMEM = {{1, 1}, {49, 2}, {65535, 0}, {4415, 1}, {50, 1}};"));
+        assertTrue(lines.contains("uint32_t numRecords = 5;"));
+        assertTrue(lines.contains("struct __attribute__((packed)) command {"));
+
+        // 5 commands and 4 records at 8 bytes each, compared to 5 commands and 5 records at 3 bytes each
+        assertEquals(72, writer.getStandardDataSize());
+        assertEquals(30, writer.getDataSize());
+
+        // Clean up
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/packed.ino").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/stepper.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/step_group.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/step_group.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/step_pulse.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/packed/").toPath()));
+    }
+
+    @Test
+    public void testIndexedFormat() throws IOException {
+        // Two notes share a pitch, so their period is only stored once
+        Motor m0 = new Motor(0);
+        m0.addNote(new Note(0, 440.0, 50, 0));
+        m0.addNote(new Note(100, 440.0, 50, 0));
+        Motor m1 = new Motor(1);
+        m1.addNote(new Note(50, 880.0, 50, 1));
+        List<Percussion> percussion = List.of(new Percussion(50, Percussion.Type.ACOUSTIC_SNARE));
+
+        InoWriter writer = new InoWriter(List.of(m0, m1), percussion, "indexed.ino");
+        writer.setFormat(InoWriter.Format.INDEXED);
+        writer.run();
+
+        List<String> lines = Files.readAllLines(new File("arduino/indexed/indexed.ino").toPath());
+        assertTrue(lines.contains("const uint32_t periods[] PROGMEM = {0, 581818, 290909};"));
+        assertTrue(lines.contains("const command commands[] PROGMEM = {{0, 1}, {0, 0}, {1, 2}, {255, 3}, {0, 1}, {1, 0}, {0, 0}};"));
+        assertTrue(lines.contains("const record records[] PROGMEM = {{1, 1}, {49, 3}, {50, 2}, {50, 1}};"));
+        assertTrue(lines.contains("struct __attribute__((packed)) command {"));
+
+        // 7 commands at 2 bytes, 4 records at 3 bytes and 3 periods at 4 bytes
+        assertEquals(38, writer.getDataSize());
+
+        // Clean up
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/indexed.ino").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/stepper.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/step_group.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/step_group.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/step_pulse.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/indexed/").toPath()));
+    }
+
+    @Test
+    public void testTickResolution() throws IOException {
+        // Notes 1 ms apart, and a gap longer than 65535 ticks at 1 ms but not at 10 ms
+        Motor m0 = new Motor(0);
+        m0.addNote(new Note(0, 440.0, 10, 0));
+        m0.addNote(new Note(11, 440.0, 10, 0));
+        m0.addNote(new Note(70000, 440.0, 10, 0));
+
+        InoWriter writer = new InoWriter(List.of(m0), List.of(), "resolution.ino");
+        writer.setFormat(InoWriter.Format.PACKED);
+        writer.setTickResolution(TickResolution.MILLISECOND);
+        writer.run();
+
+        List<String> lines = Files.readAllLines(new File("arduino/resolution/resolution.ino").toPath());
+        assertTrue(lines.contains("#define TICK_MICROS 1000"));
+        assertTrue(lines.contains("const record records[] PROGMEM = {{1, 1}, {9, 1}, {1, 1}, {10, 1}, {65535, 0}, {4444, 1}, {10, 1}};"));
+
+        // At 10 ms, the note end and the next note start share a record and the long gap fits in one record
+        assertEquals(writer.getDataSize(), writer.getDataSize(TickResolution.MILLISECOND));
+        assertEquals((6 + 7) * 3, writer.getDataSize(TickResolution.MILLISECOND));
+        assertEquals((6 + 5) * 3, writer.getDataSize(TickResolution.HUNDREDTH_SECOND));
+        assertEquals((6 + 10) * 3, writer.getDataSize(TickResolution.QUARTER_MILLISECOND));
+
+        // Clean up
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/resolution.ino").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/stepper.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/step_group.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/step_group.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/step_pulse.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/resolution/").toPath()));
+    }
+
+    @Test
+    public void testTimerRuntime() throws IOException {
+        Motor m0 = new Motor(0);
+        m0.addNote(new Note(0, 440.0, 50, 0));
+        Motor m1 = new Motor(1);
+        m1.addNote(new Note(25, 880.0, 50, 1));
+
+        InoWriter writer = new InoWriter(List.of(m0, m1), List.of(), "timer.ino");
+        writer.setRuntime(InoWriter.Runtime.TIMER);
+        writer.run();
+
+        // The timer interrupt steps the motors instead of loop()
+        List<String> lines = Files.readAllLines(new File("arduino/timer/timer.ino").toPath());
+        assertTrue(lines.contains("#include \"step_timer.hpp\""));
+        assertFalse(lines.contains("#include \"step_group.hpp\""));
+        assertTrue(lines.contains("StepTimer motors;"));
+        assertTrue(lines.contains("    motors.begin(2);"));
+        assertTrue(lines.contains("    motors[1].setPin(D1);"));
+        assertFalse(lines.contains("    motors.run(micros());"));
+
+        // Clean up
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/timer.ino").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/stepper.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/step_pulse.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/step_timer.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/step_timer.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/timer/").toPath()));
+    }
+
+    @Test
+    public void testRecordScheduler() throws IOException {
+        Motor m0 = new Motor(0);
+        m0.addNote(new Note(0, 440.0, 50, 0));
+
+        InoWriter writer = new InoWriter(List.of(m0), List.of(), "scheduler.ino");
+        writer.setFormat(InoWriter.Format.PACKED);
+        writer.run();
+
+        // Records are played when their deadline in microseconds passes instead of when a tick counter matches
+        List<String> lines = Files.readAllLines(new File("arduino/scheduler/scheduler.ino").toPath());
+        assertTrue(lines.contains("    nextRecordMicros = songStartMicros + nextRecordTime * TICK_MICROS;"));
+        assertTrue(lines.contains("    while (recordIndex < numRecords && (int32_t)(currentMicros - nextRecordMicros) >= 0) {"));
+        assertFalse(lines.stream().anyMatch(line -> line.contains("counter")));
+
+        // Lateness is reported over serial
+        assertTrue(lines.contains("    Serial.begin(SERIAL_BAUD);"));
+        assertTrue(lines.contains("void reportLateness() {"));
+        assertTrue(lines.contains("        recordLateness(currentMicros - nextRecordMicros);"));
+
+        // Clean up
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/scheduler.ino").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/stepper.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/stepper.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/step_phase.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/step_group.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/step_group.cpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/step_pulse.hpp").toPath()));
+        assertTrue(Files.deleteIfExists(new File("arduino/scheduler/").toPath()));
+    }
 }
@@ -0,0 +1,185 @@
+package sms;
+
+import org.jfugue.midi.MidiFileManager;
+import org.jfugue.pattern.Pattern;
+import org.jfugue.pattern.Token;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a MIDI file by converting it into a JFugue pattern and parsing its string tokens. This is kept out of
+ * Parser so that JFugue is only loaded when the JFUGUE engine is used.
+ */
+final class JFugueEngine {
+
+    private JFugueEngine() {}
+
+    /**
+     * Parses the midi file whose data is stored in the tokens list and returns the data
+     * as a list of notes that can be played on stepper motors
+     * @param state The state of the file being parsed, which holds the tick resolution to use
+     * @return An arraylist of notes with start times and durations in ticks of the parser's tick resolution
+     */
+    static Pair<ArrayList<Note>, ArrayList<Percussion>> parseMidi(File file, Parser.ParseState state) throws InvalidMidiDataException, IOException {
+        // Read the file and set up the structures that will accumulate data
+        Pattern midiPattern = MidiFileManager.loadPatternFromMidi(file);
+        ArrayList<Note> notes = new ArrayList<>();
+        ArrayList<Percussion> percussion = new ArrayList<>();
+        List<Token> tokens = midiPattern.getTokens();
+        int voiceIndex = 0;
+
+        try (var stage = state.metrics.start(ConversionMetrics.Stage.TEMPO_MAP)) {
+            state.tempoMap = setupTempoFunction(tokens, state.tickResolution);
+            stage.records(state.tempoMap.size());
+        }
+
+        for (Token t : tokens) {
+            switch (t.getType()) {
+                case NOTE -> noteDispatch(t, voiceIndex, notes, percussion, state);
+                case TRACK_TIME_BOOKMARK -> {
+                    state.currentMeasure = parseTrackTimeBookmark(t);
+                    state.currentNoteStartTime = state.measureToTime(state.currentMeasure);
+                }
+                case VOICE -> {
+                    state.currentMeasure = 0.0;
+                    state.currentNoteStartTime = 0.0;
+                    voiceIndex = parseVoice(t);
+                }
+            }
+        }
+
+        return new Pair<>(notes, percussion);
+    }
+
+    private static TempoMap setupTempoFunction(List<Token> tokens, TickResolution resolution) {
+        TempoMap.Builder tempoFunction = new TempoMap.Builder();
+        double currentTrackTime = 0.0;
+
+        for (Token t : tokens) {
+            switch (t.getType()) {
+                case NOTE -> { // Add the duration to the counter - this is the xPos in the piecewise function
+                    currentTrackTime += calculateDuration(t.toString());
+                }
+                case TRACK_TIME_BOOKMARK -> currentTrackTime = parseTrackTimeBookmark(t);
+                case TEMPO -> { // Add a new node to the tempo piecewise function
+                    int tempo = parseTempo(t);
+                    tempoFunction.add(currentTrackTime, tempo);
+                }
+                case VOICE -> currentTrackTime = 0.0;
+            }
+        }
+
+        return tempoFunction.build(Parser.JFUGUE_BEATS_PER_MEASURE * resolution.getTicksPerMinute());
+    }
+
+    /**
+     * Takes a note/rest token and parses its data. If the token is a note, then the note is added
+     * to the notes list. If the token is a rest, then the method only adds the rest's duration
+     * to the note start time counter.
+     * @param token The note/rest token to parse
+     * @param notes A list of notes that the current token will be added to if it is a note
+     */
+    private static void noteDispatch(Token token, int voiceIndex, ArrayList<Note> notes, ArrayList<Percussion> percussion,
+                                     Parser.ParseState state) {
+        String tokenString = token.toString();
+
+        // Percussion is always enclosed in square brackets and is also classified as a note by JFugue
+        if (tokenString.charAt(0) == '[') {
+            parsePercussion(tokenString, percussion, state);
+        } else {
+            parseNote(tokenString, notes, voiceIndex, state);
+        }
+    }
+
+    private static void parsePercussion(String tokenString, ArrayList<Percussion> percussion, Parser.ParseState state) {
+        // Extract the percussion command's data, then add it to the list
+        Percussion.Type t;
+        String typeName = null;
+        try { // Get the identifier from inside the square brackets
+            typeName = tokenString.substring(1, tokenString.indexOf(']'));
+            t = Percussion.Type.valueOf(typeName);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid percussion identifier: " + typeName);
+            return;
+        }
+        state.addPercussion(t, percussion::add);
+
+        // Add the percussion's "duration" to the start time counter, so we know when the next note will start
+        // Percussion duration cannot be heard, but is used behind the scenes for timing purposes
+        state.advanceStartTime(calculateDuration(tokenString));
+    }
+
+    private static void parseNote(String tokenString, ArrayList<Note> notes, int voiceIndex, Parser.ParseState state) {
+        // Extract the note's data
+        org.jfugue.theory.Note note = new org.jfugue.theory.Note(tokenString);
+        double duration = calculateDuration(tokenString);
+
+        // If the Note token isn't a rest (i.e. it's an actual note), add it to the notes list
+        if (!note.isRest()) {
+            double frequency = org.jfugue.theory.Note.getFrequencyForNote(tokenString);
+            state.addNote(duration, frequency, voiceIndex, NoteTable.Sink.of(notes::add));
+        }
+
+        // Add the current note's duration to the start time counter, so we know when the next note will start
+        state.advanceStartTime(duration);
+    }
+
+    /**
+     * Calculates the duration in number of measures for a given JFugue token represented as a string
+     * JFugue provides a Note.getDuration() method, but it produces incorrect results for durations expressed in
+     * scientific notation, as well as percussion tokens.
+     * @param str
+     * @return The duration of the note token passed in the parameter in number of measures
+     * @throws NumberFormatException If the duration within the String parameter is not a valid double
+     */
+    private static double calculateDuration(String str) throws NumberFormatException {
+        //str = str.toLowerCase();
+
+        // If the string token doesn't contain a '/', then duration is expressed using letters like w, h, and q
+        if (!str.contains("/")) {
+            // Token string will look like F5wa100d0, F5w, Rw2, or [ACOUSTIC_SNARE]SA100D80
+            // If the token is for percussion, we will remove the percussion identifier by splitting on ']' and taking
+            // split[1], then prepending the dummy note name A4. JFugue will throw an exception otherwise.
+            String noteData = str;
+            if (str.charAt(0) == '[') {
+                String durationData = str.split("]")[1];
+                noteData = "A4" + durationData;
+            }
+
+            org.jfugue.theory.Note n = new org.jfugue.theory.Note(noteData);
+            return n.getDuration();
+        }
+
+        // At this point, the token string must look like F5/0.24, F5/1.2e-2, F5/0.24a100d0, or F5/1.2e-2a100d0
+        // We will first split on '/' so that split1[1] contains duration + attack/decay information
+        // Then we will split on 'a' or 'A' so that split2[0] contains only the duration string
+        String[] split1 = str.split("/");
+        String[] split2 = split1[1].split("[aA]");
+        double duration = 0;
+        try {
+            duration = Double.parseDouble(split2[0]);
+        } catch (NumberFormatException e) {
+            System.err.println("Could not get length from token " + str);
+        }
+        return duration;
+    }
+
+    private static double parseTrackTimeBookmark(Token token) throws NumberFormatException {
+        String timeBookmark = token.toString().substring(1);
+        return Double.parseDouble(timeBookmark);
+    }
+
+    private static int parseTempo(Token token) throws NumberFormatException {
+        String newTempo = token.toString().substring(1);
+        return Integer.parseInt(newTempo);
+    }
+
+    private static int parseVoice(Token token) {
+        String voiceNum = token.toString().substring(1);
+        return Integer.parseInt(voiceNum);
+    }
+}
@@ -0,0 +1,66 @@
+package sms;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of primitive longs. Used by the note assigner to keep track of motors
+ * without boxing a key for every note it assigns.
+ */
+class LongMinHeap {
+
+    private long[] heap;
+    private int size = 0;
+
+    LongMinHeap() {
+        heap = new long[16];
+    }
+
+    void add(long value) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+
+        // Move the new value up until its parent is smaller
+        int index = size++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] <= value) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+    }
+
+    long peek() {
+        return heap[0];
+    }
+
+    long poll() {
+        long result = heap[0];
+        long last = heap[--size];
+
+        // Move the last value down from the root until both children are larger
+        int index = 0;
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = last;
+
+        return result;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
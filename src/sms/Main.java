@@ -12,6 +12,11 @@ public class Main {
   
     public static void main(String[] args) {
 
+        // With arguments, convert the files they name without opening the command prompt
+        if (args.length > 0) {
+            System.exit(CommandLine.run(args, System.out));
+        }
+
         CommandPrompt c = new CommandPrompt();
         try {
             c.run();
@@ -0,0 +1,259 @@
+package sms;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Reads the channel and tempo events of a standard MIDI file one track at a time, straight from the file. Unlike
+ * MidiSystem.getSequence, no track is kept in memory, so a file of any size can be read with a small, fixed
+ * amount of memory. The same listener can also be given the events of a Sequence that has already been read.
+ */
+final class MidiEventReader {
+
+    /**
+     * Receives the events of a MIDI file in the order they appear, track by track
+     */
+    interface Listener {
+        /**
+         * Called before the first event of each track
+         */
+        void startTrack();
+
+        /**
+         * Called for each channel message, such as a note being pressed or released
+         * @param tick The time of the message, in ticks since the start of the song
+         * @param command The command of the message, without the channel
+         * @param channel The channel of the message, from 0 to 15
+         * @param data1 The first data byte, or 0 if the message has none
+         * @param data2 The second data byte, or 0 if the message has none
+         */
+        void channelMessage(long tick, int command, int channel, int data1, int data2);
+
+        /**
+         * Called for each tempo change
+         * @param tick The time of the tempo change, in ticks since the start of the song
+         * @param microsecondsPerBeat The length of one quarter note from now on
+         */
+        void tempoChange(long tick, int microsecondsPerBeat);
+    }
+
+    private static final int TEMPO_META_TYPE = 0x51;
+    private static final int END_OF_TRACK_META_TYPE = 0x2F;
+    private static final int HEADER_CHUNK = 0x4D546864; // "MThd"
+    private static final int TRACK_CHUNK = 0x4D54726B; // "MTrk"
+
+    private final InputStream in;
+
+    // The number of bytes left in the current chunk
+    private long chunkRemaining;
+
+    private MidiEventReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the header of a MIDI file
+     * @return The number of ticks per quarter note
+     * @throws InvalidMidiDataException If the file isn't a standard MIDI file, or its timing isn't tempo-based
+     */
+    static int readResolution(File file) throws InvalidMidiDataException, IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return new MidiEventReader(in).readHeader().resolution;
+        }
+    }
+
+    /**
+     * Reads every track of a MIDI file, giving its events to a listener
+     * @throws InvalidMidiDataException If the file isn't a valid standard MIDI file with tempo-based timing
+     */
+    static void read(File file, Listener listener) throws InvalidMidiDataException, IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            MidiEventReader reader = new MidiEventReader(in);
+            Header header = reader.readHeader();
+            for (int track = 0; track < header.tracks && reader.nextTrack(); track++) {
+                listener.startTrack();
+                reader.readTrack(listener);
+            }
+        }
+    }
+
+    /**
+     * Gives the events of a sequence that has already been read to a listener, in the same order they would be
+     * read from the file
+     */
+    static void read(Sequence sequence, Listener listener) {
+        for (Track track : sequence.getTracks()) {
+            listener.startTrack();
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                MidiMessage message = event.getMessage();
+                if (message instanceof ShortMessage shortMessage) {
+                    listener.channelMessage(event.getTick(), shortMessage.getCommand(), shortMessage.getChannel(),
+                            shortMessage.getData1(), shortMessage.getData2());
+                } else if (message instanceof MetaMessage meta && meta.getType() == TEMPO_META_TYPE
+                        && meta.getData().length >= 3) {
+                    listener.tempoChange(event.getTick(), microsecondsPerBeat(meta.getData()));
+                }
+            }
+        }
+    }
+
+    private record Header(int tracks, int resolution) {}
+
+    private Header readHeader() throws InvalidMidiDataException, IOException {
+        try {
+            if (readInt() != HEADER_CHUNK) {
+                throw new InvalidMidiDataException("Not a standard MIDI file");
+            }
+            chunkRemaining = readInt() & 0xFFFFFFFFL;
+            if (chunkRemaining < 6) {
+                throw new InvalidMidiDataException("Invalid MIDI file header");
+            }
+            readShort(); // The file format doesn't matter, since every track is read the same way
+            int tracks = readShort();
+            int division = readShort();
+            skipChunk();
+
+            if ((division & 0x8000) != 0) {
+                throw new InvalidMidiDataException("Only MIDI files with tempo-based timing are supported");
+            }
+            return new Header(tracks, division);
+        } catch (EOFException e) {
+            throw new InvalidMidiDataException("Not a standard MIDI file");
+        }
+    }
+
+    /**
+     * Moves to the start of the next track chunk, skipping any other chunks
+     * @return False if the end of the file was reached first
+     */
+    private boolean nextTrack() throws IOException {
+        while (true) {
+            int first = in.read();
+            if (first < 0) return false;
+            int type = (first << 24) | (readRawByte() << 16) | (readRawByte() << 8) | readRawByte();
+            chunkRemaining = readInt() & 0xFFFFFFFFL;
+            if (type == TRACK_CHUNK) return true;
+            skipChunk();
+        }
+    }
+
+    private void readTrack(Listener listener) throws InvalidMidiDataException, IOException {
+        long tick = 0;
+        int runningStatus = -1;
+
+        try {
+            while (chunkRemaining > 0) {
+                tick += readVariableLength();
+                int status = readByte();
+                int data1 = -1;
+
+                // Channel messages can leave out their status byte if it's the same as the last one
+                if (status < 0x80) {
+                    if (runningStatus < 0) {
+                        throw new InvalidMidiDataException("Data byte found without a status byte");
+                    }
+                    data1 = status;
+                    status = runningStatus;
+                }
+
+                if (status < 0xF0) {
+                    runningStatus = status;
+                    if (data1 < 0) data1 = readByte();
+                    int command = status & 0xF0;
+                    // Program change and channel pressure only have one data byte
+                    int data2 = command == ShortMessage.PROGRAM_CHANGE || command == ShortMessage.CHANNEL_PRESSURE
+                            ? 0 : readByte();
+                    listener.channelMessage(tick, command, status & 0x0F, data1, data2);
+                } else if (status == 0xFF) {
+                    int type = readByte();
+                    int length = (int) readVariableLength();
+                    if (type == TEMPO_META_TYPE && length >= 3) {
+                        byte[] data = {(byte) readByte(), (byte) readByte(), (byte) readByte()};
+                        skip(length - 3);
+                        listener.tempoChange(tick, microsecondsPerBeat(data));
+                    } else {
+                        skip(length);
+                    }
+                    if (type == END_OF_TRACK_META_TYPE) break;
+                } else if (status == 0xF0 || status == 0xF7) {
+                    skip(readVariableLength());
+                } else {
+                    // System common messages have up to two data bytes and never appear in files in practice
+                    skip(status == 0xF2 ? 2 : status == 0xF1 || status == 0xF3 ? 1 : 0);
+                }
+            }
+            skipChunk();
+        } catch (EOFException e) {
+            throw new InvalidMidiDataException("MIDI track ends before its last event");
+        }
+    }
+
+    private static int microsecondsPerBeat(byte[] data) {
+        return ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+    }
+
+    /**
+     * Reads a byte of the current chunk
+     */
+    private int readByte() throws IOException {
+        if (chunkRemaining <= 0) throw new EOFException();
+        chunkRemaining--;
+        return readRawByte();
+    }
+
+    /**
+     * Reads a byte between chunks
+     */
+    private int readRawByte() throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException();
+        return b;
+    }
+
+    private int readShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    private int readInt() throws IOException {
+        return (readRawByte() << 24) | (readRawByte() << 16) | (readRawByte() << 8) | readRawByte();
+    }
+
+    private long readVariableLength() throws IOException {
+        long value = 0;
+        int b;
+        do {
+            b = readByte();
+            value = (value << 7) | (b & 0x7F);
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private void skip(long count) throws IOException {
+        if (count > chunkRemaining) throw new EOFException();
+        chunkRemaining -= count;
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private void skipChunk() throws IOException {
+        skip(chunkRemaining);
+    }
+}
@@ -1,23 +1,33 @@
 package sms;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
 
 public class Motor {
-    
+
     private int index;
-    private ArrayList<IntPair> inUseTimes;
-    private ArrayList<Note> notes;
-    
+    private NoteTable notes;
+
+    // The start and end time of each note the motor plays, one after another. These usually match the notes,
+    // but forceCombine can leave a note's usage time covering the notes it was combined with.
+    private int[] usageTimes;
+    private int numUsageTimes = 0;
+
+    // The total length of the usage times, kept up to date as they change so sorting motors by it is cheap
+    private int onTime = 0;
+
     public Motor() {
-        inUseTimes = new ArrayList<>();
-        notes = new ArrayList<>();
+        notes = new NoteTable();
+        usageTimes = new int[16];
     }
 
     public Motor(int motorIndex) {
         index = motorIndex;
-        inUseTimes = new ArrayList<>();
-        notes = new ArrayList<>();
+        notes = new NoteTable();
+        usageTimes = new int[16];
     }
 
     public int getIndex() {
@@ -28,12 +38,25 @@ public class Motor {
         index = newIndex;
     }
 
-    public ArrayList<Note> getNotes() {
+    /**
+     * @return A view of the notes assigned to this motor. Changes to the list change the motor's notes.
+     */
+    public List<Note> getNotes() {
+        return notes.asList();
+    }
+
+    /**
+     * @return The notes assigned to this motor, without creating a Note object for each one
+     */
+    NoteTable getNoteTable() {
         return notes;
     }
 
-    public ArrayList<IntPair> getUsageTimes() {
-        return inUseTimes;
+    /**
+     * @return A view of the times this motor is in use. Changes to the list change the motor's usage times.
+     */
+    public List<IntPair> getUsageTimes() {
+        return new UsageTimes();
     }
 
     /**
@@ -42,16 +65,49 @@ public class Motor {
      */
     public void addNote(Note newNote) {
         notes.add(newNote);
-        inUseTimes.add(new IntPair(newNote.startTime(), newNote.startTime() + newNote.duration()));
+        addUsageTime(numUsageTimes, newNote.startTime(), newNote.startTime() + newNote.duration());
+    }
+
+    /**
+     * Adds a new note to be played on this motor, copied from a note table.
+     * @param table The table holding the note
+     * @param row The index of the note in the table, which must not conflict with any notes already assigned to this motor.
+     */
+    public void addNote(NoteTable table, int row) {
+        notes.add(table, row);
+        addUsageTime(numUsageTimes, table.startTime(row), table.endTime(row));
     }
-    
+
+    /**
+     * Cuts the last note assigned to this motor short so that it ends at a new time
+     * @param endTime The time the last note should stop playing at, which must be after its start time
+     */
+    public void shortenLastNote(int endTime) {
+        int last = notes.size() - 1;
+        int startTime = notes.startTime(last);
+        notes.setDuration(last, endTime - startTime);
+        setUsageTime(last, startTime, endTime);
+    }
+
+    /**
+     * Removes the last note assigned to this motor
+     * @return The note that was removed
+     */
+    public Note removeLastNote() {
+        removeUsageTime(numUsageTimes - 1);
+        int last = notes.size() - 1;
+        Note removed = notes.get(last);
+        notes.remove(last);
+        return removed;
+    }
+
     public boolean isInUse(int time) {
         // If no notes have been assigned to the motor yet, just return false
-        if (inUseTimes.isEmpty()) return false;
+        if (numUsageTimes == 0) return false;
 
         // Get the last note assigned to the motor and check if it conflicts with the time parameter
-        IntPair lastNoteTimes = inUseTimes.get(inUseTimes.size() - 1);
-        return time >= lastNoteTimes.startTime() && time < lastNoteTimes.endTime();
+        int last = numUsageTimes - 1;
+        return time >= usageTimes[2 * last] && time < usageTimes[2 * last + 1];
     }
 
     public static final Comparator<Motor> onTimeDescendingOrder = (m1, m2) -> {
@@ -61,53 +117,26 @@ public class Motor {
     };
 
     private int getOnTime() {
-        int sum = 0;
-
-        for (var t : inUseTimes) {
-            sum += t.endTime - t.startTime;
-        }
-
-        return sum;
+        return onTime;
     }
 
     public boolean conflictsWith(Motor other) {
-        for (var p1 : inUseTimes) {
-            for (var p2 : other.inUseTimes) {
-                if (p1.conflictsWith(p2)) {
-                    return true;
-                }
-            }
-        }
+        return ConflictAnalyzer.conflicts(usageTimes, numUsageTimes, other.usageTimes, other.numUsageTimes);
+    }
 
-        return false;
+    /**
+     * Compares the times this motor and another motor are playing notes
+     * @param other The motor to compare against
+     * @return The overlap duration, overlap count and first conflict between the two motors
+     */
+    public ConflictAnalyzer.Report analyzeConflicts(Motor other) {
+        return ConflictAnalyzer.analyze(usageTimes, numUsageTimes, other.usageTimes, other.numUsageTimes);
     }
 
     public double getPercentConflict(Motor other) {
-        int m1OnTime = 0;
-        int m2OnTime = 0;
-        for (var p1 : inUseTimes) {
-            m1OnTime += p1.endTime - p1.startTime;
-        }
-        for (var p2 : other.inUseTimes) {
-            m2OnTime += p2.endTime - p2.startTime;
-        }
-
-        int conflictDuration = 0;
-        for (var p1 : inUseTimes) {
-            for (var p2 : other.inUseTimes) {
-//                if (p1.startTime >= p2.startTime && p1.startTime < p2.endTime) {
-//                    conflictDuration += p2.endTime - p1.startTime;
-//                } else if (p2.startTime >= p1.startTime && p2.startTime < p1.endTime) {
-//                    conflictDuration += p1.endTime - p2.startTime;
-//                }
-                // Check if the ranges overlap
-                if (p1.startTime < p2.endTime && p1.endTime > p2.startTime) {
-                    int overlapLow = Math.max(p1.startTime, p2.startTime);
-                    int overlapHigh = Math.min(p1.endTime, p2.endTime);
-                    conflictDuration += overlapHigh - overlapLow;
-                }
-            }
-        }
+        int m1OnTime = getOnTime();
+        int m2OnTime = other.getOnTime();
+        int conflictDuration = analyzeConflicts(other).overlapDuration();
 
         if (m1OnTime > m2OnTime) {
             return ((double) conflictDuration) / m1OnTime;
@@ -116,9 +145,43 @@ public class Motor {
         }
     }
 
+    /**
+     * Moves every note from another motor onto this motor. The two motors must not conflict.
+     * Both motors' notes are merged in chronological order, so the result stays sorted without
+     * having to sort the combined list again.
+     * @param other The motor whose notes will be added to this motor
+     */
+    public void combine(Motor other) {
+        NoteTable combined = new NoteTable(notes.size() + other.notes.size());
+        int[] newUsageTimes = new int[2 * (numUsageTimes + other.numUsageTimes)];
+
+        int index1 = 0;
+        int index2 = 0;
+        int count = 0;
+        while (index1 < notes.size() || index2 < other.notes.size()) {
+            if (index2 == other.notes.size() || (index1 < notes.size()
+                    && NoteTable.compareChronologically(notes, index1, other.notes, index2) <= 0)) {
+                combined.add(notes, index1);
+                System.arraycopy(usageTimes, 2 * index1, newUsageTimes, 2 * count, 2);
+                index1++;
+            } else {
+                combined.add(other.notes, index2);
+                System.arraycopy(other.usageTimes, 2 * index2, newUsageTimes, 2 * count, 2);
+                index2++;
+            }
+            count++;
+        }
+
+        notes = combined;
+        usageTimes = newUsageTimes;
+        numUsageTimes = count;
+        onTime += other.onTime;
+    }
+
     public void forceCombine(Motor other) {
-        ArrayList<Note> combined = new ArrayList<>();
-        ArrayList<IntPair> newUsageTimes = new ArrayList<>();
+        NoteTable combined = new NoteTable(notes.size() + other.notes.size());
+        int[] newUsageTimes = new int[2 * (numUsageTimes + other.numUsageTimes)];
+        int count = 0;
 
         // Perform a merge sort on each motor's note lists
         // If the next note to add conflicts with the note that was added last,
@@ -127,48 +190,114 @@ public class Motor {
         int index2 = 0;
         while (index1 < this.notes.size() || index2 < other.notes.size()) {
             // Get the next data to add to the combined list
-            Note nextNote;
-            IntPair nextUsageTime;
+            Motor next;
+            int nextRow;
             if (index1 == this.notes.size()) { // Reached end of list 1
-                nextNote = other.notes.get(index2);
-                nextUsageTime = other.inUseTimes.get(index2);
-                index2++;
+                next = other;
+                nextRow = index2++;
             } else if (index2 == other.notes.size()) { // Reached end of list 2
-                nextNote = notes.get(index1);
-                nextUsageTime = inUseTimes.get(index1);
-                index1++;
-            } else if (inUseTimes.get(index1).startTime < other.inUseTimes.get(index2).startTime) {
+                next = this;
+                nextRow = index1++;
+            } else if (usageTimes[2 * index1] < other.usageTimes[2 * index2]) {
                 // Note in list 1 comes before note in list 2
-                nextNote = notes.get(index1);
-                nextUsageTime = inUseTimes.get(index1);
-                index1++;
+                next = this;
+                nextRow = index1++;
             } else { // Note in list 2 comes before note in list 1
-                nextNote = other.notes.get(index2);
-                nextUsageTime = other.inUseTimes.get(index2);
-                index2++;
+                next = other;
+                nextRow = index2++;
             }
+            int nextStartTime = next.usageTimes[2 * nextRow];
+            int nextEndTime = next.usageTimes[2 * nextRow + 1];
 
             // Check if the next data to add conflicts with the previous
-            if (!combined.isEmpty() && newUsageTimes.get(newUsageTimes.size() - 1).conflictsWith(nextUsageTime)) {
+            if (count > 0 && IntPair.conflicts(newUsageTimes[2 * count - 2], newUsageTimes[2 * count - 1],
+                    nextStartTime, nextEndTime)) {
                 // Change the previously added data so that it doesn't conflict
-                var oldNote = combined.get(combined.size() - 1);
-                int newDuration = nextNote.startTime() - oldNote.startTime();
-                var newNote = new Note(oldNote.startTime(), oldNote.pitch(), newDuration, oldNote.voiceIndex());
-                combined.remove(combined.size() - 1);
-                combined.add(newNote);
-
-                var oldUsagePair = newUsageTimes.get(newUsageTimes.size() - 1);
-                var newUsageTime = new IntPair(oldUsagePair.startTime, nextUsageTime.endTime);
-                newUsageTimes.remove(newUsageTimes.size() - 1);
-                newUsageTimes.add(newUsageTime);
+                int last = combined.size() - 1;
+                combined.setDuration(last, next.notes.startTime(nextRow) - combined.startTime(last));
+                newUsageTimes[2 * count - 1] = nextEndTime;
             }
-            combined.add(nextNote);
-            newUsageTimes.add(nextUsageTime);
+            combined.add(next.notes, nextRow);
+            newUsageTimes[2 * count] = nextStartTime;
+            newUsageTimes[2 * count + 1] = nextEndTime;
+            count++;
         }
 
-        // Now we add the last notes from the list that didn't reach the end
         notes = combined;
-        inUseTimes = newUsageTimes;
+        usageTimes = newUsageTimes;
+        numUsageTimes = count;
+        onTime = 0;
+        for (int i = 0; i < count; i++) {
+            onTime += usageTimes[2 * i + 1] - usageTimes[2 * i];
+        }
+    }
+
+    private void addUsageTime(int position, int startTime, int endTime) {
+        if (2 * numUsageTimes == usageTimes.length) {
+            usageTimes = Arrays.copyOf(usageTimes, usageTimes.length * 2);
+        }
+        System.arraycopy(usageTimes, 2 * position, usageTimes, 2 * position + 2, 2 * (numUsageTimes - position));
+        usageTimes[2 * position] = startTime;
+        usageTimes[2 * position + 1] = endTime;
+        numUsageTimes++;
+        onTime += endTime - startTime;
+    }
+
+    private void setUsageTime(int position, int startTime, int endTime) {
+        onTime -= usageTimes[2 * position + 1] - usageTimes[2 * position];
+        usageTimes[2 * position] = startTime;
+        usageTimes[2 * position + 1] = endTime;
+        onTime += endTime - startTime;
+    }
+
+    private void removeUsageTime(int position) {
+        onTime -= usageTimes[2 * position + 1] - usageTimes[2 * position];
+        System.arraycopy(usageTimes, 2 * position + 2, usageTimes, 2 * position, 2 * (numUsageTimes - position - 1));
+        numUsageTimes--;
+    }
+
+    /**
+     * A list of the motor's usage times, backed by its array of start and end times
+     */
+    private final class UsageTimes extends AbstractList<IntPair> implements RandomAccess {
+        @Override
+        public IntPair get(int i) {
+            checkIndex(i, numUsageTimes);
+            return new IntPair(usageTimes[2 * i], usageTimes[2 * i + 1]);
+        }
+
+        @Override
+        public int size() {
+            return numUsageTimes;
+        }
+
+        @Override
+        public IntPair set(int i, IntPair times) {
+            IntPair old = get(i);
+            setUsageTime(i, times.startTime(), times.endTime());
+            return old;
+        }
+
+        @Override
+        public void add(int i, IntPair times) {
+            checkIndex(i, numUsageTimes + 1);
+            addUsageTime(i, times.startTime(), times.endTime());
+            modCount++;
+        }
+
+        @Override
+        public IntPair remove(int i) {
+            IntPair old = get(i);
+            removeUsageTime(i);
+            modCount++;
+            return old;
+        }
+
+        private void checkIndex(int i, int size) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + numUsageTimes);
+            }
+        }
     }
 
     /**
@@ -178,8 +307,15 @@ public class Motor {
      */
     record IntPair(int startTime, int endTime) {
         public boolean conflictsWith(IntPair other) {
-            return (this.startTime >= other.startTime && this.startTime < other.endTime)
-                    || (other.startTime >= this.startTime && other.startTime < this.endTime);
+            return conflicts(startTime, endTime, other.startTime, other.endTime);
+        }
+
+        /**
+         * Checks whether two usage times conflict like conflictsWith, without creating an IntPair for each
+         */
+        static boolean conflicts(int startTime1, int endTime1, int startTime2, int endTime2) {
+            return (startTime1 >= startTime2 && startTime1 < endTime2)
+                    || (startTime2 >= startTime1 && startTime2 < endTime1);
         }
     }
 }
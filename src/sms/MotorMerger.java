@@ -0,0 +1,97 @@
+package sms;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Combines motors that never play notes at the same time, so that a song can be played on fewer motors.
+ * The merger checks every pair of motors for conflicts once and stores the results in a compatibility graph.
+ * When two motors are combined, the combined motor is only compatible with motors that were compatible with
+ * both of the original motors, so the graph can be updated without checking any notes again.
+ */
+public class MotorMerger {
+
+    private int mergeRounds = 0;
+    private int conflictChecks = 0;
+
+    /**
+     * Combines motors that don't conflict with each other. Starting from the end of the list, each motor is
+     * combined into the closest motor before it that it doesn't conflict with, and removed from the list.
+     * Motors earlier in the list keep their notes and position.
+     * @param motors The motors to combine, sorted in the order they should keep. This list is modified.
+     */
+    public void merge(List<Motor> motors) {
+        int numMotors = motors.size();
+        Motor[] motorsById = motors.toArray(new Motor[0]);
+
+        // Build the compatibility graph, where motors are connected if they don't conflict
+        BitSet[] compatible = new BitSet[numMotors];
+        for (int i = 0; i < numMotors; i++) {
+            compatible[i] = new BitSet(numMotors);
+        }
+        for (int i = 0; i < numMotors; i++) {
+            for (int j = i + 1; j < numMotors; j++) {
+                conflictChecks++;
+                if (!motorsById[i].conflictsWith(motorsById[j])) {
+                    compatible[i].set(j);
+                    compatible[j].set(i);
+                }
+            }
+        }
+
+        // The ids of the motors that haven't been combined into another motor, in list order
+        int[] ids = new int[numMotors];
+        for (int i = 0; i < numMotors; i++) {
+            ids[i] = i;
+        }
+        int size = numMotors;
+
+        // Every motor after position p conflicts with every motor before it. Combining motors can only remove
+        // edges from the graph, so those motors never have to be checked again.
+        for (int p = size - 1; p > 0; p--) {
+            int higher = ids[p];
+
+            for (int q = p - 1; q >= 0; q--) {
+                int lower = ids[q];
+                if (!compatible[higher].get(lower)) continue;
+
+                // Combine the motors' note lists into the motor earlier in the list
+                motorsById[lower].combine(motorsById[higher]);
+                mergeRounds++;
+
+                // The combined motor only stays compatible with motors compatible with both
+                compatible[lower].and(compatible[higher]);
+                for (int r = 0; r < size; r++) {
+                    compatible[ids[r]].set(lower, compatible[lower].get(ids[r]));
+                }
+
+                // Remove the motor that was combined
+                System.arraycopy(ids, p + 1, ids, p, size - p - 1);
+                size--;
+                break;
+            }
+        }
+
+        List<Motor> remaining = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            remaining.add(motorsById[ids[i]]);
+        }
+        motors.clear();
+        motors.addAll(remaining);
+    }
+
+    /**
+     * @return The number of times two motors were combined by this merger
+     */
+    public int getMergeRounds() {
+        return mergeRounds;
+    }
+
+    /**
+     * @return The number of pairs of motors whose notes were checked for conflicts
+     */
+    public int getConflictChecks() {
+        return conflictChecks;
+    }
+}
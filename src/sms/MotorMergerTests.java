@@ -0,0 +1,135 @@
+package sms;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotorMergerTests {
+
+    @Test
+    public void testMergeNonConflictingMotors() {
+        Motor m0 = new Motor(0);
+        m0.addNote(new Note(0, 440.0, 50, 0));
+        m0.addNote(new Note(100, 440.0, 50, 0));
+        Motor m1 = new Motor(1);
+        m1.addNote(new Note(0, 220.0, 200, 1));
+        Motor m2 = new Motor(2);
+        m2.addNote(new Note(50, 330.0, 50, 2));
+
+        List<Motor> motors = new ArrayList<>(List.of(m0, m1, m2));
+        MotorMerger merger = new MotorMerger();
+        merger.merge(motors);
+
+        // Motor 2 fits in the gap between motor 0's notes, but motor 1 conflicts with both
+        assertEquals(2, motors.size());
+        assertEquals(1, merger.getMergeRounds());
+        assertEquals(3, merger.getConflictChecks());
+        assertEquals(m0, motors.get(0));
+        assertEquals(m1, motors.get(1));
+
+        // The combined notes stay in chronological order
+        assertEquals(3, m0.getNotes().size());
+        assertEquals(0, m0.getNotes().get(0).startTime());
+        assertEquals(50, m0.getNotes().get(1).startTime());
+        assertEquals(100, m0.getNotes().get(2).startTime());
+        assertEquals(50, m0.getUsageTimes().get(1).startTime());
+    }
+
+    @Test
+    public void testSameOrFewerMotorsThanRestartingMerge() {
+        Random random = new Random(3);
+
+        for (int trial = 0; trial < 300; trial++) {
+            List<Motor> motors = randomMotors(random);
+            List<Motor> expected = copyMotors(motors);
+            int totalNotes = motors.stream().mapToInt(m -> m.getNotes().size()).sum();
+
+            restartingJoinTracks(expected);
+            new MotorMerger().merge(motors);
+
+            assertTrue(motors.size() <= expected.size());
+            assertEquals(totalNotes, motors.stream().mapToInt(m -> m.getNotes().size()).sum());
+            for (int i = 0; i < motors.size(); i++) {
+                for (int j = i + 1; j < motors.size(); j++) {
+                    assertTrue(motors.get(i).conflictsWith(motors.get(j)));
+                }
+                for (int j = 0; j < motors.get(i).getNotes().size() - 1; j++) {
+                    assertFalse(Note.chronologicalOrder.compare(
+                            motors.get(i).getNotes().get(j), motors.get(i).getNotes().get(j + 1)) > 0);
+                }
+            }
+        }
+    }
+
+    private static List<Motor> randomMotors(Random random) {
+        List<Motor> motors = new ArrayList<>();
+        int numMotors = 1 + random.nextInt(12);
+        for (int i = 0; i < numMotors; i++) {
+            Motor motor = new Motor(i);
+            int time = random.nextInt(100);
+            int numNotes = 1 + random.nextInt(8);
+            for (int n = 0; n < numNotes; n++) {
+                int duration = 1 + random.nextInt(60);
+                motor.addNote(new Note(time, 100.0 + random.nextInt(800), duration, i));
+                time += duration + random.nextInt(150);
+            }
+            motors.add(motor);
+        }
+        return motors;
+    }
+
+    private static List<Motor> copyMotors(List<Motor> motors) {
+        List<Motor> copy = new ArrayList<>();
+        for (Motor motor : motors) {
+            Motor m = new Motor(motor.getIndex());
+            motor.getNotes().forEach(m::addNote);
+            copy.add(m);
+        }
+        return copy;
+    }
+
+    /**
+     * The merge that NoteAssigner used before MotorMerger, which started over after every merge
+     */
+    private static void restartingJoinTracks(List<Motor> motors) {
+        boolean finished = false;
+        while (!finished) {
+            ListIterator<Motor> i1 = motors.listIterator(motors.size());
+            ListIterator<Motor> i2 = motors.listIterator(motors.size());
+            finished = true;
+
+            boolean alreadyCombinedList = false;
+            while (i1.hasPrevious()) {
+                if (alreadyCombinedList) break;
+
+                Motor m1 = i1.previous();
+
+                while (i2.hasPrevious()) {
+                    Motor m2 = i2.previous();
+                    if (!m1.conflictsWith(m2)) {
+                        finished = false;
+
+                        Motor higher = m1.getIndex() > m2.getIndex() ? m1 : m2;
+                        Motor lower = m1.getIndex() > m2.getIndex() ? m2 : m1;
+                        for (var note : higher.getNotes()) {
+                            lower.getNotes().add(note);
+                            lower.getUsageTimes().add(new Motor.IntPair(note.startTime(), note.startTime() + note.duration()));
+                        }
+                        lower.getNotes().sort(Note.chronologicalOrder);
+
+                        motors.remove(higher);
+                        alreadyCombinedList = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -4,21 +4,28 @@ import java.util.Comparator;
 
 /**
  * Stores data of a single note within the MIDI file
- * @param startTime The time this note should start playing at, in hundredths of a second
- *                  since the start of the song
+ * @param startTime The time this note should start playing at, in ticks since the start of the song.
+ *                  Ticks are hundredths of a second unless the song was parsed with another TickResolution
  * @param pitch The frequency of the note, in Hertz
- * @param duration How long the note should play for, in hundredths of a second
+ * @param duration How long the note should play for, in ticks
  * @param voiceIndex The index of the voice this note comes from in the MIDI file
  */
 public record Note(int startTime, double pitch, int duration, int voiceIndex) implements MusicCommand {
 
     /**
-     * Returns a String representation of this note's data
+     * Returns a String representation of this note's data, with times in hundredths of a second
      */
     public String toString() {
-        String startTimeSeconds = (startTime / 100) + "." + String.format("%02d", (startTime % 100)) + "s";
-        int endTime = startTime + duration;
-        String endTimeSeconds = (endTime / 100) + "." + String.format("%02d", (endTime % 100)) + "s";
+        return toString(TickResolution.HUNDREDTH_SECOND);
+    }
+
+    /**
+     * Returns a String representation of this note's data
+     * @param resolution The tick resolution the note's times are in
+     */
+    public String toString(TickResolution resolution) {
+        String startTimeSeconds = resolution.formatSeconds(startTime);
+        String endTimeSeconds = resolution.formatSeconds(startTime + duration);
         return "Note " + pitch + " at " + startTimeSeconds + " until " + endTimeSeconds;
     }
 
@@ -4,8 +4,9 @@ import sms.Motor;
 import sms.Note;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.stream.IntStream;
 
 /**
  * Assigns notes to stepper motors
@@ -14,66 +15,121 @@ public class NoteAssigner {
 
     private static final double ACCEPTABLE_CONFLICT_THRESHOLD = 0.03;
 
+    // Songs with fewer notes than this are assigned on one thread, since splitting the work up would take longer
+    private static final int PARALLEL_THRESHOLD = 20000;
+
+    /**
+     * The ways notes can be assigned to motors. PRESERVE_VOICES plays each voice of the song on its own
+     * motors, CONDENSING puts each note on the first free motor, and OPTIMAL uses the fewest motors possible
+     * and can fit the song onto a limited number of motors.
+     */
+    public enum Strategy { PRESERVE_VOICES, CONDENSING, OPTIMAL }
+
+    /**
+     * The result of an optimal assignment
+     * @param motors The motors the notes were assigned to
+     * @param minimumMotors The number of motors needed to play every note, which is the largest number of
+     *                      notes playing at the same time
+     * @param droppedNotes The notes that were left out to fit the motor budget
+     * @param shortenedNotes The number of notes that were cut short to fit the motor budget
+     */
+    public record Assignment(List<Motor> motors, int minimumMotors, List<Note> droppedNotes, int shortenedNotes) {}
+
     public static ArrayList<Motor> assign(List<Note> notes) {
+        return assign(notes, ConversionMetrics.DISABLED);
+    }
+
+    /**
+     * Assigns notes to motors like assign(List), recording the ASSIGN and JOIN_TRACKS stages
+     * @param notes The notes to assign, sorted in voice order
+     * @param metrics The metrics to record the stages in
+     * @return A list of motors, each containing their assigned notes
+     */
+    public static ArrayList<Motor> assign(List<Note> notes, ConversionMetrics metrics) {
+        return assign(tableOf(notes), metrics);
+    }
+
+    public static ArrayList<Motor> assign(NoteTable notes) {
+        return assign(notes, ConversionMetrics.DISABLED);
+    }
+
+    /**
+     * Assigns notes to motors like assign(List, ConversionMetrics), without creating a Note object for each note
+     * @param notes The notes to assign, sorted in voice order
+     * @param metrics The metrics to record the stages in
+     * @return A list of motors, each containing their assigned notes
+     */
+    public static ArrayList<Motor> assign(NoteTable notes, ConversionMetrics metrics) {
+        return assign(notes, metrics, notes.size() >= PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Assigns notes to motors like assign(NoteTable, ConversionMetrics), choosing whether the voices are
+     * assigned at the same time. The motors are the same either way.
+     * @param notes The notes to assign, sorted in voice order
+     * @param metrics The metrics to record the stages in
+     * @param parallel True to assign the voices on several threads, false to assign them one by one
+     * @return A list of motors, each containing their assigned notes
+     */
+    public static ArrayList<Motor> assign(NoteTable notes, ConversionMetrics metrics, boolean parallel) {
+        try (var stage = metrics.start(ConversionMetrics.Stage.ASSIGN)) {
+            ArrayList<Motor> motors = assignVoices(notes, parallel, metrics, stage);
+            stage.notes(notes.size()).motors(motors.size());
+            return motors;
+        }
+    }
+
+    /**
+     * The motors one voice was assigned to
+     * @param conflictChecks The number of times two of the voice's motors were checked for conflicts
+     * @param allocatedBytes The number of bytes allocated while assigning the voice on a thread other than the
+     *                       one that started the assignment, or -1 if the JVM can't tell
+     */
+    private record VoiceMotors(List<Motor> motors, int conflictChecks, long allocatedBytes) {}
+
+    private static ArrayList<Motor> assignVoices(NoteTable notes, boolean parallel, ConversionMetrics metrics,
+                                                 ConversionMetrics.Timer stage) {
         ArrayList<Motor> motors = new ArrayList<>();
         if (notes.isEmpty()) return motors;
+        int conflictChecks = 0;
 
         // For each voice in the original song, we will extract all the notes that correspond
         // to that voice, then assign that subset of notes to motors such that each voice's notes
         // are played on unique motors
 
+        // Find the first and last note of each voice
+        List<int[]> voices = new ArrayList<>();
         int firstVoiceNoteIndex = 0;
-        int currentVoice = notes.get(0).voiceIndex();
+        int currentVoice = notes.voiceIndex(0);
         for (int i = 0; i < notes.size(); i++) {
 
             // Check if we reached the notes for a new voice
-            if (notes.get(i).voiceIndex() != currentVoice) {
-                // Get the sublist for the current voice and assign its notes to motors
-                var sublist = notes.subList(firstVoiceNoteIndex, i);
-                var voiceMotors = condensingAssign(sublist);
-
-                // If the condensing assignment added more than one motor, check the percentage of time
-                // that notes between the motors are playing at the same time. If the percentage is less
-                // than the acceptable threshold, then combine the motors' note lists into one.
-                if (voiceMotors.size() > 1) {
-                    for (int n = 1; n < voiceMotors.size(); n++) {
-                        double conflict = voiceMotors.get(0).getPercentConflict(voiceMotors.get(n));
-                        System.out.println("% conflict: " + conflict);
-
-                        // Combine the motors' note lists
-                        if (conflict <= ACCEPTABLE_CONFLICT_THRESHOLD) {
-                            voiceMotors.get(0).forceCombine(voiceMotors.get(n));
-                            voiceMotors.remove(n);
-                            n--;
-                        }
-                    }
-                }
-                motors.addAll(voiceMotors);
-
+            if (notes.voiceIndex(i) != currentVoice) {
+                voices.add(new int[] {firstVoiceNoteIndex, i});
                 firstVoiceNoteIndex = i;
-                currentVoice = notes.get(i).voiceIndex();
+                currentVoice = notes.voiceIndex(i);
             }
         }
 
         // Check if there are still notes left to be added
         if (firstVoiceNoteIndex < notes.size() - 1) {
-            var sublist = notes.subList(firstVoiceNoteIndex, notes.size());
-            var voiceMotors = condensingAssign(sublist);
-            if (voiceMotors.size() > 1) {
-                for (int n = 1; n < voiceMotors.size(); n++) {
-                    double conflict = voiceMotors.get(0).getPercentConflict(voiceMotors.get(n));
-                    System.out.println("% conflict: " + conflict);
-
-                    // Combine the motors' note lists
-                    if (conflict <= ACCEPTABLE_CONFLICT_THRESHOLD) {
-                        voiceMotors.get(0).forceCombine(voiceMotors.get(n));
-                        voiceMotors.remove(n);
-                        n--;
-                    }
-                }
-            }
-            motors.addAll(voiceMotors);
+            voices.add(new int[] {firstVoiceNoteIndex, notes.size()});
+        }
+
+        // Each voice is played on its own motors, so the voices can be assigned at the same time. The results
+        // are kept in voice order, so the motors are the same as when the voices are assigned one by one.
+        Thread caller = Thread.currentThread();
+        IntStream voiceIndexes = IntStream.range(0, voices.size());
+        if (parallel) voiceIndexes = voiceIndexes.parallel();
+        List<VoiceMotors> voiceMotors = voiceIndexes
+                .mapToObj(v -> assignVoice(notes, voices.get(v)[0], voices.get(v)[1], caller))
+                .toList();
+        for (VoiceMotors voice : voiceMotors) {
+            motors.addAll(voice.motors());
+            conflictChecks += voice.conflictChecks();
+            stage.addAllocatedBytes(voice.allocatedBytes());
         }
+        stage.mergeIterations(conflictChecks);
 
         // Sort the motors by the length of time that they are playing a note
         // Motors that get used more often will appear earlier in the list
@@ -84,7 +140,7 @@ public class NoteAssigner {
             motors.get(i).setIndex(i);
         }
 
-        joinTracks(motors);
+        joinTracks(motors, metrics);
 
         // Set the index for each motor
         for (int i = 0; i < motors.size(); i++) {
@@ -94,6 +150,64 @@ public class NoteAssigner {
         return motors;
     }
 
+    /**
+     * Assigns notes to motors like condensingAssign(List), recording the ASSIGN stage
+     * @param notes The list of notes to be assigned
+     * @param metrics The metrics to record the stage in
+     * @return A list of motors, each containing their assigned notes
+     */
+    public static List<Motor> condensingAssign(List<Note> notes, ConversionMetrics metrics) {
+        return condensingAssign(tableOf(notes), metrics);
+    }
+
+    /**
+     * Assigns the notes of one voice to motors
+     * @param from The index of the voice's first note
+     * @param to The index after the voice's last note
+     * @param caller The thread that started the assignment, whose allocations the stage's timer already counts
+     */
+    private static VoiceMotors assignVoice(NoteTable notes, int from, int to, Thread caller) {
+        boolean otherThread = Thread.currentThread() != caller;
+        long startAllocatedBytes = otherThread ? ConversionMetrics.allocatedBytes() : 0;
+        List<Motor> voiceMotors = condensingAssign(notes, from, to);
+        int conflictChecks = 0;
+
+        // If the condensing assignment added more than one motor, check the percentage of time
+        // that notes between the motors are playing at the same time. If the percentage is less
+        // than the acceptable threshold, then combine the motors' note lists into one.
+        if (voiceMotors.size() > 1) {
+            for (int n = 1; n < voiceMotors.size(); n++) {
+                double conflict = voiceMotors.get(0).getPercentConflict(voiceMotors.get(n));
+                conflictChecks++;
+
+                // Combine the motors' note lists
+                if (conflict <= ACCEPTABLE_CONFLICT_THRESHOLD) {
+                    voiceMotors.get(0).forceCombine(voiceMotors.get(n));
+                    voiceMotors.remove(n);
+                    n--;
+                }
+            }
+        }
+
+        long endAllocatedBytes = otherThread ? ConversionMetrics.allocatedBytes() : 0;
+        long allocated = startAllocatedBytes < 0 || endAllocatedBytes < 0 ? -1 : endAllocatedBytes - startAllocatedBytes;
+        return new VoiceMotors(voiceMotors, conflictChecks, allocated);
+    }
+
+    /**
+     * Assigns notes to motors like condensingAssign(NoteTable), recording the ASSIGN stage
+     * @param notes The notes to be assigned
+     * @param metrics The metrics to record the stage in
+     * @return A list of motors, each containing their assigned notes
+     */
+    public static List<Motor> condensingAssign(NoteTable notes, ConversionMetrics metrics) {
+        try (var stage = metrics.start(ConversionMetrics.Stage.ASSIGN)) {
+            List<Motor> motors = condensingAssign(notes);
+            stage.notes(notes.size()).motors(motors.size());
+            return motors;
+        }
+    }
+
     /**
      * Assigns each note from the list to a motor using a condensing algorithm. Each note is
      * assigned to the first motor that isn't playing a note at that note's start time. This
@@ -104,9 +218,76 @@ public class NoteAssigner {
      * @return A list of motors, each containing their assigned notes
      */
     public static List<Motor> condensingAssign(List<Note> notes) {
+        return condensingAssign(tableOf(notes));
+    }
+
+    /**
+     * Assigns notes to motors like condensingAssign(List), without creating a Note object for each note
+     * @param notes The notes to be assigned
+     * @return A list of motors, each containing their assigned notes
+     */
+    public static List<Motor> condensingAssign(NoteTable notes) {
+        return condensingAssign(notes, 0, notes.size());
+    }
+
+    /**
+     * Assigns the notes in part of a table to motors using the condensing algorithm
+     * @param from The index of the first note to assign
+     * @param to The index after the last note to assign
+     */
+    private static List<Motor> condensingAssign(NoteTable notes, int from, int to) {
+        // A motor is free once its last note has ended only if the notes are in chronological order
+        if (!isChronological(notes, from, to)) {
+            return linearCondensingAssign(notes, from, to);
+        }
+
+        ArrayList<Motor> motors = new ArrayList<>();
+
+        // Free motors are kept in a heap ordered by motor index, so the first free motor is always on top.
+        // Busy motors are kept in a heap ordered by the time their last note ends, with the motor index in
+        // the low 32 bits, so motors can be moved back to the free heap as soon as they stop playing.
+        LongMinHeap freeMotors = new LongMinHeap();
+        LongMinHeap busyMotors = new LongMinHeap();
+
+        for (int i = from; i < to; i++) {
+            int startTime = notes.startTime(i);
+            while (!busyMotors.isEmpty() && (int) (busyMotors.peek() >> 32) <= startTime) {
+                freeMotors.add(busyMotors.poll() & 0xFFFFFFFFL);
+            }
+
+            // Use the first motor that isn't playing anything at the current note's start time.
+            // If no motor is available, then add a new one.
+            Motor motor;
+            if (freeMotors.isEmpty()) {
+                motor = new Motor(motors.size());
+                motors.add(motor);
+            } else {
+                motor = motors.get((int) freeMotors.poll());
+            }
+            motor.addNote(notes, i);
+
+            long endTime = notes.endTime(i);
+            busyMotors.add((endTime << 32) | motor.getIndex());
+        }
+
+        return motors;
+    }
+
+    /**
+     * Assigns notes to motors like condensingAssign, but checks every motor for each note. This works
+     * for notes in any order.
+     *
+     * @param notes The list of notes to be assigned
+     * @return A list of motors, each containing their assigned notes
+     */
+    static List<Motor> linearCondensingAssign(List<Note> notes) {
+        return linearCondensingAssign(tableOf(notes), 0, notes.size());
+    }
+
+    private static List<Motor> linearCondensingAssign(NoteTable notes, int from, int to) {
         ArrayList<Motor> motors = new ArrayList<>();
 
-        for (var note : notes) {
+        for (int i = from; i < to; i++) {
             boolean noteAdded = false;
             int motorIndex = 0;
 
@@ -117,8 +298,8 @@ public class NoteAssigner {
                     motors.add(new Motor(motors.size()));
                 }
 
-                if (!motors.get(motorIndex).isInUse(note.startTime())) {
-                    motors.get(motorIndex).addNote(note);
+                if (!motors.get(motorIndex).isInUse(notes.startTime(i))) {
+                    motors.get(motorIndex).addNote(notes, i);
                     noteAdded = true;
                 }
                 else {
@@ -130,48 +311,165 @@ public class NoteAssigner {
         return motors;
     }
 
-    private static void joinTracks(List<Motor> motors) {
-        boolean finished = false;
-        while (!finished) {
-            ListIterator<Motor> i1 = motors.listIterator(motors.size());
-            ListIterator<Motor> i2 = motors.listIterator(motors.size());
-            finished = true;
-
-            boolean alreadyCombinedList = false;
-            while (i1.hasPrevious()) {
-                if (alreadyCombinedList) break;
-
-                Motor m1 = i1.previous();
-
-                while (i2.hasPrevious()) {
-                    Motor m2 = i2.previous();
-                    boolean conflict = m1.conflictsWith(m2);
-                    if (!conflict) {
-                        finished = false;
-
-                        // Combine motors' note lists into the motor with the lower index
-                        Motor higher;
-                        Motor lower;
-                        if (m1.getIndex() > m2.getIndex()) {
-                            higher = m1;
-                            lower = m2;
-                        } else {
-                            higher = m2;
-                            lower = m1;
-                        }
-                        for (var note : higher.getNotes()) {
-                            lower.getNotes().add(note);
-                            lower.getUsageTimes().add(new Motor.IntPair(note.startTime(), note.startTime() + note.duration()));
-                        }
-                        lower.getNotes().sort(Note.chronologicalOrder);
-
-                        // Remove the motor with the higher index
-                        motors.remove(higher);
-                        alreadyCombinedList = true;
-                        break;
-                    }
+    /**
+     * Assigns notes to motors like optimalAssign(List, int), recording the ASSIGN stage
+     * @param notes The list of notes to be assigned
+     * @param motorBudget The largest number of motors to use, or 0 to use as many as needed
+     * @param metrics The metrics to record the stage in
+     * @return The motors, along with the minimum motor count and the notes changed to fit the budget
+     */
+    public static Assignment optimalAssign(List<Note> notes, int motorBudget, ConversionMetrics metrics) {
+        try (var stage = metrics.start(ConversionMetrics.Stage.ASSIGN)) {
+            Assignment assignment = optimalAssign(notes, motorBudget);
+            stage.notes(notes.size()).motors(assignment.motors().size());
+            return assignment;
+        }
+    }
+
+    /**
+     * Assigns notes to as few motors as possible, ignoring which voice each note came from. The number of
+     * motors needed is the largest number of notes that play at the same time. If that is more than the
+     * motor budget, notes are cut short or left out so that the song fits on the motors available.
+     *
+     * @param notes The list of notes to be assigned
+     * @param motorBudget The largest number of motors to use, or 0 to use as many as needed
+     * @return The motors, along with the minimum motor count and the notes changed to fit the budget
+     */
+    public static Assignment optimalAssign(List<Note> notes, int motorBudget) {
+        NoteTable sortedNotes = NoteTable.of(notes);
+        sortedNotes.sortChronologically();
+        int minimumMotors = minimumMotorCount(sortedNotes);
+
+        // Assigning sorted notes to the first free motor is an optimal interval graph coloring,
+        // so it never uses more motors than the largest number of notes playing at once
+        if (motorBudget <= 0 || motorBudget >= minimumMotors) {
+            return new Assignment(condensingAssign(sortedNotes), minimumMotors, List.of(), 0);
+        }
+
+        ArrayList<Motor> motors = new ArrayList<>();
+        ArrayList<Note> droppedNotes = new ArrayList<>();
+        int shortenedNotes = 0;
+        int[] endTimes = new int[motorBudget];
+
+        for (int n = 0; n < sortedNotes.size(); n++) {
+            int startTime = sortedNotes.startTime(n);
+            int endTime = sortedNotes.endTime(n);
+
+            // Use the first free motor, adding a new one if the budget allows it
+            int motorIndex = -1;
+            for (int i = 0; i < motors.size() && motorIndex < 0; i++) {
+                if (endTimes[i] <= startTime) motorIndex = i;
+            }
+            if (motorIndex < 0 && motors.size() < motorBudget) {
+                motorIndex = motors.size();
+                motors.add(new Motor(motorIndex));
+            }
+
+            if (motorIndex < 0) {
+                // Every motor is busy. Keeping the notes that end soonest lets the most notes be played, so
+                // the note that ends last gives up its motor. Notes that already started are cut short.
+                int latest = 0;
+                for (int i = 1; i < motors.size(); i++) {
+                    if (endTimes[i] > endTimes[latest]) latest = i;
+                }
+                if (endTimes[latest] <= endTime || sortedNotes.duration(n) <= 0) {
+                    droppedNotes.add(sortedNotes.get(n));
+                    continue;
+                }
+
+                Motor motor = motors.get(latest);
+                NoteTable motorNotes = motor.getNoteTable();
+                if (motorNotes.startTime(motorNotes.size() - 1) < startTime) {
+                    motor.shortenLastNote(startTime);
+                    shortenedNotes++;
+                } else {
+                    droppedNotes.add(motor.removeLastNote());
                 }
+                motorIndex = latest;
             }
+
+            motors.get(motorIndex).addNote(sortedNotes, n);
+            endTimes[motorIndex] = endTime;
+        }
+
+        return new Assignment(motors, minimumMotors, droppedNotes, shortenedNotes);
+    }
+
+    /**
+     * Finds the number of motors needed to play every note, which is the largest number of notes
+     * playing at the same time. Start and end times are swept through in order, so this takes
+     * O(n log n) time.
+     *
+     * @param notes The notes to check, in any order
+     * @return The minimum number of motors that can play all the notes
+     */
+    public static int minimumMotorCount(List<Note> notes) {
+        return minimumMotorCount(tableOf(notes));
+    }
+
+    /**
+     * Finds the number of motors needed to play every note like minimumMotorCount(List)
+     * @param notes The notes to check, in any order
+     * @return The minimum number of motors that can play all the notes
+     */
+    public static int minimumMotorCount(NoteTable notes) {
+        int[] startTimes = new int[notes.size()];
+        int[] endTimes = new int[notes.size()];
+        int count = 0;
+        for (int i = 0; i < notes.size(); i++) {
+            // Notes with no length never overlap anything, but they still need a motor
+            if (notes.duration(i) <= 0) continue;
+            startTimes[count] = notes.startTime(i);
+            endTimes[count] = notes.endTime(i);
+            count++;
+        }
+        Arrays.sort(startTimes, 0, count);
+        Arrays.sort(endTimes, 0, count);
+
+        // A note ending at the same time another starts doesn't overlap it, so ends are counted first
+        int playing = 0;
+        int maxPlaying = notes.isEmpty() ? 0 : 1;
+        int endIndex = 0;
+        for (int i = 0; i < count; i++) {
+            while (endTimes[endIndex] <= startTimes[i]) {
+                endIndex++;
+                playing--;
+            }
+            playing++;
+            maxPlaying = Math.max(maxPlaying, playing);
+        }
+
+        return maxPlaying;
+    }
+
+    private static boolean isChronological(NoteTable notes, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (notes.startTime(i) < notes.startTime(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The table behind a list of notes, or a copy of the notes in a new table
+     */
+    private static NoteTable tableOf(List<Note> notes) {
+        if (notes instanceof NoteTable.View view) return view.table();
+        return NoteTable.of(notes);
+    }
+
+    /**
+     * Combines motors that never play notes at the same time
+     * @param motors The motors to combine, sorted in the order they should keep. This list is modified.
+     * @param metrics The metrics to record the JOIN_TRACKS stage in
+     */
+    private static void joinTracks(List<Motor> motors, ConversionMetrics metrics) {
+        try (var stage = metrics.start(ConversionMetrics.Stage.JOIN_TRACKS)) {
+            MotorMerger merger = new MotorMerger();
+            merger.merge(motors);
+            stage.motors(motors.size()).mergeIterations(merger.getConflictChecks())
+                    .mergeRounds(merger.getMergeRounds());
         }
     }
 }
@@ -0,0 +1,177 @@
+package sms;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NoteAssignerTests {
+
+    @Test
+    public void testCondensingAssignChords() {
+        // A three note chord, then two notes that start as the chord ends
+        List<Note> notes = List.of(
+                new Note(0, 262.0, 50, 0),
+                new Note(0, 330.0, 50, 0),
+                new Note(0, 392.0, 100, 0),
+                new Note(50, 440.0, 50, 0),
+                new Note(50, 494.0, 50, 0));
+
+        List<Motor> motors = NoteAssigner.condensingAssign(notes);
+        assertEquals(3, motors.size());
+        assertEquals(List.of(notes.get(0), notes.get(3)), motors.get(0).getNotes());
+        assertEquals(List.of(notes.get(1), notes.get(4)), motors.get(1).getNotes());
+        assertEquals(List.of(notes.get(2)), motors.get(2).getNotes());
+    }
+
+    @Test
+    public void testCondensingAssignMatchesLinearAssign() {
+        Random random = new Random(5);
+
+        for (int trial = 0; trial < 200; trial++) {
+            List<Note> notes = randomChronologicalNotes(random, 1 + random.nextInt(500), 1 + random.nextInt(24));
+
+            List<Motor> expected = NoteAssigner.linearCondensingAssign(notes);
+            List<Motor> actual = NoteAssigner.condensingAssign(notes);
+
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(i, actual.get(i).getIndex());
+                assertEquals(expected.get(i).getNotes(), actual.get(i).getNotes());
+            }
+        }
+    }
+
+    @Test
+    public void testCondensingAssignLargeScore() {
+        // A full orchestra's worth of notes is assigned without losing any. StressBenchmark measures how long it takes.
+        List<Note> notes = randomChronologicalNotes(new Random(9), 300000, 32);
+        List<Motor> motors = NoteAssigner.condensingAssign(notes);
+
+        assertEquals(notes.size(), motors.stream().mapToInt(m -> m.getNotes().size()).sum());
+    }
+
+    @Test
+    public void testMinimumMotorCount() {
+        // Notes that end when another starts can share a motor
+        List<Note> notes = List.of(
+                new Note(0, 262.0, 100, 0),
+                new Note(50, 330.0, 100, 1),
+                new Note(100, 392.0, 50, 2),
+                new Note(120, 440.0, 10, 3),
+                new Note(150, 494.0, 50, 4));
+
+        assertEquals(3, NoteAssigner.minimumMotorCount(notes));
+        assertEquals(0, NoteAssigner.minimumMotorCount(List.of()));
+    }
+
+    @Test
+    public void testOptimalAssignUsesMinimumMotors() {
+        Random random = new Random(13);
+
+        for (int trial = 0; trial < 100; trial++) {
+            List<Note> notes = randomChronologicalNotes(random, 1 + random.nextInt(300), 1 + random.nextInt(10));
+            // Mix the voices together so that preserving voices would need extra motors
+            List<Note> shuffled = new ArrayList<>(notes);
+            Collections.shuffle(shuffled, random);
+
+            var assignment = NoteAssigner.optimalAssign(shuffled, 0);
+            assertEquals(assignment.minimumMotors(), assignment.motors().size());
+            assertTrue(assignment.droppedNotes().isEmpty());
+            assertEquals(0, assignment.shortenedNotes());
+            assertNoConflictsWithinMotors(assignment.motors());
+        }
+    }
+
+    @Test
+    public void testOptimalAssignWithMotorBudget() {
+        // A long bass note under a melody, with three notes at once at time 100
+        List<Note> notes = List.of(
+                new Note(0, 110.0, 400, 0),
+                new Note(0, 440.0, 50, 1),
+                new Note(100, 494.0, 50, 1),
+                new Note(100, 523.0, 50, 2),
+                new Note(200, 587.0, 50, 1));
+
+        var assignment = NoteAssigner.optimalAssign(notes, 2);
+        assertEquals(3, assignment.minimumMotors());
+        assertEquals(2, assignment.motors().size());
+        assertEquals(0, assignment.droppedNotes().size());
+        assertEquals(1, assignment.shortenedNotes());
+        assertNoConflictsWithinMotors(assignment.motors());
+
+        // The bass note is cut short when the chord starts
+        Note bass = assignment.motors().get(0).getNotes().get(0);
+        assertEquals(110.0, bass.pitch(), 0.0);
+        assertEquals(100, bass.duration());
+
+        // With one motor, the bass note and one note of the chord have to be left out
+        var singleMotor = NoteAssigner.optimalAssign(notes, 1);
+        assertEquals(1, singleMotor.motors().size());
+        assertEquals(2, singleMotor.droppedNotes().size());
+        assertEquals(110.0, singleMotor.droppedNotes().get(0).pitch(), 0.0);
+        assertEquals(3, singleMotor.motors().get(0).getNotes().size());
+        assertNoConflictsWithinMotors(singleMotor.motors());
+    }
+
+    @Test
+    public void testParallelAssignMatchesSequential() throws Exception {
+        // 16 tracks of chords, so several voices need more than one motor before they are combined
+        File file = Files.createTempFile("voices", ".mid").toFile();
+        file.deleteOnExit();
+        new ScoreGenerator.Builder().seed(8).tracks(16).notesPerTrack(3000).chordDensity(0.4)
+                .tempoChangesPerMinute(2).build().write(file);
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        NoteTable notes = parser.parseMidiTable(file, ConversionMetrics.DISABLED).first();
+        notes.sortByVoice();
+
+        ConversionMetrics sequentialMetrics = new ConversionMetrics();
+        ConversionMetrics parallelMetrics = new ConversionMetrics();
+        List<Motor> expected = NoteAssigner.assign(notes, sequentialMetrics, false);
+        List<Motor> actual = NoteAssigner.assign(notes, parallelMetrics, true);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+            assertEquals(expected.get(i).getNotes(), actual.get(i).getNotes());
+            assertEquals(expected.get(i).getUsageTimes(), actual.get(i).getUsageTimes());
+        }
+        assertEquals(sequentialMetrics.total(ConversionMetrics.Stage.ASSIGN).mergeIterations(),
+                parallelMetrics.total(ConversionMetrics.Stage.ASSIGN).mergeIterations());
+    }
+
+    private static void assertNoConflictsWithinMotors(List<Motor> motors) {
+        for (Motor motor : motors) {
+            var times = motor.getUsageTimes();
+            for (int i = 1; i < times.size(); i++) {
+                assertTrue(times.get(i - 1).endTime() <= times.get(i).startTime());
+            }
+        }
+    }
+
+    /**
+     * Creates notes in chronological order with up to maxVoices notes playing at once
+     */
+    private static List<Note> randomChronologicalNotes(Random random, int numNotes, int maxVoices) {
+        List<Note> notes = new ArrayList<>(numNotes);
+        int time = 0;
+        while (notes.size() < numNotes) {
+            int chordSize = Math.min(1 + random.nextInt(maxVoices), numNotes - notes.size());
+            for (int i = 0; i < chordSize; i++) {
+                int duration = random.nextInt(20) == 0 ? 1 : 5 + random.nextInt(200);
+                notes.add(new Note(time, 100.0 + random.nextInt(900), duration, 0));
+            }
+            time += random.nextInt(60);
+        }
+        notes.sort(Note.chronologicalOrder);
+        return notes;
+    }
+}
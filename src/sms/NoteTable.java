@@ -0,0 +1,412 @@
+package sms;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * A list of notes stored as columns of primitives instead of Note objects, so that large songs take a few bytes
+ * per note and can be parsed, sorted and assigned to motors without creating an object for every note. Like in
+ * ScoreFile, each pitch is stored as the MIDI note number it is the frequency of. A pitch that isn't a MIDI
+ * note's frequency is stored in full in a separate column, which is only created once the table holds one.
+ * <p>
+ * Code that works with Note objects can use asList, which gives a view of the table as a list of notes.
+ */
+public final class NoteTable {
+
+    /**
+     * Receives notes one at a time, without needing a Note object for each
+     */
+    public interface Sink {
+        void add(int startTime, double pitch, int duration, int voiceIndex);
+
+        /**
+         * @return A sink that gives each note to a consumer as a Note object
+         */
+        static Sink of(Consumer<Note> notes) {
+            return (startTime, pitch, duration, voiceIndex) -> notes.accept(new Note(startTime, pitch, duration, voiceIndex));
+        }
+    }
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Pitches that aren't a MIDI note's frequency are marked with this note number and stored in full
+    private static final int EXTRA_PITCH = 0xFF;
+    private static final double[] MIDI_NOTE_FREQUENCIES = new double[128];
+
+    static {
+        for (int i = 0; i < MIDI_NOTE_FREQUENCIES.length; i++) {
+            MIDI_NOTE_FREQUENCIES[i] = Parser.midiNoteToFrequency(i);
+        }
+    }
+
+    private int[] startTimes;
+    private int[] durations;
+    private byte[] noteNumbers;
+    private double[] extraPitches = null;
+    private short[] voiceIndexes;
+    private int size = 0;
+
+    public NoteTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public NoteTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        startTimes = new int[capacity];
+        durations = new int[capacity];
+        noteNumbers = new byte[capacity];
+        voiceIndexes = new short[capacity];
+    }
+
+    /**
+     * Copies a list of notes into a new table
+     */
+    public static NoteTable of(List<Note> notes) {
+        NoteTable table = new NoteTable(notes.size());
+        for (Note note : notes) {
+            table.add(note);
+        }
+        return table;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int startTime(int index) {
+        return startTimes[index];
+    }
+
+    public int duration(int index) {
+        return durations[index];
+    }
+
+    public int endTime(int index) {
+        return startTimes[index] + durations[index];
+    }
+
+    public double pitch(int index) {
+        int noteNumber = noteNumbers[index] & 0xFF;
+        return noteNumber == EXTRA_PITCH ? extraPitches[index] : MIDI_NOTE_FREQUENCIES[noteNumber];
+    }
+
+    public int voiceIndex(int index) {
+        return voiceIndexes[index];
+    }
+
+    /**
+     * @return A new Note holding the note at an index
+     */
+    public Note get(int index) {
+        return new Note(startTimes[index], pitch(index), durations[index], voiceIndexes[index]);
+    }
+
+    /**
+     * Adds a note to the end of the table
+     * @param voiceIndex The voice of the note, which must fit in a short
+     */
+    public void add(int startTime, double pitch, int duration, int voiceIndex) {
+        add(startTime, duration, toShort(voiceIndex));
+        setPitch(size - 1, pitch);
+    }
+
+    public void add(Note note) {
+        add(note.startTime(), note.pitch(), note.duration(), note.voiceIndex());
+    }
+
+    /**
+     * Copies a note from another table to the end of this one
+     */
+    public void add(NoteTable other, int index) {
+        add(other.startTimes[index], other.durations[index], other.voiceIndexes[index]);
+        noteNumbers[size - 1] = other.noteNumbers[index];
+        if ((other.noteNumbers[index] & 0xFF) == EXTRA_PITCH) {
+            setPitch(size - 1, other.extraPitches[index]);
+        }
+    }
+
+    /**
+     * Adds a note to the end of the table, leaving its pitch to be set afterwards
+     */
+    private void add(int startTime, int duration, short voiceIndex) {
+        if (size == startTimes.length) {
+            grow(size * 2);
+        }
+        startTimes[size] = startTime;
+        durations[size] = duration;
+        voiceIndexes[size] = voiceIndex;
+        size++;
+    }
+
+    private void setPitch(int index, double pitch) {
+        int noteNumber = Parser.frequencyToMidiNote(pitch);
+        if (noteNumber >= 0 && noteNumber < MIDI_NOTE_FREQUENCIES.length
+                && Double.compare(MIDI_NOTE_FREQUENCIES[noteNumber], pitch) == 0) {
+            noteNumbers[index] = (byte) noteNumber;
+        } else {
+            if (extraPitches == null) extraPitches = new double[noteNumbers.length];
+            noteNumbers[index] = (byte) EXTRA_PITCH;
+            extraPitches[index] = pitch;
+        }
+    }
+
+    /**
+     * Replaces the note at an index
+     */
+    public void set(int index, Note note) {
+        checkIndex(index);
+        startTimes[index] = note.startTime();
+        durations[index] = note.duration();
+        voiceIndexes[index] = toShort(note.voiceIndex());
+        setPitch(index, note.pitch());
+    }
+
+    /**
+     * Changes how long the note at an index plays for
+     */
+    public void setDuration(int index, int duration) {
+        checkIndex(index);
+        durations[index] = duration;
+    }
+
+    /**
+     * Removes the note at an index, moving the notes after it down by one
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        int moved = size - index - 1;
+        System.arraycopy(startTimes, index + 1, startTimes, index, moved);
+        System.arraycopy(durations, index + 1, durations, index, moved);
+        System.arraycopy(noteNumbers, index + 1, noteNumbers, index, moved);
+        if (extraPitches != null) System.arraycopy(extraPitches, index + 1, extraPitches, index, moved);
+        System.arraycopy(voiceIndexes, index + 1, voiceIndexes, index, moved);
+        size--;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Compares two notes the same way as Note.chronologicalOrder
+     * @return A negative number, zero or a positive number if the first note comes before, with or after the second
+     */
+    public static int compareChronologically(NoteTable table1, int index1, NoteTable table2, int index2) {
+        // Subtracted rather than compared, to give the same order as Note.chronologicalOrder
+        int timeDifference = table1.startTimes[index1] - table2.startTimes[index2];
+        if (timeDifference < 0) return -1;
+        if (timeDifference > 0) return 1;
+        return comparePitches(table1, index1, table2, index2);
+    }
+
+    /**
+     * Compares two notes the same way as Note.voiceOrder
+     * @return A negative number, zero or a positive number if the first note comes before, with or after the second
+     */
+    public static int compareByVoice(NoteTable table1, int index1, NoteTable table2, int index2) {
+        int voiceDifference = Integer.compare(table1.voiceIndexes[index1], table2.voiceIndexes[index2]);
+        if (voiceDifference != 0) return voiceDifference;
+        return compareChronologically(table1, index1, table2, index2);
+    }
+
+    /**
+     * Sorts the notes like sorting a list of them with Note.chronologicalOrder. Notes that compare as equal keep
+     * their order.
+     */
+    public void sortChronologically() {
+        sort((i, j) -> compareChronologically(this, i, this, j));
+    }
+
+    /**
+     * Sorts the notes like sorting a list of them with Note.voiceOrder. Notes that compare as equal keep their
+     * order.
+     */
+    public void sortByVoice() {
+        sort((i, j) -> compareByVoice(this, i, this, j));
+    }
+
+    /**
+     * @return A list of notes backed by this table. Notes are created as they are read from the list, and
+     * changes to the list change the table.
+     */
+    public List<Note> asList() {
+        return new View(this);
+    }
+
+    private interface IndexComparator {
+        int compare(int index1, int index2);
+    }
+
+    /**
+     * Sorts the notes with a stable merge sort of their indexes, then moves each column into the sorted order
+     */
+    private void sort(IndexComparator comparator) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size - width; low += 2 * width) {
+                int middle = low + width;
+                int high = Math.min(low + 2 * width, size);
+                // Runs that are already in order don't need merging
+                if (comparator.compare(order[middle - 1], order[middle]) <= 0) continue;
+
+                System.arraycopy(order, low, buffer, low, high - low);
+                int left = low;
+                int right = middle;
+                for (int k = low; k < high; k++) {
+                    if (right == high || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+                        order[k] = buffer[left++];
+                    } else {
+                        order[k] = buffer[right++];
+                    }
+                }
+            }
+        }
+
+        int[] sortedStartTimes = new int[startTimes.length];
+        int[] sortedDurations = new int[durations.length];
+        byte[] sortedNoteNumbers = new byte[noteNumbers.length];
+        short[] sortedVoiceIndexes = new short[voiceIndexes.length];
+        for (int i = 0; i < size; i++) {
+            sortedStartTimes[i] = startTimes[order[i]];
+            sortedDurations[i] = durations[order[i]];
+            sortedNoteNumbers[i] = noteNumbers[order[i]];
+            sortedVoiceIndexes[i] = voiceIndexes[order[i]];
+        }
+        if (extraPitches != null) {
+            double[] sortedExtraPitches = new double[extraPitches.length];
+            for (int i = 0; i < size; i++) {
+                sortedExtraPitches[i] = extraPitches[order[i]];
+            }
+            extraPitches = sortedExtraPitches;
+        }
+        startTimes = sortedStartTimes;
+        durations = sortedDurations;
+        noteNumbers = sortedNoteNumbers;
+        voiceIndexes = sortedVoiceIndexes;
+    }
+
+    private void grow(int capacity) {
+        startTimes = Arrays.copyOf(startTimes, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        noteNumbers = Arrays.copyOf(noteNumbers, capacity);
+        if (extraPitches != null) extraPitches = Arrays.copyOf(extraPitches, capacity);
+        voiceIndexes = Arrays.copyOf(voiceIndexes, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+    }
+
+    private static short toShort(int voiceIndex) {
+        if (voiceIndex < Short.MIN_VALUE || voiceIndex > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Voice index " + voiceIndex + " is too large for a note table");
+        }
+        return (short) voiceIndex;
+    }
+
+    private static int comparePitches(NoteTable table1, int index1, NoteTable table2, int index2) {
+        int noteNumber = table1.noteNumbers[index1] & 0xFF;
+        if (noteNumber != EXTRA_PITCH && noteNumber == (table2.noteNumbers[index2] & 0xFF)) return 0;
+        double pitchDifference = table1.pitch(index1) - table2.pitch(index2);
+        if (pitchDifference < 0) return -1;
+        if (pitchDifference > 0) return 1;
+        return 0;
+    }
+
+    /**
+     * A list of Note objects backed by a note table
+     */
+    static final class View extends AbstractList<Note> implements RandomAccess {
+        private final NoteTable table;
+
+        private View(NoteTable table) {
+            this.table = table;
+        }
+
+        /**
+         * @return The table this list is backed by
+         */
+        NoteTable table() {
+            return table;
+        }
+
+        @Override
+        public Note get(int index) {
+            table.checkIndex(index);
+            return table.get(index);
+        }
+
+        @Override
+        public int size() {
+            return table.size;
+        }
+
+        @Override
+        public Note set(int index, Note note) {
+            Note old = get(index);
+            table.set(index, note);
+            return old;
+        }
+
+        @Override
+        public void add(int index, Note note) {
+            if (index < 0 || index > table.size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + table.size);
+            }
+            table.add(note);
+            if (index < table.size - 1) {
+                // Move the new note from the end of the table into place
+                Note[] moved = new Note[table.size - index - 1];
+                for (int i = 0; i < moved.length; i++) {
+                    moved[i] = table.get(index + i);
+                }
+                table.set(index, note);
+                for (int i = 0; i < moved.length; i++) {
+                    table.set(index + i + 1, moved[i]);
+                }
+            }
+            modCount++;
+        }
+
+        @Override
+        public Note remove(int index) {
+            Note old = get(index);
+            table.remove(index);
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            table.clear();
+            modCount++;
+        }
+
+        @Override
+        public void sort(Comparator<? super Note> comparator) {
+            // The note comparators are sorted on the table's columns, without creating any notes
+            if (comparator == Note.chronologicalOrder) {
+                table.sortChronologically();
+            } else if (comparator == Note.voiceOrder) {
+                table.sortByVoice();
+            } else {
+                super.sort(comparator);
+            }
+            modCount++;
+        }
+    }
+}
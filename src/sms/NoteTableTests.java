@@ -0,0 +1,153 @@
+package sms;
+
+import org.junit.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class NoteTableTests {
+
+    @Test
+    public void testSortsLikeNoteComparators() {
+        Random random = new Random(11);
+
+        for (int trial = 0; trial < 100; trial++) {
+            // Few distinct times, pitches and voices, so that many notes compare as equal and stability matters
+            ArrayList<Note> notes = new ArrayList<>();
+            int numNotes = random.nextInt(300);
+            for (int i = 0; i < numNotes; i++) {
+                double pitch = random.nextBoolean() ? Parser.midiNoteToFrequency(random.nextInt(4) + 60)
+                        : 440.5 + random.nextInt(3);
+                notes.add(new Note(random.nextInt(20) - 5, pitch, random.nextInt(10), random.nextInt(4)));
+            }
+
+            NoteTable table = NoteTable.of(notes);
+            ArrayList<Note> expected = new ArrayList<>(notes);
+            expected.sort(Note.chronologicalOrder);
+            table.sortChronologically();
+            assertEquals(expected, table.asList());
+
+            table = NoteTable.of(notes);
+            expected = new ArrayList<>(notes);
+            expected.sort(Note.voiceOrder);
+            table.sortByVoice();
+            assertEquals(expected, table.asList());
+        }
+    }
+
+    @Test
+    public void testManyDistinctPitches() {
+        // Pitches that aren't MIDI notes are kept by each table, so there is no limit on how many there are
+        NoteTable table = new NoteTable();
+        for (int i = 0; i < 40000; i++) {
+            table.add(i, 100.0 + i / 1000.0, 5, 0);
+        }
+        table.add(40000, Parser.midiNoteToFrequency(69), 5, 1);
+
+        NoteTable copy = new NoteTable();
+        for (int i = table.size() - 1; i >= 0; i--) {
+            copy.add(table, i);
+        }
+        copy.sortChronologically();
+        for (int i = 0; i < 40000; i++) {
+            assertEquals(100.0 + i / 1000.0, copy.pitch(i), 0.0);
+        }
+        assertEquals(Parser.midiNoteToFrequency(69), copy.pitch(40000), 0.0);
+        assertEquals(table.asList(), copy.asList());
+    }
+
+    @Test
+    public void testListView() {
+        NoteTable table = new NoteTable(1);
+        List<Note> view = table.asList();
+        ArrayList<Note> expected = new ArrayList<>();
+        Random random = new Random(12);
+
+        for (int i = 0; i < 200; i++) {
+            Note note = new Note(random.nextInt(1000), 200.0 + random.nextInt(50), random.nextInt(100), random.nextInt(8));
+            int index = random.nextInt(expected.size() + 1);
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    view.add(index, note);
+                    expected.add(index, note);
+                }
+                case 1 -> {
+                    if (!expected.isEmpty()) {
+                        index = random.nextInt(expected.size());
+                        assertEquals(expected.remove(index), view.remove(index));
+                    }
+                }
+                case 2 -> {
+                    if (!expected.isEmpty()) {
+                        index = random.nextInt(expected.size());
+                        assertEquals(expected.set(index, note), view.set(index, note));
+                    }
+                }
+                default -> {
+                    view.add(note);
+                    expected.add(note);
+                }
+            }
+            assertEquals(expected, view);
+            assertEquals(expected.size(), table.size());
+        }
+
+        view.sort(Note.chronologicalOrder);
+        expected.sort(Note.chronologicalOrder);
+        assertEquals(expected, view);
+    }
+
+    @Test
+    public void testParseMidiTableMatchesParseMidi() throws InvalidMidiDataException, IOException {
+        File[] testFiles = new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid"));
+        assert testFiles != null;
+
+        Parser parser = new Parser();
+        for (Parser.Engine engine : List.of(Parser.Engine.MIDI_EVENTS, Parser.Engine.STREAMING)) {
+            parser.setEngine(engine);
+            for (File file : testFiles) {
+                var expected = parser.parseMidi(file);
+                var actual = parser.parseMidiTable(file, ConversionMetrics.DISABLED);
+                assertEquals(file.getName(), expected.first(), actual.first().asList());
+                assertEquals(file.getName(), expected.second(), actual.second());
+            }
+        }
+    }
+
+    @Test
+    public void testAssignTableMatchesList() throws InvalidMidiDataException, IOException {
+        File file = Files.createTempFile("table", ".mid").toFile();
+        file.deleteOnExit();
+        new ScoreGenerator.Builder().seed(4).tracks(6).notesPerTrack(2000).chordDensity(0.3)
+                .tempoChangesPerMinute(3).build().write(file);
+
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        ArrayList<Note> notes = parser.parseMidi(file).first();
+        NoteTable table = parser.parseMidiTable(file, ConversionMetrics.DISABLED).first();
+
+        notes.sort(Note.voiceOrder);
+        table.sortByVoice();
+        assertMotorsEqual(NoteAssigner.assign(notes), NoteAssigner.assign(table));
+
+        notes.sort(Note.chronologicalOrder);
+        table.sortChronologically();
+        assertMotorsEqual(NoteAssigner.condensingAssign(notes), NoteAssigner.condensingAssign(table));
+        assertEquals(NoteAssigner.minimumMotorCount(notes), NoteAssigner.minimumMotorCount(table));
+    }
+
+    private static void assertMotorsEqual(List<Motor> expected, List<Motor> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+            assertEquals(expected.get(i).getNotes(), actual.get(i).getNotes());
+        }
+    }
+}
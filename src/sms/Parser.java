@@ -1,16 +1,14 @@
 package sms;
 
-import org.jfugue.midi.MidiFileManager;
-import org.jfugue.pattern.Pattern;
-import org.jfugue.pattern.Token;
-
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 
 /**
@@ -21,278 +19,347 @@ import java.util.stream.Collectors;
  */
 public class Parser {
 
-    private static final int JFUGUE_BEATS_PER_MEASURE = 4;
-    private static final int MINUTES_TO_HUNDREDTHS_OF_SECOND = 6000;
+    static final int JFUGUE_BEATS_PER_MEASURE = 4;
 
-    private ArrayList<PiecewiseFuncEntry> tempoFunction;
+    // MIDI constants used by the direct event parser
+    private static final int PERCUSSION_CHANNEL = 9;
+    private static final int DEFAULT_TEMPO = 120;
+    // The frequency of MIDI note number 0, in Hertz
+    private static final double LOWEST_NOTE_FREQUENCY = 8.1757989156437073336;
 
-    // A counter to store the start time of the current note being processed, in measures since the beginning of the
-    // piece including a fraction of the current measure
-    private double currentMeasure = 0.0;
-    private double currentNoteStartTime = 0.0;
+    /**
+     * The available implementations for reading a MIDI file. JFUGUE converts the file into a JFugue pattern and
+     * parses its string tokens, while MIDI_EVENTS reads the note and tempo events directly from the MIDI sequence.
+     * STREAMING reads the same events as MIDI_EVENTS straight from the file one track at a time, without reading
+     * the whole sequence into memory first. Every engine produces the same notes and percussion commands. JFugue
+     * is only loaded when the JFUGUE engine is used.
+     */
+    public enum Engine { JFUGUE, MIDI_EVENTS, STREAMING }
 
     private boolean preserveVoices = true;
+    private Engine engine = Engine.JFUGUE;
+    private TickResolution tickResolution = TickResolution.HUNDREDTH_SECOND;
 
 
     /**
-     * Parses the midi file whose data is stored in the tokens list and returns the data
-     * as a list of notes that can be played on stepper motors
-     * @return An arraylist of notes with start times and durations in hundredths of a second
+     * The state of one file being parsed. Every call to parseMidi gets its own state, so a parser can read
+     * several files at the same time from different threads as long as its settings aren't changed meanwhile.
      */
-    public Pair<ArrayList<Note>, ArrayList<Percussion>> parseMidi(File file) throws InvalidMidiDataException, IOException {
-        // Read the file and set up the structures that will accumulate data
-        Pattern midiPattern = MidiFileManager.loadPatternFromMidi(file);
-        ArrayList<Note> notes = new ArrayList<>();
-        ArrayList<Percussion> percussion = new ArrayList<>();
-
-        // TODO: Remove this after debugging
-        // Filtering the list makes it easier to read in a debugger but has no effect on parsing
-        List<Token> tokens = midiPattern.getTokens().stream()
-                .filter(x->x.getType() != Token.TokenType.FUNCTION)
-                .collect(Collectors.toList());
-        int voiceIndex = 0;
-
-        setupTempoFunction(tokens);
-
-        // Reload the default values for these variables
-        currentMeasure = 0.0;
-        currentNoteStartTime = 0.0;
-
-        for (Token t : tokens) {
-            switch (t.getType()) {
-                case NOTE -> noteDispatch(t, voiceIndex, notes, percussion);
-                case TRACK_TIME_BOOKMARK -> {
-                    currentMeasure = parseTrackTimeBookmark(t);
-                    currentNoteStartTime = measureToTime(currentMeasure);
-                }
-                case VOICE -> {
-                    currentMeasure = 0.0;
-                    currentNoteStartTime = 0.0;
-                    voiceIndex = parseVoice(t);
-                }
-            }
+    static final class ParseState {
+        final TickResolution tickResolution;
+        final ConversionMetrics metrics;
+        TempoMap tempoMap;
+
+        // A counter to store the start time of the current note being processed, in measures since the beginning
+        // of the piece including a fraction of the current measure
+        double currentMeasure = 0.0;
+        double currentNoteStartTime = 0.0;
+
+        ParseState(TickResolution tickResolution, ConversionMetrics metrics) {
+            this.tickResolution = tickResolution;
+            this.metrics = metrics;
         }
 
-        return new Pair<>(notes, percussion);
-    }
+        void advanceStartTime(double duration) {
+            int tempo = getTempoAtMeasure(currentMeasure);
+            currentNoteStartTime += duration * JFUGUE_BEATS_PER_MEASURE * (1.0 / tempo) * tickResolution.getTicksPerMinute();
+            currentMeasure += duration;
+        }
 
-    private void setupTempoFunction(List<Token> tokens) {
-        tempoFunction = new ArrayList<>();
-        double currentTrackTime = 0.0;
+        private int getTempoAtMeasure(double measure) {
+            return tempoMap.getTempoAt(measure);
+        }
 
-        for (Token t : tokens) {
-            switch (t.getType()) {
-                case NOTE -> { // Add the duration to the counter - this is the xPos in the piecewise function
-                    currentTrackTime += calculateDuration(t.toString());
-                }
-                case TRACK_TIME_BOOKMARK -> currentTrackTime = parseTrackTimeBookmark(t);
-                case TEMPO -> { // Add a new node to the tempo piecewise function
-                    int tempo = parseTempo(t);
-                    tempoFunction.add(new PiecewiseFuncEntry(currentTrackTime, tempo));
-                }
-                case VOICE -> currentTrackTime = 0.0;
+        /**
+         * Converts a measure number to the corresponding time since the start of the song, in
+         * ticks of the parser's tick resolution
+         * @param measure A measure number to convert, with a beat within the measure being
+         * represented as a fraction of a measure.
+         * @return The time corresponding to the measure number passed in, in ticks
+         */
+        double measureToTime(double measure) {
+            return tempoMap.measureToTime(measure);
+        }
+
+        void addPercussion(Percussion.Type t, Consumer<Percussion> percussion) {
+            int startTimeInTicks = (int) Math.round(currentNoteStartTime);
+            percussion.accept(new Percussion(startTimeInTicks, t));
+        }
+
+        /**
+         * Adds a note starting at the current note start time to the notes list
+         * @param duration The duration of the note in number of measures
+         * @param frequency The frequency of the note, in Hertz
+         * @param voiceIndex The index of the voice the note comes from
+         * @param notes The sink the note will be given to
+         */
+        void addNote(double duration, double frequency, int voiceIndex, NoteTable.Sink notes) {
+            int tempo = getTempoAtMeasure(currentMeasure);
+
+            // Convert the note start time and duration from number of measures to ticks
+            // We do this because the microcontroller checks for new notes once every tick
+            // The end of the note is cut short by the release time, so that repeated notes can be heard
+            int startTimeInTicks = (int) Math.round(currentNoteStartTime);
+            int durationInTicks = (int) Math.floor(duration * JFUGUE_BEATS_PER_MEASURE * (1.0 / tempo) * tickResolution.getTicksPerMinute())
+                    - tickResolution.getReleaseTicks();
+
+            // Notes shorter than the release time would have no duration left, so they play for a single tick instead
+            if (durationInTicks <= 0) {
+                durationInTicks = 1;
             }
+
+            notes.add(startTimeInTicks, frequency, durationInTicks, voiceIndex);
         }
     }
 
-
     /**
-     * Takes a note/rest token and parses its data. If the token is a note, then the note is added
-     * to the notes list. If the token is a rest, then the method only adds the rest's duration
-     * to the note start time counter.
-     * @param token The note/rest token to parse
-     * @param notes A list of notes that the current token will be added to if it is a note
+     * Parses the midi file and returns its data as a list of notes that can be played on stepper motors
+     * @return An arraylist of notes with start times and durations in ticks of the parser's tick resolution
      */
-    private void noteDispatch(Token token, int voiceIndex, ArrayList<Note> notes, ArrayList<Percussion> percussion) {
-        String tokenString = token.toString();
+    public Pair<ArrayList<Note>, ArrayList<Percussion>> parseMidi(File file) throws InvalidMidiDataException, IOException {
+        return parseMidi(file, ConversionMetrics.DISABLED);
+    }
 
-        // Percussion is always enclosed in square brackets and is also classified as a note by JFugue
-        if (tokenString.charAt(0) == '[') {
-            parsePercussion(tokenString, percussion);
-        } else {
-            parseNote(tokenString, notes, voiceIndex);
+    /**
+     * Parses the midi file like parseMidi(File), recording the PARSE and TEMPO_MAP stages
+     * @param metrics The metrics to record the stages in
+     */
+    public Pair<ArrayList<Note>, ArrayList<Percussion>> parseMidi(File file, ConversionMetrics metrics) throws InvalidMidiDataException, IOException {
+        ParseState state = new ParseState(tickResolution, metrics);
+        try (var stage = metrics.start(ConversionMetrics.Stage.PARSE)) {
+            var midiData = switch (engine) {
+                case JFUGUE -> JFugueEngine.parseMidi(file, state);
+                case MIDI_EVENTS, STREAMING -> {
+                    ArrayList<Note> notes = new ArrayList<>();
+                    ArrayList<Percussion> percussion = new ArrayList<>();
+                    readMidiEvents(file, state, NoteTable.Sink.of(notes::add), percussion::add);
+                    yield new Pair<>(notes, percussion);
+                }
+            };
+            stage.notes(midiData.first().size());
+            return midiData;
         }
     }
 
-    private void parsePercussion(String tokenString, ArrayList<Percussion> percussion) {
-        // Extract the percussion command's data, then add it to the list
-        Percussion.Type t;
-        String typeName = null;
-        try { // Get the identifier from inside the square brackets
-            typeName = tokenString.substring(1, tokenString.indexOf(']'));
-            t = Percussion.Type.valueOf(typeName);
-        } catch (IllegalArgumentException e) {
-            System.err.println("Invalid percussion identifier: " + typeName);
-            return;
+    /**
+     * Parses the midi file like parseMidi(File, ConversionMetrics), but stores the notes in a note table. The
+     * MIDI_EVENTS and STREAMING engines add each note straight to the table without creating a Note object.
+     * @param metrics The metrics to record the stages in
+     * @return A table of notes with start times and durations in ticks of the parser's tick resolution
+     */
+    public Pair<NoteTable, ArrayList<Percussion>> parseMidiTable(File file, ConversionMetrics metrics) throws InvalidMidiDataException, IOException {
+        ParseState state = new ParseState(tickResolution, metrics);
+        try (var stage = metrics.start(ConversionMetrics.Stage.PARSE)) {
+            NoteTable notes;
+            ArrayList<Percussion> percussion;
+            if (engine == Engine.JFUGUE) {
+                var midiData = JFugueEngine.parseMidi(file, state);
+                notes = NoteTable.of(midiData.first());
+                percussion = midiData.second();
+            } else {
+                notes = new NoteTable();
+                percussion = new ArrayList<>();
+                readMidiEvents(file, state, notes::add, percussion::add);
+            }
+            stage.notes(notes.size());
+            return new Pair<>(notes, percussion);
         }
-        int startTimeInHundredths = (int) Math.round(currentNoteStartTime);
-        Percussion p = new Percussion(startTimeInHundredths, t);
-        percussion.add(p);
-
-        // Add the percussion's "duration" to the start time counter, so we know when the next note will start
-        // Percussion duration cannot be heard, but is used behind the scenes for timing purposes
-        double duration = calculateDuration(tokenString);
-        int tempo = getTempoAtMeasure(currentMeasure);
-        currentNoteStartTime += duration * JFUGUE_BEATS_PER_MEASURE * (1.0 / tempo) * MINUTES_TO_HUNDREDTHS_OF_SECOND;
-        currentMeasure += duration;
     }
 
-    private void parseNote(String tokenString, ArrayList<Note> notes, int voiceIndex) {
-        // Extract the note's data
-        org.jfugue.theory.Note note = new org.jfugue.theory.Note(tokenString);
-        double duration = calculateDuration(tokenString);
-        double frequency = org.jfugue.theory.Note.getFrequencyForNote(tokenString);
-        int tempo = getTempoAtMeasure(currentMeasure);
-
-        // Convert the note start time and duration from number of measures to hundredths of a second
-        // We do this because the microcontroller checks for new notes 100 times per second
-        //int startTimeInHundredths = (int) Math.ceil(currentNoteStartTime * JFUGUE_BEATS_PER_MEASURE * (1.0 / tempo) * MINUTES_TO_HUNDREDTHS_OF_SECOND);
-        int startTimeInHundredths = (int) Math.round(currentNoteStartTime);
-        int durationInHundredths = (int) Math.floor(duration * JFUGUE_BEATS_PER_MEASURE * (1.0 / tempo) * MINUTES_TO_HUNDREDTHS_OF_SECOND) - 1;
-
-        // If the Note token isn't a rest (i.e. it's an actual note), add it to the notes list
-        if (!note.isRest()) {
-            // TODO: is there a better way to handle this? - maybe increase the note update rate from 1 hundredth of a second
-            if (durationInHundredths == 0) {
-                System.out.println("Fixing note with duration 0");
-                durationInHundredths = 1;
-            }
+    /**
+     * Reads the notes of the midi file with the engine that is set, other than JFugue
+     */
+    private void readMidiEvents(File file, ParseState state, NoteTable.Sink notes, Consumer<Percussion> percussion)
+            throws InvalidMidiDataException, IOException {
+        if (engine == Engine.STREAMING) {
+            streamMidiEvents(file, state, notes, percussion);
+        } else {
+            parseMidiEvents(file, state, notes, percussion);
+        }
+    }
 
-            Note newNote = new Note(startTimeInHundredths, frequency, durationInHundredths, voiceIndex);
-            notes.add(newNote);
+    /**
+     * Parses the midi file one track at a time, giving each note and percussion command to a consumer as soon
+     * as it is read instead of collecting them into lists. The file is read twice: first for its tempo changes,
+     * then for its notes. Only the tempo map and the keys being held down are kept in memory, so files of any
+     * size can be parsed. This always reads the MIDI events directly, whichever engine is set, and records the
+     * PARSE and TEMPO_MAP stages.
+     * @param noteConsumer Receives every note, in the order the notes are released within each track
+     * @param percussionConsumer Receives every percussion command, in the same order
+     * @param metrics The metrics to record the stages in
+     */
+    public void streamMidi(File file, Consumer<Note> noteConsumer, Consumer<Percussion> percussionConsumer,
+                           ConversionMetrics metrics) throws InvalidMidiDataException, IOException {
+        ParseState state = new ParseState(tickResolution, metrics);
+        try (var stage = metrics.start(ConversionMetrics.Stage.PARSE)) {
+            int[] numNotes = {0};
+            streamMidiEvents(file, state, NoteTable.Sink.of(note -> {
+                numNotes[0]++;
+                noteConsumer.accept(note);
+            }), percussionConsumer);
+            stage.notes(numNotes[0]);
         }
+    }
 
-        // Add the current note's duration to the start time counter, so we know when the next note will start
-        currentNoteStartTime += duration * JFUGUE_BEATS_PER_MEASURE * (1.0 / tempo) * MINUTES_TO_HUNDREDTHS_OF_SECOND;
-        currentMeasure += duration;
+    private void streamMidiEvents(File file, ParseState state, NoteTable.Sink notes, Consumer<Percussion> percussion)
+            throws InvalidMidiDataException, IOException {
+        double ticksPerMeasure = (double) MidiEventReader.readResolution(file) * JFUGUE_BEATS_PER_MEASURE;
+        try (var stage = state.metrics.start(ConversionMetrics.Stage.TEMPO_MAP)) {
+            TempoMapListener tempoListener = new TempoMapListener(ticksPerMeasure);
+            MidiEventReader.read(file, tempoListener);
+            state.tempoMap = tempoListener.build(state.tickResolution);
+            stage.records(state.tempoMap.size());
+        }
+        MidiEventReader.read(file, new NoteListener(ticksPerMeasure, state, notes, percussion));
     }
 
     /**
-     * Calculates the duration in number of measures for a given JFugue token represented as a string
-     * JFugue provides a Note.getDuration() method, but it produces incorrect results for durations expressed in
-     * scientific notation, as well as percussion tokens.
-     * @param str
-     * @return The duration of the note token passed in the parameter in number of measures
-     * @throws NumberFormatException If the duration within the String parameter is not a valid double
+     * Parses the midi file by reading its note and tempo events directly, without converting the file into
+     * JFugue tokens first. Note times are converted from ticks to measures, then go through the same tempo
+     * calculations as the JFugue engine so that both engines produce identical results.
+     * @param notes Receives each note, with start times and durations in ticks of the parser's tick resolution
+     * @param percussion Receives each percussion command
      */
-    private double calculateDuration(String str) throws NumberFormatException {
-        //str = str.toLowerCase();
-
-        // If the string token doesn't contain a '/', then duration is expressed using letters like w, h, and q
-        if (!str.contains("/")) {
-            // Token string will look like F5wa100d0, F5w, Rw2, or [ACOUSTIC_SNARE]SA100D80
-            // If the token is for percussion, we will remove the percussion identifier by splitting on ']' and taking
-            // split[1], then prepending the dummy note name A4. JFugue will throw an exception otherwise.
-            String noteData = str;
-            if (str.charAt(0) == '[') {
-                String durationData = str.split("]")[1];
-                noteData = "A4" + durationData;
-            }
-
-            org.jfugue.theory.Note n = new org.jfugue.theory.Note(noteData);
-            return n.getDuration();
+    private void parseMidiEvents(File file, ParseState state, NoteTable.Sink notes, Consumer<Percussion> percussion)
+            throws InvalidMidiDataException, IOException {
+        Sequence sequence = MidiSystem.getSequence(file);
+        if (sequence.getDivisionType() != Sequence.PPQ) {
+            throw new InvalidMidiDataException("Only MIDI files with tempo-based timing are supported");
         }
 
-        // At this point, the token string must look like F5/0.24, F5/1.2e-2, F5/0.24a100d0, or F5/1.2e-2a100d0
-        // We will first split on '/' so that split1[1] contains duration + attack/decay information
-        // Then we will split on 'a' or 'A' so that split2[0] contains only the duration string
-        String[] split1 = str.split("/");
-        String[] split2 = split1[1].split("[aA]");
-        double duration = 0;
-        try {
-            duration = Double.parseDouble(split2[0]);
-        } catch (NumberFormatException e) {
-            System.err.println("Could not get length from token " + str);
+        // JFugue measures are whole notes, and the sequence resolution is the number of ticks per quarter note
+        double ticksPerMeasure = (double) sequence.getResolution() * JFUGUE_BEATS_PER_MEASURE;
+        try (var stage = state.metrics.start(ConversionMetrics.Stage.TEMPO_MAP)) {
+            TempoMapListener tempoListener = new TempoMapListener(ticksPerMeasure);
+            MidiEventReader.read(sequence, tempoListener);
+            state.tempoMap = tempoListener.build(state.tickResolution);
+            stage.records(state.tempoMap.size());
         }
-        return duration;
-    }
 
-    private double parseTrackTimeBookmark(Token token) throws NumberFormatException {
-        String timeBookmark = token.toString().substring(1);
-        return Double.parseDouble(timeBookmark);
+        MidiEventReader.read(sequence, new NoteListener(ticksPerMeasure, state, notes, percussion));
     }
 
-    private int parseTempo(Token token) throws NumberFormatException {
-        String newTempo = token.toString().substring(1);
-        return Integer.parseInt(newTempo);
-    }
+    /**
+     * Builds the tempo map from the tempo changes in every track
+     */
+    private static final class TempoMapListener implements MidiEventReader.Listener {
+        private final double ticksPerMeasure;
 
-    private int parseTimeSignature(Token token) throws NumberFormatException {
-        String beatsPerMeasure = token.toString().substring(5, 6);
-        return Integer.parseInt(beatsPerMeasure);
-    }
+        // Songs play at the default tempo until their first tempo change
+        private final TempoMap.Builder tempoFunction = new TempoMap.Builder().add(0.0, DEFAULT_TEMPO);
+        private long lastNoteOffTick = -1;
 
-    private int parseVoice(Token token) {
-        String voiceNum = token.toString().substring(1);
-        return Integer.parseInt(voiceNum);
-    }
+        TempoMapListener(double ticksPerMeasure) {
+            this.ticksPerMeasure = ticksPerMeasure;
+        }
+
+        @Override
+        public void startTrack() {
+            lastNoteOffTick = -1;
+        }
 
-    private int getTempoAtMeasure(double measure) {
-        int tempo = 120;
-
-        // Reverse iterate through the tempo list until we find an entry whose measure number
-        // is less than the measure number passed in
-        ListIterator<PiecewiseFuncEntry> iter = tempoFunction.listIterator(tempoFunction.size());
-        while (iter.hasPrevious()) {
-            PiecewiseFuncEntry entry = iter.previous();
-            if (entry.xVal <= measure) {
-                tempo = entry.yVal;
-                break;
+        @Override
+        public void channelMessage(long tick, int command, int channel, int data1, int data2) {
+            if (command == ShortMessage.NOTE_OFF || (command == ShortMessage.NOTE_ON && data2 == 0)) {
+                lastNoteOffTick = tick;
             }
         }
 
-        return tempo;
+        @Override
+        public void tempoChange(long tick, int microsecondsPerBeat) {
+            // JFugue truncates the tempo to a whole number of beats per minute
+            int tempo = 60000000 / microsecondsPerBeat;
+
+            // JFugue writes the rest between two notes after any tempo change that happens during that rest,
+            // so the tempo change takes effect at the end of the previous note in the track
+            long changeTick = lastNoteOffTick >= 0 ? lastNoteOffTick : tick;
+            tempoFunction.add(changeTick / ticksPerMeasure, tempo);
+        }
+
+        TempoMap build(TickResolution resolution) {
+            // Tempo changes can come from any track, so the builder puts them back into order
+            return tempoFunction.build(JFUGUE_BEATS_PER_MEASURE * resolution.getTicksPerMinute());
+        }
     }
 
     /**
-     * Converts a measure number to the corresponding time since the start of the song, in
-     * hundredths of a second
-     * @param measure A measure number to convert, with a beat within the measure being
-     * represented as a fraction of a measure.
-     * @return The time corresponding to the measure number passed in, in hundredths of
-     * a second
+     * Pairs up the presses and releases of each key in a track, turning them into notes and percussion commands
      */
-    private double measureToTime(double measure) {
-        double time = 0;
-        PiecewiseFuncEntry lastTempoEntry = tempoFunction.get(tempoFunction.size() - 1);
-
-        // Calculate the time spent with the tempo at the input measure
-        ListIterator<PiecewiseFuncEntry> iter = tempoFunction.listIterator(tempoFunction.size());
-        while (iter.hasPrevious()) {
-            lastTempoEntry = iter.previous();
-
-            if (lastTempoEntry.xVal <= measure) {
-                double duration = measure - lastTempoEntry.xVal;
-                time += duration * JFUGUE_BEATS_PER_MEASURE * (1.0 / lastTempoEntry.yVal) * MINUTES_TO_HUNDREDTHS_OF_SECOND;
-                break;
+    private static final class NoteListener implements MidiEventReader.Listener {
+        private final double ticksPerMeasure;
+        private final ParseState state;
+        private final NoteTable.Sink notes;
+        private final Consumer<Percussion> percussion;
+
+        // The tick at which each key on each channel was pressed, or -1 if the key isn't being held down
+        private final long[] noteOnTicks = new long[16 * 128];
+
+        NoteListener(double ticksPerMeasure, ParseState state, NoteTable.Sink notes, Consumer<Percussion> percussion) {
+            this.ticksPerMeasure = ticksPerMeasure;
+            this.state = state;
+            this.notes = notes;
+            this.percussion = percussion;
+        }
+
+        @Override
+        public void startTrack() {
+            Arrays.fill(noteOnTicks, -1);
+        }
+
+        @Override
+        public void channelMessage(long tick, int command, int channel, int key, int velocity) {
+            int slot = channel * 128 + key;
+            boolean isNoteOn = command == ShortMessage.NOTE_ON && velocity > 0;
+            boolean isNoteOff = command == ShortMessage.NOTE_OFF || (command == ShortMessage.NOTE_ON && velocity == 0);
+
+            if (isNoteOn) {
+                noteOnTicks[slot] = tick;
+            } else if (isNoteOff && noteOnTicks[slot] >= 0) {
+                // Like JFugue, a note is only added once it is released and its duration is known
+                state.currentMeasure = noteOnTicks[slot] / ticksPerMeasure;
+                state.currentNoteStartTime = state.measureToTime(state.currentMeasure);
+                double duration = (tick - noteOnTicks[slot]) / ticksPerMeasure;
+                noteOnTicks[slot] = -1;
+
+                if (channel == PERCUSSION_CHANNEL) {
+                    Percussion.Type t = Percussion.Type.fromMidiNote(key);
+                    if (t == null) {
+                        System.err.println("Invalid percussion note number: " + key);
+                    } else {
+                        state.addPercussion(t, percussion);
+                    }
+                } else {
+                    state.addNote(duration, midiNoteToFrequency(key), channel, notes);
+                }
             }
         }
 
-        // Calculate the time spent in the song before setting the current tempo
-        while (iter.hasPrevious()) {
-            PiecewiseFuncEntry currentTempoEntry = iter.previous();
-            double duration = lastTempoEntry.xVal - currentTempoEntry.xVal;
-            time += duration * JFUGUE_BEATS_PER_MEASURE * (1.0 / lastTempoEntry.yVal) * MINUTES_TO_HUNDREDTHS_OF_SECOND;
-            lastTempoEntry = currentTempoEntry;
+        @Override
+        public void tempoChange(long tick, int microsecondsPerBeat) {
+            // The tempo map is built before the notes are read
         }
+    }
 
-        return time;
+    /**
+     * Calculates the frequency of a MIDI note number the same way JFugue does, rounded to 4 decimal places
+     * @param noteNumber The MIDI note number, where 60 is middle C
+     * @return The frequency of the note, in Hertz
+     */
+    static double midiNoteToFrequency(int noteNumber) {
+        double frequency = LOWEST_NOTE_FREQUENCY * Math.pow(2.0, noteNumber / 12.0);
+        return Math.round(frequency * 10000.0) / 10000.0;
     }
 
-    private double letterToDuration(char letter) {
-        return switch (letter) {
-            case 'w' -> 1.0;
-            case 'h' -> 0.5;
-            case 'q' -> 0.25;
-            case 'i' -> 0.125;
-            case 's' -> 0.0625;
-            case 't' -> 0.03125;
-            case 'x' -> 0.015625;
-            case 'o' -> 0.0078125;
-            default -> 0;
-        };
+    /**
+     * Finds the MIDI note number whose frequency is closest to a frequency
+     * @param frequency The frequency, in Hertz
+     * @return The MIDI note number, which may be outside the range of MIDI notes for very low or high frequencies
+     */
+    static int frequencyToMidiNote(double frequency) {
+        return (int) Math.round(12.0 * Math.log(frequency / LOWEST_NOTE_FREQUENCY) / Math.log(2.0));
     }
 
+
     public void setPreserveVoices(boolean value) {
         preserveVoices = value;
     }
@@ -301,7 +368,24 @@ public class Parser {
         return preserveVoices;
     }
 
-    private record PiecewiseFuncEntry(double xVal, int yVal) {}
+    public void setEngine(Engine value) {
+        engine = value;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the length of one tick, which note start times and durations are measured in
+     */
+    public void setTickResolution(TickResolution value) {
+        tickResolution = value;
+    }
+
+    public TickResolution getTickResolution() {
+        return tickResolution;
+    }
 }
 
 
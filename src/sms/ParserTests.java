@@ -5,10 +5,18 @@ import org.junit.Test;
 import javax.sound.midi.InvalidMidiDataException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static sms.Percussion.Type;
 
 public class ParserTests {
@@ -290,4 +298,151 @@ public class ParserTests {
         assertEquals(50, snare.get(0).startTime());
         assertEquals(150, snare.get(1).startTime());
     }
+
+    @Test
+    public void testMidiEventEngine_TempoChange_1Part() throws InvalidMidiDataException, IOException {
+        Parser p = new Parser();
+        p.setEngine(Parser.Engine.MIDI_EVENTS);
+
+        // Same file and expected times as the JFugue tempo change test
+        ArrayList<Note> notes = p.parseMidi(new File("testfiles/tempochange_1part.mid")).first();
+        assertEquals(12, notes.size());
+
+        int[] expectedStartTimes = {0, 50, 100, 150, 203, 303, 403, 503, 600, 650, 700, 750};
+        int[] expectedDurations = {46, 46, 46, 46, 93, 93, 93, 93, 46, 46, 46, 46};
+        for (int i = 0; i < notes.size(); i++) {
+            assertEquals(expectedStartTimes[i], notes.get(i).startTime());
+            assertEquals(expectedDurations[i], notes.get(i).duration());
+        }
+    }
+
+    @Test
+    public void testMidiEventEngineMatchesJFugueEngine() throws InvalidMidiDataException, IOException {
+        File[] testFiles = new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid"));
+        assert testFiles != null;
+
+        for (File file : testFiles) {
+            Parser jfugueParser = new Parser();
+            Parser eventParser = new Parser();
+            eventParser.setEngine(Parser.Engine.MIDI_EVENTS);
+
+            var expected = jfugueParser.parseMidi(file);
+            var actual = eventParser.parseMidi(file);
+
+            // The engines may add notes that start at the same time in a different order
+            expected.first().sort(Note.voiceOrder);
+            actual.first().sort(Note.voiceOrder);
+            Comparator<Percussion> percussionOrder = Percussion.chronologicalOrder.thenComparing(Percussion::type);
+            expected.second().sort(percussionOrder);
+            actual.second().sort(percussionOrder);
+
+            assertEquals(file.getName(), expected.first(), actual.first());
+            assertEquals(file.getName(), expected.second(), actual.second());
+        }
+    }
+
+    @Test
+    public void testMidiEventEngine_MillisecondResolution() throws InvalidMidiDataException, IOException {
+        Parser p = new Parser();
+        p.setEngine(Parser.Engine.MIDI_EVENTS);
+        p.setTickResolution(TickResolution.MILLISECOND);
+
+        // The same notes as the hundredths test, with the times that were rounded away
+        ArrayList<Note> notes = p.parseMidi(new File("testfiles/tempochange_1part.mid")).first();
+        assertEquals(12, notes.size());
+
+        int[] expectedStartTimes = {0, 500, 1000, 1500, 2026, 3026, 4026, 5026, 6000, 6500, 7000, 7500};
+        int[] expectedDurations = {463, 463, 463, 463, 937, 937, 937, 937, 463, 463, 463, 463};
+        for (int i = 0; i < notes.size(); i++) {
+            assertEquals(expectedStartTimes[i], notes.get(i).startTime());
+            assertEquals(expectedDurations[i], notes.get(i).duration());
+        }
+        assertEquals("Note 587.3295 at 2.026s until 2.963s", notes.get(4).toString(TickResolution.MILLISECOND));
+    }
+
+    @Test
+    public void testSharedParserAcrossThreads() throws Exception {
+        Parser p = new Parser();
+        p.setEngine(Parser.Engine.MIDI_EVENTS);
+        File[] testFiles = new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid"));
+        assert testFiles != null;
+
+        // Parsing the same files from many threads at once gives the same results as parsing them one at a time
+        List<Pair<ArrayList<Note>, ArrayList<Percussion>>> expected = new ArrayList<>();
+        for (File file : testFiles) {
+            expected.add(p.parseMidi(file));
+        }
+
+        List<Callable<Pair<ArrayList<Note>, ArrayList<Percussion>>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 20 * testFiles.length; i++) {
+            File file = testFiles[i % testFiles.length];
+            tasks.add(() -> p.parseMidi(file));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Pair<ArrayList<Note>, ArrayList<Percussion>>>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                var result = results.get(i).get();
+                var expectedResult = expected.get(i % testFiles.length);
+                assertEquals(expectedResult.first(), result.first());
+                assertEquals(expectedResult.second(), result.second());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamingEngineMatchesMidiEventEngine() throws Exception {
+        List<File> files = new ArrayList<>(List.of(new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid"))));
+
+        // A generated song has chords, percussion and tempo changes spread over many tracks
+        File generated = Files.createTempFile("streaming", ".mid").toFile();
+        generated.deleteOnExit();
+        new ScoreGenerator.Builder().seed(7).tracks(6).notesPerTrack(2000).chordDensity(0.3).percussionShare(0.1)
+                .tempoChangesPerMinute(8).build().write(generated);
+        files.add(generated);
+
+        for (File file : files) {
+            Parser eventParser = new Parser();
+            eventParser.setEngine(Parser.Engine.MIDI_EVENTS);
+            Parser streamingParser = new Parser();
+            streamingParser.setEngine(Parser.Engine.STREAMING);
+
+            // Both engines read the events in the same order, so the notes don't need sorting
+            var expected = eventParser.parseMidi(file);
+            var actual = streamingParser.parseMidi(file);
+            assertEquals(file.getName(), expected.first(), actual.first());
+            assertEquals(file.getName(), expected.second(), actual.second());
+        }
+    }
+
+    @Test
+    public void testStreamMidiToConsumers() throws InvalidMidiDataException, IOException {
+        Parser p = new Parser();
+        p.setEngine(Parser.Engine.MIDI_EVENTS);
+        var expected = p.parseMidi(new File("testfiles/percussionAndNotes.mid"));
+
+        List<Note> notes = new ArrayList<>();
+        List<Percussion> percussion = new ArrayList<>();
+        ConversionMetrics metrics = new ConversionMetrics();
+        p.streamMidi(new File("testfiles/percussionAndNotes.mid"), notes::add, percussion::add, metrics);
+
+        assertEquals(expected.first(), notes);
+        assertEquals(expected.second(), percussion);
+        assertEquals(notes.size(), metrics.total(ConversionMetrics.Stage.PARSE).notes());
+        assertTrue(metrics.total(ConversionMetrics.Stage.TEMPO_MAP) != null);
+    }
+
+    @Test(expected = InvalidMidiDataException.class)
+    public void testStreamingEngine_InvalidFile() throws InvalidMidiDataException, IOException {
+        File file = Files.createTempFile("invalid", ".mid").toFile();
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "not a midi file");
+
+        Parser p = new Parser();
+        p.setEngine(Parser.Engine.STREAMING);
+        p.parseMidi(file);
+    }
 }
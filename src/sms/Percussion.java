@@ -5,7 +5,7 @@ import java.util.Comparator;
 /**
  * Stores the data of a single percussion command from a MIDI file.
  * @param startTime The time the percussion command should be played at, in
- *                  hundredths of a second since the start of the song
+ *                  ticks since the start of the song
  * @param type The type of instrument this percussion command will play as
  */
 public record Percussion(int startTime, Type type) implements MusicCommand {
@@ -18,7 +18,22 @@ public record Percussion(int startTime, Type type) implements MusicCommand {
         HI_MID_TOM, CRASH_CYMBAL_1, HI_TOM, RIDE_CYMBAL_1, CHINESE_CYMBAL, RIDE_BELL, TAMBOURINE, SPLASH_CYMBAL,
         COWBELL, CRASH_CYMBAL_2, VIBRASLAP, RIDE_CYMBAL_2, HI_BONGO, LO_BONGO, MUTE_HI_CONGA, OPEN_HI_CONGA, LO_CONGA,
         HI_TIMBALE, LO_TIMBALE, HI_AGOGO, LO_AGOGO, CABASA, MARACAS, SHORT_WHISTLE, LONG_WHISTLE, SHORT_GUIRO, LONG_GUIRO,
-        CLAVES, HI_WOOD_BLOCK, LO_WOOD_BLOCK, MUTE_CUICA, OPEN_CUICA, MUTE_TRIANGLE, OPEN_TRIANGLE
+        CLAVES, HI_WOOD_BLOCK, LO_WOOD_BLOCK, MUTE_CUICA, OPEN_CUICA, MUTE_TRIANGLE, OPEN_TRIANGLE;
+
+        // The MIDI note number of the first instrument in the General MIDI percussion map
+        private static final int FIRST_MIDI_NOTE = 35;
+        private static final Type[] VALUES = values();
+
+        /**
+         * Gets the percussion instrument played by a note on the MIDI percussion channel
+         * @param noteNumber The MIDI note number of the percussion note
+         * @return The instrument for the note number, or null if there is no instrument for that number
+         */
+        public static Type fromMidiNote(int noteNumber) {
+            int index = noteNumber - FIRST_MIDI_NOTE;
+            if (index < 0 || index >= VALUES.length) return null;
+            return VALUES[index];
+        }
     }
 
     /**
@@ -28,10 +43,17 @@ public record Percussion(int startTime, Type type) implements MusicCommand {
             = Comparator.comparingInt(p -> p.startTime);
 
     /**
-     * Returns a String representation of this percussion command's data
+     * Returns a String representation of this percussion command's data, with times in hundredths of a second
      */
     public String toString() {
-        String startTimeSeconds = (startTime / 100) + "." + String.format("%02d", (startTime % 100)) + "s";
-        return "Percussion " + type + " at " + startTimeSeconds;
+        return toString(TickResolution.HUNDREDTH_SECOND);
+    }
+
+    /**
+     * Returns a String representation of this percussion command's data
+     * @param resolution The tick resolution the command's time is in
+     */
+    public String toString(TickResolution resolution) {
+        return "Percussion " + type + " at " + resolution.formatSeconds(startTime);
     }
 }
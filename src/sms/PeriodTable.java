@@ -0,0 +1,97 @@
+package sms;
+
+import java.util.Arrays;
+
+/**
+ * A deduplicated table of the step periods used by a song. Each pitch is converted to a period
+ * the first time it is seen, and every later note with the same pitch reuses its table index.
+ * Index 0 always holds a period of 0, which stops a motor.
+ * Each entry also has a fine period in 1/256ths of a microsecond, calculated from the exact pitch
+ * instead of the pitch rounded to a whole number of Hertz.
+ */
+final class PeriodTable {
+
+    static final int STOP_INDEX = 0;
+
+    // Fine periods have 8 fractional bits, like STEP_PHASE_FRACTION_BITS in the stepper library
+    static final int FINE_PERIOD_SCALE = 256;
+
+    // The table index for each rounded pitch in Hertz, or -1 if the pitch hasn't been seen yet
+    private int[] indexByPitch = new int[0];
+
+    private int[] periods = new int[16];
+    private long[] finePeriods = new long[16];
+    private String[] periodStrings = new String[16];
+    private int size = 0;
+
+    PeriodTable() {
+        periods[0] = 0;
+        periodStrings[0] = "STOP";
+        size = 1;
+    }
+
+    /**
+     * Gets the table index of the period for a pitch, adding the period to the table if it isn't there yet
+     * @param pitch The frequency of a note, in Hertz
+     * @return The index of the note's period in the table
+     */
+    int indexOf(double pitch) {
+        int roundedPitch = (int) Math.round(pitch);
+        if (roundedPitch <= 0) return STOP_INDEX;
+
+        if (roundedPitch >= indexByPitch.length) {
+            int oldLength = indexByPitch.length;
+            indexByPitch = Arrays.copyOf(indexByPitch, Math.max(roundedPitch + 1, oldLength * 2));
+            Arrays.fill(indexByPitch, oldLength, indexByPitch.length, -1);
+        }
+
+        int index = indexByPitch[roundedPitch];
+        if (index < 0) {
+            index = add(1000000 / roundedPitch, Math.round(1000000.0 * FINE_PERIOD_SCALE / pitch));
+            indexByPitch[roundedPitch] = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return The step period at a table index, in microseconds
+     */
+    int periodAt(int index) {
+        return periods[index];
+    }
+
+    /**
+     * @return The step period at a table index, in 1/256ths of a microsecond
+     */
+    long finePeriodAt(int index) {
+        return finePeriods[index];
+    }
+
+    /**
+     * @return The period at a table index as it is written in the sketch, or STOP for index 0
+     */
+    String periodStringAt(int index) {
+        return periodStrings[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int add(int period, long finePeriod) {
+        // Very high pitches can round to the same period, so check whether the period is already in the table
+        for (int i = 1; i < size; i++) {
+            if (periods[i] == period && finePeriods[i] == finePeriod) return i;
+        }
+
+        if (size == periods.length) {
+            periods = Arrays.copyOf(periods, size * 2);
+            finePeriods = Arrays.copyOf(finePeriods, size * 2);
+            periodStrings = Arrays.copyOf(periodStrings, size * 2);
+        }
+        periods[size] = period;
+        finePeriods[size] = finePeriod;
+        periodStrings[size] = Integer.toString(period);
+        return size++;
+    }
+}
@@ -0,0 +1,250 @@
+package sms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Saves the notes and percussion commands of a parsed song in a compact binary file, so that the song can be
+ * assigned to motors again without parsing the MIDI file. The data is stored in columns: start times as the
+ * varint difference from the previous start time, durations and voices as varints, and pitches as one MIDI
+ * note number byte each. A pitch that isn't the frequency of a MIDI note is stored in full in a separate
+ * column. A file is read into memory with one read, rather than mapped, so that it can be deleted or
+ * replaced as soon as it has been loaded on every platform.
+ * <p>
+ * The layout is a header followed by the columns, each prefixed by its length in bytes:
+ * <pre>
+ * magic "SMSS", version, tick resolution, note count, percussion count, extra pitch count
+ * note start times, note durations, note pitches, note voices, extra pitches,
+ * percussion start times, percussion types
+ * </pre>
+ */
+public final class ScoreFile {
+
+    /**
+     * The contents of a score file
+     * @param midiData The notes and percussion commands of the song
+     * @param tickResolution The tick resolution the song's times are in
+     */
+    public record Contents(Pair<ArrayList<Note>, ArrayList<Percussion>> midiData, TickResolution tickResolution) {}
+
+    private static final int MAGIC = 0x534D5353; // "SMSS"
+    private static final int VERSION = 1;
+
+    // Pitches that aren't a MIDI note's frequency are marked with this byte and stored in full
+    private static final int EXTRA_PITCH = 0xFF;
+
+    private ScoreFile() {}
+
+    /**
+     * Saves a parsed song to a file, replacing the file if it exists
+     * @param file The file to write
+     * @param midiData The notes and percussion commands of the song
+     * @param tickResolution The tick resolution the song's times are in
+     * @throws IOException If the file can't be written
+     */
+    public static void write(File file, Pair<? extends List<Note>, ? extends List<Percussion>> midiData,
+                             TickResolution tickResolution) throws IOException {
+        ByteBuffer data = encode(midiData, tickResolution);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Loads a parsed song from a file
+     * @param file The file to read
+     * @return The song's notes and percussion commands, and the tick resolution their times are in
+     * @throws IOException If the file can't be read, or isn't a score file of this version
+     */
+    public static Contents read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Score file is too large");
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Corrupt score file");
+            }
+            return decode(buffer.flip());
+        }
+    }
+
+    /**
+     * Encodes a parsed song in the score file format
+     * @return A buffer holding the encoded song, positioned at its start
+     */
+    static ByteBuffer encode(Pair<? extends List<Note>, ? extends List<Percussion>> midiData, TickResolution tickResolution) {
+        List<Note> notes = midiData.first();
+        List<Percussion> percussion = midiData.second();
+
+        Column startTimes = new Column(notes.size() * 2);
+        Column durations = new Column(notes.size() * 2);
+        Column pitches = new Column(notes.size());
+        Column voices = new Column(notes.size());
+        Column extraPitches = new Column(0);
+        int numExtraPitches = 0;
+        int previousStartTime = 0;
+        for (Note note : notes) {
+            startTimes.writeVarint(zigzag(note.startTime() - previousStartTime));
+            previousStartTime = note.startTime();
+            durations.writeVarint(zigzag(note.duration()));
+            voices.writeVarint(note.voiceIndex());
+
+            int noteNumber = Parser.frequencyToMidiNote(note.pitch());
+            if (noteNumber >= 0 && noteNumber < EXTRA_PITCH && Parser.midiNoteToFrequency(noteNumber) == note.pitch()) {
+                pitches.writeByte(noteNumber);
+            } else {
+                pitches.writeByte(EXTRA_PITCH);
+                extraPitches.writeLong(Double.doubleToRawLongBits(note.pitch()));
+                numExtraPitches++;
+            }
+        }
+
+        Column percussionTimes = new Column(percussion.size() * 2);
+        Column percussionTypes = new Column(percussion.size());
+        previousStartTime = 0;
+        for (Percussion p : percussion) {
+            percussionTimes.writeVarint(zigzag(p.startTime() - previousStartTime));
+            previousStartTime = p.startTime();
+            percussionTypes.writeByte(p.type().ordinal());
+        }
+
+        Column[] columns = {startTimes, durations, pitches, voices, extraPitches, percussionTimes, percussionTypes};
+        int size = 6 * Integer.BYTES;
+        for (Column column : columns) {
+            size += Integer.BYTES + column.size;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(tickResolution.ordinal())
+                .putInt(notes.size()).putInt(percussion.size()).putInt(numExtraPitches);
+        for (Column column : columns) {
+            buffer.putInt(column.size).put(column.bytes, 0, column.size);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Decodes a parsed song from a buffer in the score file format
+     * @throws IOException If the buffer doesn't hold a score of this version
+     */
+    static Contents decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a score file");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException("Unsupported score file version " + version);
+            TickResolution tickResolution = TickResolution.values()[buffer.getInt()];
+            int numNotes = buffer.getInt();
+            int numPercussion = buffer.getInt();
+            int numExtraPitches = buffer.getInt();
+
+            ByteBuffer startTimes = nextColumn(buffer);
+            ByteBuffer durations = nextColumn(buffer);
+            ByteBuffer pitches = nextColumn(buffer);
+            ByteBuffer voices = nextColumn(buffer);
+            ByteBuffer extraPitches = nextColumn(buffer);
+            // Each note has one pitch byte, so the counts are checked before they are used to size anything
+            if (numNotes < 0 || pitches.remaining() != numNotes || numExtraPitches < 0
+                    || extraPitches.remaining() != (long) numExtraPitches * Long.BYTES) {
+                throw new IOException("Corrupt score file");
+            }
+
+            ArrayList<Note> notes = new ArrayList<>(numNotes);
+            int startTime = 0;
+            for (int i = 0; i < numNotes; i++) {
+                startTime += unzigzag(readVarint(startTimes));
+                int duration = unzigzag(readVarint(durations));
+                int noteNumber = pitches.get() & 0xFF;
+                double pitch = noteNumber == EXTRA_PITCH ? Double.longBitsToDouble(extraPitches.getLong())
+                        : Parser.midiNoteToFrequency(noteNumber);
+                notes.add(new Note(startTime, pitch, duration, readVarint(voices)));
+            }
+
+            ByteBuffer percussionTimes = nextColumn(buffer);
+            ByteBuffer percussionTypes = nextColumn(buffer);
+            if (numPercussion < 0 || percussionTypes.remaining() != numPercussion) throw new IOException("Corrupt score file");
+            Percussion.Type[] types = Percussion.Type.values();
+            ArrayList<Percussion> percussion = new ArrayList<>(numPercussion);
+            startTime = 0;
+            for (int i = 0; i < numPercussion; i++) {
+                startTime += unzigzag(readVarint(percussionTimes));
+                percussion.add(new Percussion(startTime, types[percussionTypes.get() & 0xFF]));
+            }
+
+            return new Contents(new Pair<>(notes, percussion), tickResolution);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt score file", e);
+        }
+    }
+
+    /**
+     * @return A view of the next column, moving the buffer past it
+     */
+    private static ByteBuffer nextColumn(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer column = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return column;
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // Zigzag encoding keeps small negative numbers small, since notes aren't always in chronological order
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A growable array of bytes holding one column while it is being encoded
+     */
+    private static final class Column {
+        private byte[] bytes;
+        private int size = 0;
+
+        Column(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void writeByte(int value) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (value >>> shift));
+            }
+        }
+    }
+}
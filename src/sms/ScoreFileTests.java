@@ -0,0 +1,111 @@
+package sms;
+
+import org.junit.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ScoreFileTests {
+
+    @Test
+    public void testTestFilesRoundTrip() throws InvalidMidiDataException, IOException {
+        File[] testFiles = new File("testfiles").listFiles((dir, name) -> name.endsWith(".mid"));
+        assert testFiles != null;
+        File scoreFile = Files.createTempFile("score", ".sms").toFile();
+        scoreFile.deleteOnExit();
+
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        parser.setTickResolution(TickResolution.MILLISECOND);
+        for (File file : testFiles) {
+            var midiData = parser.parseMidi(file);
+            ScoreFile.write(scoreFile, midiData, TickResolution.MILLISECOND);
+
+            ScoreFile.Contents contents = ScoreFile.read(scoreFile);
+            assertEquals(file.getName(), midiData.first(), contents.midiData().first());
+            assertEquals(file.getName(), midiData.second(), contents.midiData().second());
+            assertEquals(TickResolution.MILLISECOND, contents.tickResolution());
+        }
+    }
+
+    @Test
+    public void testLargeSongIsCompact() throws InvalidMidiDataException, IOException {
+        File midiFile = Files.createTempFile("score", ".mid").toFile();
+        File scoreFile = Files.createTempFile("score", ".sms").toFile();
+        midiFile.deleteOnExit();
+        scoreFile.deleteOnExit();
+        new ScoreGenerator.Builder().seed(3).tracks(8).notesPerTrack(10000).chordDensity(0.25).percussionShare(0.1)
+                .tempoChangesPerMinute(4).build().write(midiFile);
+
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        var midiData = parser.parseMidi(midiFile);
+        // Voice order jumps back to the start of the song for every voice
+        midiData.first().sort(Note.voiceOrder);
+        ScoreFile.write(scoreFile, midiData, TickResolution.HUNDREDTH_SECOND);
+
+        ScoreFile.Contents contents = ScoreFile.read(scoreFile);
+        assertEquals(midiData.first(), contents.midiData().first());
+        assertEquals(midiData.second(), contents.midiData().second());
+
+        // Every pitch is a MIDI note, so each note takes a few bytes instead of the 20 in a Note
+        int numCommands = midiData.first().size() + midiData.second().size();
+        assertTrue(scoreFile.length() < 6L * numCommands);
+    }
+
+    @Test
+    public void testUnusualNotes() throws IOException {
+        // Pitches that aren't MIDI notes, negative times and large voices are stored exactly
+        ArrayList<Note> notes = new ArrayList<>(List.of(
+                new Note(500, 440.0, 20, 0),
+                new Note(100, 441.5, 1, 300),
+                new Note(0, 0.0, 0, 1),
+                new Note(-5, Parser.midiNoteToFrequency(127), Integer.MAX_VALUE, 2),
+                new Note(Integer.MAX_VALUE, 20000.0, 3, 3)));
+        ArrayList<Percussion> percussion = new ArrayList<>(List.of(
+                new Percussion(40, Percussion.Type.values()[0]),
+                new Percussion(10, Percussion.Type.values()[Percussion.Type.values().length - 1])));
+        File scoreFile = Files.createTempFile("score", ".sms").toFile();
+        scoreFile.deleteOnExit();
+
+        ScoreFile.write(scoreFile, new Pair<>(notes, percussion), TickResolution.QUARTER_MILLISECOND);
+        ScoreFile.Contents contents = ScoreFile.read(scoreFile);
+        assertEquals(notes, contents.midiData().first());
+        assertEquals(percussion, contents.midiData().second());
+        assertEquals(TickResolution.QUARTER_MILLISECOND, contents.tickResolution());
+    }
+
+    @Test
+    public void testCorruptCounts() {
+        ArrayList<Note> notes = new ArrayList<>(List.of(new Note(0, 441.5, 10, 0), new Note(10, 440.0, 10, 1)));
+        ArrayList<Percussion> percussion = new ArrayList<>(List.of(new Percussion(5, Percussion.Type.values()[0])));
+        ByteBuffer data = ScoreFile.encode(new Pair<>(notes, percussion), TickResolution.QUARTER_MILLISECOND);
+
+        // The note, percussion and extra pitch counts follow the magic, version and tick resolution
+        for (int offset = 12; offset <= 20; offset += Integer.BYTES) {
+            for (int count : new int[] {-1, Integer.MIN_VALUE, 2, 1000}) {
+                ByteBuffer corrupt = ByteBuffer.allocate(data.remaining()).put(data.duplicate()).flip();
+                if (corrupt.getInt(offset) == count) continue;
+                corrupt.putInt(offset, count);
+                assertThrows(IOException.class, () -> ScoreFile.decode(corrupt));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAScoreFile() throws IOException {
+        File file = Files.createTempFile("score", ".sms").toFile();
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "not a score file");
+        ScoreFile.read(file);
+    }
+}
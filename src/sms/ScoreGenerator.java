@@ -0,0 +1,234 @@
+package sms;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates random MIDI songs of any size, for testing how the conversion scales to songs much larger than the
+ * files in testfiles/. Each song has a tempo track, a number of pitched tracks and an optional percussion track.
+ * The same settings and seed always generate the same song.
+ */
+public class ScoreGenerator {
+
+    private static final int TICKS_PER_QUARTER_NOTE = 480;
+    private static final int BASE_TEMPO = 120;
+    private static final int MIN_TEMPO = 60;
+    private static final int MAX_TEMPO = 180;
+
+    private static final int PERCUSSION_CHANNEL = 9;
+    private static final int TEMPO_META_TYPE = 0x51;
+    private static final int LOWEST_KEY = 36;
+    private static final int HIGHEST_KEY = 96;
+    private static final int FIRST_PERCUSSION_KEY = 35;
+    private static final int NUM_PERCUSSION_KEYS = Percussion.Type.values().length;
+    private static final int MAX_CHORD_SIZE = 4;
+    private static final int[] CHORD_INTERVALS = {0, 4, 7, 12};
+
+    private final long seed;
+    private final int tracks;
+    private final int notesPerTrack;
+    private final double chordDensity;
+    private final double percussionShare;
+    private final double tempoChangesPerMinute;
+    private final double lengthMinutes;
+
+    private ScoreGenerator(Builder builder) {
+        seed = builder.seed;
+        tracks = builder.tracks;
+        notesPerTrack = builder.notesPerTrack;
+        chordDensity = builder.chordDensity;
+        percussionShare = builder.percussionShare;
+        tempoChangesPerMinute = builder.tempoChangesPerMinute;
+        lengthMinutes = builder.lengthMinutes;
+    }
+
+    /**
+     * @return The number of pitched notes in the generated song
+     */
+    public int pitchedNotes() {
+        return tracks * notesPerTrack;
+    }
+
+    /**
+     * @return The number of percussion notes in the generated song, which make up the percussion share of
+     * every note in the song
+     */
+    public int percussionNotes() {
+        return (int) Math.round(pitchedNotes() * percussionShare / (1.0 - percussionShare));
+    }
+
+    /**
+     * @return The number of tempo changes after the starting tempo
+     */
+    public int tempoChanges() {
+        return (int) Math.round(tempoChangesPerMinute * lengthMinutes);
+    }
+
+    /**
+     * Generates the song
+     * @return A MIDI sequence holding the tempo track, then the pitched tracks, then the percussion track
+     */
+    public Sequence generate() throws InvalidMidiDataException {
+        Random random = new Random(seed);
+        Sequence sequence = new Sequence(Sequence.PPQ, TICKS_PER_QUARTER_NOTE);
+
+        // The length is measured at the starting tempo, so tempo changes make the song a little longer or shorter
+        long songTicks = Math.max(1, Math.round(lengthMinutes * BASE_TEMPO * TICKS_PER_QUARTER_NOTE));
+
+        Track tempoTrack = sequence.createTrack();
+        tempoTrack.add(tempoEvent(BASE_TEMPO, 0));
+        int numTempoChanges = tempoChanges();
+        for (int i = 1; i <= numTempoChanges; i++) {
+            int tempo = MIN_TEMPO + random.nextInt(MAX_TEMPO - MIN_TEMPO + 1);
+            tempoTrack.add(tempoEvent(tempo, songTicks * i / (numTempoChanges + 1)));
+        }
+
+        for (int t = 0; t < tracks; t++) {
+            // Skip the percussion channel so that every pitched track plays pitched notes
+            int channel = t % 15 < PERCUSSION_CHANNEL ? t % 15 : t % 15 + 1;
+            addPitchedTrack(sequence.createTrack(), channel, songTicks, random);
+        }
+
+        int numPercussionNotes = percussionNotes();
+        if (numPercussionNotes > 0) {
+            Track track = sequence.createTrack();
+            long step = Math.max(1, songTicks / numPercussionNotes);
+            for (int i = 0; i < numPercussionNotes; i++) {
+                int key = FIRST_PERCUSSION_KEY + random.nextInt(NUM_PERCUSSION_KEYS);
+                addNote(track, PERCUSSION_CHANNEL, key, i * step, Math.max(1, step / 2));
+            }
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Generates the song and writes it to a standard MIDI file
+     * @param file The file to write the song to
+     */
+    public void write(File file) throws InvalidMidiDataException, IOException {
+        MidiSystem.write(generate(), 1, file);
+    }
+
+    private void addPitchedTrack(Track track, int channel, long songTicks, Random random) throws InvalidMidiDataException {
+        // Chords have 2 to 4 notes, so spread the steps out to fill the song with the expected number of chords
+        double expectedNotesPerStep = (1.0 - chordDensity) + chordDensity * (2 + MAX_CHORD_SIZE) / 2.0;
+        long step = Math.max(2, Math.round(songTicks * expectedNotesPerStep / notesPerTrack));
+
+        long tick = 0;
+        int notesLeft = notesPerTrack;
+        while (notesLeft > 0) {
+            int chordSize = random.nextDouble() < chordDensity ? 2 + random.nextInt(MAX_CHORD_SIZE - 1) : 1;
+            chordSize = Math.min(chordSize, notesLeft);
+
+            // Each note ends by the time the next step starts, so a key is never pressed twice at once
+            long duration = step / 2 + (long) (random.nextDouble() * (step - step / 2));
+            int root = LOWEST_KEY + random.nextInt(HIGHEST_KEY - LOWEST_KEY - CHORD_INTERVALS[MAX_CHORD_SIZE - 1] + 1);
+            for (int i = 0; i < chordSize; i++) {
+                addNote(track, channel, root + CHORD_INTERVALS[i], tick, duration);
+            }
+
+            notesLeft -= chordSize;
+            tick += step;
+        }
+    }
+
+    private static void addNote(Track track, int channel, int key, long tick, long duration) throws InvalidMidiDataException {
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, channel, key, 100), tick));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, channel, key, 0), tick + duration));
+    }
+
+    private static MidiEvent tempoEvent(int beatsPerMinute, long tick) throws InvalidMidiDataException {
+        int microsPerBeat = 60000000 / beatsPerMinute;
+        byte[] data = {(byte) (microsPerBeat >> 16), (byte) (microsPerBeat >> 8), (byte) microsPerBeat};
+        return new MidiEvent(new MetaMessage(TEMPO_META_TYPE, data, data.length), tick);
+    }
+
+    /**
+     * Collects the settings for a generated song. Every setting has a default, so only the ones that matter
+     * for a test need to be set.
+     */
+    public static class Builder {
+        private long seed = 0;
+        private int tracks = 4;
+        private int notesPerTrack = 1000;
+        private double chordDensity = 0.0;
+        private double percussionShare = 0.0;
+        private double tempoChangesPerMinute = 0.0;
+        private double lengthMinutes = 2.0;
+
+        /**
+         * Sets the seed for the random notes. Songs generated with the same settings and seed are identical.
+         */
+        public Builder seed(long value) {
+            seed = value;
+            return this;
+        }
+
+        /**
+         * Sets the number of pitched tracks, each of which is played on its own channel
+         */
+        public Builder tracks(int value) {
+            if (value < 0) throw new IllegalArgumentException("The number of tracks can't be negative");
+            tracks = value;
+            return this;
+        }
+
+        /**
+         * Sets the number of notes in each pitched track, including the notes of chords
+         */
+        public Builder notesPerTrack(int value) {
+            if (value < 0) throw new IllegalArgumentException("The number of notes can't be negative");
+            notesPerTrack = value;
+            return this;
+        }
+
+        /**
+         * Sets the chance that a track plays a chord of 2 to 4 notes instead of a single note, from 0 to 1
+         */
+        public Builder chordDensity(double value) {
+            if (value < 0.0 || value > 1.0) throw new IllegalArgumentException("The chord density must be from 0 to 1");
+            chordDensity = value;
+            return this;
+        }
+
+        /**
+         * Sets the share of every note in the song that is percussion, from 0 up to but not including 1
+         */
+        public Builder percussionShare(double value) {
+            if (value < 0.0 || value >= 1.0) throw new IllegalArgumentException("The percussion share must be from 0 to less than 1");
+            percussionShare = value;
+            return this;
+        }
+
+        /**
+         * Sets the number of tempo changes per minute of the song
+         */
+        public Builder tempoChangesPerMinute(double value) {
+            if (value < 0.0) throw new IllegalArgumentException("The tempo change frequency can't be negative");
+            tempoChangesPerMinute = value;
+            return this;
+        }
+
+        /**
+         * Sets the length of the song in minutes, at the starting tempo of 120 beats per minute
+         */
+        public Builder lengthMinutes(double value) {
+            if (value <= 0.0) throw new IllegalArgumentException("The length must be more than 0 minutes");
+            lengthMinutes = value;
+            return this;
+        }
+
+        public ScoreGenerator build() {
+            return new ScoreGenerator(this);
+        }
+    }
+}
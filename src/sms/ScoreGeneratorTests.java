@@ -0,0 +1,105 @@
+package sms;
+
+import org.junit.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScoreGeneratorTests {
+
+    @Test
+    public void testSameSeedWritesSameFile() throws InvalidMidiDataException, IOException {
+        ScoreGenerator.Builder builder = new ScoreGenerator.Builder()
+                .tracks(3).notesPerTrack(200).chordDensity(0.3).percussionShare(0.1).tempoChangesPerMinute(4);
+
+        File first = File.createTempFile("generated", ".mid");
+        File second = File.createTempFile("generated", ".mid");
+        File otherSeed = File.createTempFile("generated", ".mid");
+        builder.seed(1).build().write(first);
+        builder.seed(1).build().write(second);
+        builder.seed(2).build().write(otherSeed);
+
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+        assertFalse(Arrays.equals(Files.readAllBytes(first.toPath()), Files.readAllBytes(otherSeed.toPath())));
+
+        assertTrue(first.delete());
+        assertTrue(second.delete());
+        assertTrue(otherSeed.delete());
+    }
+
+    @Test
+    public void testGeneratedSize() throws InvalidMidiDataException, IOException {
+        ScoreGenerator generator = new ScoreGenerator.Builder()
+                .seed(7).tracks(5).notesPerTrack(300).chordDensity(0.5).percussionShare(0.2)
+                .tempoChangesPerMinute(6).lengthMinutes(1.5).build();
+        assertEquals(1500, generator.pitchedNotes());
+        assertEquals(375, generator.percussionNotes());
+        assertEquals(9, generator.tempoChanges());
+
+        // A tempo track, the pitched tracks and a percussion track
+        Sequence sequence = generator.generate();
+        assertEquals(7, sequence.getTracks().length);
+        assertEquals(10, countTempoEvents(sequence.getTracks()[0]));
+
+        // Every generated note is read back by the parser
+        File file = File.createTempFile("generated", ".mid");
+        generator.write(file);
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        var midiData = parser.parseMidi(file);
+        assertEquals(generator.pitchedNotes(), midiData.first().size());
+        assertEquals(generator.percussionNotes(), midiData.second().size());
+
+        // The song lasts about as long as asked for, depending on the tempo changes
+        int lastStart = midiData.first().stream().mapToInt(Note::startTime).max().orElse(0);
+        assertTrue("Song ends at " + lastStart, lastStart > 60 * 100 && lastStart < 180 * 100);
+
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testLargeScore() throws InvalidMidiDataException, IOException {
+        // 16 tracks of dense chords, which is far larger than any of the test files
+        ScoreGenerator generator = new ScoreGenerator.Builder()
+                .seed(3).tracks(16).notesPerTrack(12500).chordDensity(0.4).tempoChangesPerMinute(2)
+                .lengthMinutes(20).build();
+        File file = File.createTempFile("generated", ".mid");
+        generator.write(file);
+
+        Parser parser = new Parser();
+        parser.setEngine(Parser.Engine.MIDI_EVENTS);
+        ArrayList<Note> notes = parser.parseMidi(file).first();
+        assertEquals(200000, notes.size());
+
+        notes.sort(Note.chronologicalOrder);
+        List<Motor> motors = NoteAssigner.condensingAssign(notes);
+        assertEquals(notes.size(), motors.stream().mapToInt(m -> m.getNotes().size()).sum());
+
+        assertTrue(file.delete());
+    }
+
+    private static int countTempoEvents(Track track) {
+        int count = 0;
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            if (event.getMessage() instanceof MetaMessage meta && meta.getType() == 0x51) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
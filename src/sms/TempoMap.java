@@ -0,0 +1,160 @@
+package sms;
+
+import java.util.Arrays;
+
+/**
+ * An immutable map of the tempo changes in a song. The tempo changes are stored as primitive arrays
+ * sorted by measure, along with the time that has passed in the song when each tempo change happens.
+ * This lets the tempo and time at any measure be found with a binary search instead of walking
+ * through every tempo change.
+ */
+public final class TempoMap {
+
+    private static final int DEFAULT_TEMPO = 120;
+
+    // The measure each tempo change happens at, in increasing order
+    private final double[] measures;
+    // The tempo starting at the measure with the same index, in beats per minute
+    private final int[] tempos;
+    // The time passed in the song when the tempo change with the same index happens
+    private final double[] elapsedTimes;
+    // The time one measure takes at a tempo of 1 beat per minute
+    private final double timePerMeasure;
+
+    private TempoMap(double[] measures, int[] tempos, double timePerMeasure) {
+        this.measures = measures;
+        this.tempos = tempos;
+        this.timePerMeasure = timePerMeasure;
+
+        // Add up the time spent in each tempo segment before every tempo change
+        elapsedTimes = new double[measures.length];
+        for (int i = 1; i < measures.length; i++) {
+            double duration = measures[i] - measures[i - 1];
+            elapsedTimes[i] = elapsedTimes[i - 1] + duration * timePerMeasure / tempos[i - 1];
+        }
+    }
+
+    /**
+     * Gets the tempo at a measure in the song
+     * @param measure A measure number, with a beat within the measure being represented as a fraction of a measure
+     * @return The tempo at that measure in beats per minute, or 120 if the tempo hasn't been set yet
+     */
+    public int getTempoAt(double measure) {
+        int index = indexAt(measure);
+        return index < 0 ? DEFAULT_TEMPO : tempos[index];
+    }
+
+    /**
+     * Converts a measure number to the corresponding time since the first tempo change in the song
+     * @param measure A measure number to convert, with a beat within the measure being
+     * represented as a fraction of a measure.
+     * @return The time corresponding to the measure number passed in, in the units of the time per measure
+     * this map was built with. Measures before the first tempo change are at time 0.
+     */
+    public double measureToTime(double measure) {
+        if (measures.length == 0) {
+            return measure * timePerMeasure / DEFAULT_TEMPO;
+        }
+
+        int index = indexAt(measure);
+        if (index < 0) return 0;
+
+        return elapsedTimes[index] + (measure - measures[index]) * timePerMeasure / tempos[index];
+    }
+
+    /**
+     * @return The number of tempo changes in this map, counting tempo changes at the same measure once
+     */
+    public int size() {
+        return measures.length;
+    }
+
+    /**
+     * Finds the last tempo change at or before a measure
+     * @return The index of the tempo change, or -1 if the measure comes before every tempo change
+     */
+    private int indexAt(double measure) {
+        int low = 0;
+        int high = measures.length - 1;
+        int result = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (measures[mid] <= measure) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Collects tempo changes while a file is being read and then creates the tempo map
+     */
+    public static class Builder {
+        private double[] measures = new double[8];
+        private int[] tempos = new int[8];
+        private int size = 0;
+        private boolean sorted = true;
+
+        /**
+         * Adds a tempo change to the map
+         * @param measure The measure the tempo changes at
+         * @param tempo The new tempo, in beats per minute
+         */
+        public Builder add(double measure, int tempo) {
+            if (size == measures.length) {
+                measures = Arrays.copyOf(measures, size * 2);
+                tempos = Arrays.copyOf(tempos, size * 2);
+            }
+            if (size > 0 && measure < measures[size - 1]) {
+                sorted = false;
+            }
+
+            measures[size] = measure;
+            tempos[size] = tempo;
+            size++;
+            return this;
+        }
+
+        /**
+         * Creates the tempo map. Tempo changes that were added out of order are sorted by measure, and
+         * tempo changes at the same measure keep the order they were added in. Only the last tempo change
+         * at each measure is kept, since it replaces the others, so a tempo map that is repeated in every
+         * track doesn't grow with the number of tracks.
+         * @param timePerMeasure The time one measure takes at a tempo of 1 beat per minute, in the unit
+         *                       that times returned by the map should use
+         * @return The tempo map containing every tempo change added to this builder
+         */
+        public TempoMap build(double timePerMeasure) {
+            // Tempo changes are often added out of order, since every voice and track starts again from
+            // measure 0, so they are put in order with a stable sort of their indexes
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            if (!sorted) {
+                Arrays.sort(order, (i1, i2) -> Double.compare(measures[i1], measures[i2]));
+            }
+
+            double[] sortedMeasures = new double[size];
+            int[] sortedTempos = new int[size];
+            int count = 0;
+            for (int index : order) {
+                if (count > 0 && sortedMeasures[count - 1] == measures[index]) {
+                    sortedTempos[count - 1] = tempos[index];
+                } else {
+                    sortedMeasures[count] = measures[index];
+                    sortedTempos[count] = tempos[index];
+                    count++;
+                }
+            }
+
+            return new TempoMap(Arrays.copyOf(sortedMeasures, count), Arrays.copyOf(sortedTempos, count),
+                    timePerMeasure);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package sms;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TempoMapTests {
+
+    private static final double HUNDREDTHS_PER_MEASURE = 4 * 6000;
+
+    @Test
+    public void testTempoChanges() {
+        // 120bpm for 1 measure, then 60bpm for 1 measure, then back to 120bpm
+        TempoMap map = new TempoMap.Builder()
+                .add(0.0, 120)
+                .add(1.0, 60)
+                .add(2.0, 120)
+                .build(HUNDREDTHS_PER_MEASURE);
+
+        assertEquals(3, map.size());
+        assertEquals(120, map.getTempoAt(0.0));
+        assertEquals(120, map.getTempoAt(0.99));
+        assertEquals(60, map.getTempoAt(1.0));
+        assertEquals(60, map.getTempoAt(1.5));
+        assertEquals(120, map.getTempoAt(2.0));
+        assertEquals(120, map.getTempoAt(100.0));
+
+        assertEquals(0.0, map.measureToTime(0.0), 1e-9);
+        assertEquals(100.0, map.measureToTime(0.5), 1e-9);
+        assertEquals(200.0, map.measureToTime(1.0), 1e-9);
+        assertEquals(400.0, map.measureToTime(1.5), 1e-9);
+        assertEquals(600.0, map.measureToTime(2.0), 1e-9);
+        assertEquals(800.0, map.measureToTime(3.0), 1e-9);
+    }
+
+    @Test
+    public void testEmptyMap() {
+        TempoMap map = new TempoMap.Builder().build(HUNDREDTHS_PER_MEASURE);
+
+        assertEquals(0, map.size());
+        assertEquals(120, map.getTempoAt(3.0));
+        assertEquals(200.0, map.measureToTime(1.0), 1e-9);
+    }
+
+    @Test
+    public void testMeasureBeforeFirstTempoChange() {
+        TempoMap map = new TempoMap.Builder().add(1.0, 60).build(HUNDREDTHS_PER_MEASURE);
+
+        assertEquals(120, map.getTempoAt(0.5));
+        assertEquals(0.0, map.measureToTime(0.5), 1e-9);
+        assertEquals(200.0, map.measureToTime(1.5), 1e-9);
+    }
+
+    @Test
+    public void testTempoChangesAddedOutOfOrder() {
+        TempoMap map = new TempoMap.Builder()
+                .add(2.0, 120)
+                .add(0.0, 120)
+                .add(1.0, 60)
+                .build(HUNDREDTHS_PER_MEASURE);
+
+        assertEquals(60, map.getTempoAt(1.5));
+        assertEquals(600.0, map.measureToTime(2.0), 1e-9);
+    }
+
+    @Test
+    public void testRepeatedTempoMapIsMerged() {
+        // A DAW export that repeats the whole tempo map in every track
+        Random random = new Random(7);
+        int[] tempos = new int[3000];
+        for (int i = 0; i < tempos.length; i++) {
+            tempos[i] = 40 + random.nextInt(200);
+        }
+        TempoMap.Builder repeated = new TempoMap.Builder();
+        for (int track = 0; track < 16; track++) {
+            for (int i = 0; i < tempos.length; i++) {
+                repeated.add(i * 0.25, tempos[i]);
+            }
+        }
+        TempoMap.Builder once = new TempoMap.Builder();
+        for (int i = 0; i < tempos.length; i++) {
+            once.add(i * 0.25, tempos[i]);
+        }
+
+        TempoMap repeatedMap = repeated.build(HUNDREDTHS_PER_MEASURE);
+        TempoMap map = once.build(HUNDREDTHS_PER_MEASURE);
+        assertEquals(tempos.length, repeatedMap.size());
+        for (double measure = 0.0; measure < tempos.length * 0.25 + 1.0; measure += 0.1) {
+            assertEquals(map.getTempoAt(measure), repeatedMap.getTempoAt(measure));
+            assertEquals(map.measureToTime(measure), repeatedMap.measureToTime(measure), 1e-9);
+        }
+    }
+
+    @Test
+    public void testLaterTempoChangeAtSameMeasureWins() {
+        TempoMap map = new TempoMap.Builder()
+                .add(1.0, 90)
+                .add(0.0, 120)
+                .add(1.0, 60)
+                .build(HUNDREDTHS_PER_MEASURE);
+
+        assertEquals(2, map.size());
+        assertEquals(60, map.getTempoAt(1.0));
+        assertEquals(400.0, map.measureToTime(1.5), 1e-9);
+    }
+
+    @Test
+    public void testMatchesPiecewiseFunction() {
+        Random random = new Random(42);
+
+        for (int trial = 0; trial < 20; trial++) {
+            // Build a tempo function with lots of small tempo changes, like an accelerando exported from a DAW
+            List<double[]> entries = new ArrayList<>();
+            TempoMap.Builder builder = new TempoMap.Builder();
+            double measure = 0.0;
+            int numEntries = 1 + random.nextInt(2000);
+            for (int i = 0; i < numEntries; i++) {
+                int tempo = 40 + random.nextInt(200);
+                entries.add(new double[]{measure, tempo});
+                builder.add(measure, tempo);
+                measure += random.nextInt(4) == 0 ? 0.0 : random.nextDouble();
+            }
+            TempoMap map = builder.build(HUNDREDTHS_PER_MEASURE);
+
+            for (int i = 0; i < 500; i++) {
+                double query = random.nextDouble() * (measure + 1.0);
+                assertEquals(piecewiseTempoAt(entries, query), map.getTempoAt(query));
+                assertEquals(piecewiseMeasureToTime(entries, query), map.measureToTime(query), 1e-6);
+            }
+        }
+    }
+
+    /**
+     * The linear search that the parser used to find the tempo at a measure
+     */
+    private static int piecewiseTempoAt(List<double[]> entries, double measure) {
+        ListIterator<double[]> iter = entries.listIterator(entries.size());
+        while (iter.hasPrevious()) {
+            double[] entry = iter.previous();
+            if (entry[0] <= measure) {
+                return (int) entry[1];
+            }
+        }
+        return 120;
+    }
+
+    /**
+     * The linear walk that the parser used to convert a measure to hundredths of a second
+     */
+    private static double piecewiseMeasureToTime(List<double[]> entries, double measure) {
+        double time = 0;
+        double[] lastEntry = entries.get(entries.size() - 1);
+
+        ListIterator<double[]> iter = entries.listIterator(entries.size());
+        while (iter.hasPrevious()) {
+            lastEntry = iter.previous();
+            if (lastEntry[0] <= measure) {
+                time += (measure - lastEntry[0]) * HUNDREDTHS_PER_MEASURE / lastEntry[1];
+                break;
+            }
+        }
+
+        while (iter.hasPrevious()) {
+            double[] currentEntry = iter.previous();
+            time += (lastEntry[0] - currentEntry[0]) * HUNDREDTHS_PER_MEASURE / currentEntry[1];
+            lastEntry = currentEntry;
+        }
+
+        return time;
+    }
+}
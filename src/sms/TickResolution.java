@@ -0,0 +1,87 @@
+package sms;
+
+/**
+ * The length of one tick of the song's clock. Note and percussion times are stored as a number of ticks, and the
+ * microcontroller checks for new notes once every tick. A finer resolution plays fast passages more accurately,
+ * but gives the microcontroller less time between checks and usually makes the song data larger.
+ */
+public enum TickResolution {
+    HUNDREDTH_SECOND(10000, 2, "10 ms"),
+    MILLISECOND(1000, 3, "1 ms"),
+    QUARTER_MILLISECOND(250, 4, "250 us");
+
+    // The gap left between a note and the next note in the same voice, so that repeated notes can be heard
+    private static final int RELEASE_MICROS = 10000;
+
+    private final int microsPerTick;
+    private final int decimalPlaces;
+    private final String label;
+
+    TickResolution(int microsPerTick, int decimalPlaces, String label) {
+        this.microsPerTick = microsPerTick;
+        this.decimalPlaces = decimalPlaces;
+        this.label = label;
+    }
+
+    /**
+     * @return The length of one tick, in microseconds
+     */
+    public int getMicrosPerTick() {
+        return microsPerTick;
+    }
+
+    /**
+     * @return The number of ticks in one minute
+     */
+    public double getTicksPerMinute() {
+        return 60000000.0 / microsPerTick;
+    }
+
+    /**
+     * @return The number of ticks taken off the end of each note so that it is separated from the next note
+     */
+    public int getReleaseTicks() {
+        return Math.max(1, RELEASE_MICROS / microsPerTick);
+    }
+
+    /**
+     * Converts a time in ticks of this resolution to the nearest tick of another resolution
+     * @param ticks The time to convert, in ticks of this resolution
+     * @param other The resolution to convert to
+     * @return The time in ticks of the other resolution
+     */
+    public int convertTo(int ticks, TickResolution other) {
+        return (int) Math.round((double) ticks * microsPerTick / other.microsPerTick);
+    }
+
+    /**
+     * Formats a time as a number of seconds, with as many decimal places as this resolution needs
+     * @param ticks The time to format, in ticks of this resolution
+     * @return The time as a String, for example "1.25s"
+     */
+    public String formatSeconds(int ticks) {
+        // The time is truncated to the number of decimal places rather than rounded
+        long microsPerUnit = (long) Math.pow(10, 6 - decimalPlaces);
+        long units = (long) ticks * microsPerTick / microsPerUnit;
+        long unitsPerSecond = (long) Math.pow(10, decimalPlaces);
+        return (units / unitsPerSecond) + "." + String.format("%0" + decimalPlaces + "d", units % unitsPerSecond) + "s";
+    }
+
+    /**
+     * Finds a resolution by its label, with or without the space, for example "1 ms" or "1ms"
+     * @return The matching resolution, or null if there isn't one
+     */
+    public static TickResolution fromLabel(String label) {
+        for (TickResolution resolution : values()) {
+            if (resolution.label.equals(label) || resolution.label.replace(" ", "").equals(label)) {
+                return resolution;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}